@@ -0,0 +1,69 @@
+package server.jmh;
+
+import javafx.scene.shape.Line;
+import javafx.scene.shape.Rectangle;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// 各基准共用的输入数据: 固定种子生成, 不同分支上跑出的输入完全相同, 结果才能直接对比
+final class BenchmarkData {
+    static final long SEED = 42;
+
+    private BenchmarkData() {
+    }
+
+    // 鼠标拖动产生的短线段(坐标多为小数), 少量矩形和文字
+    static Action randomAction(Random random) {
+        double x = random.nextInt(1920) + random.nextInt(4) * 0.25;
+        double y = random.nextInt(1080) + random.nextInt(4) * 0.25;
+        if (random.nextInt(20) == 0) {
+            return new MainAction.TextAction(x, y, "note " + random.nextInt(100), "0x000000ff", 1);
+        }
+        return new MainAction.DrawAction(x, y,
+                x + random.nextDouble() * 6, y + random.nextDouble() * 6,
+                random.nextBoolean() ? "0x000000ff" : "0xff0000ff", 2.0,
+                random.nextInt(10) == 0 ? Rectangle.class : Line.class);
+    }
+
+    static List<Action> randomActions(int count, long seed) {
+        Random random = new Random(seed);
+        List<Action> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            actions.add(randomAction(random));
+        }
+        return actions;
+    }
+
+    static Path createTempDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // DraftManager加载时会打印统计信息, 测量期间屏蔽掉, 避免输出本身计入耗时
+    static PrintStream silenceStdout() {
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return original;
+    }
+}
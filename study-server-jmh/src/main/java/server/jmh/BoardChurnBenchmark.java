@@ -0,0 +1,129 @@
+package server.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.board.Board;
+import server.board.BoardRegistry;
+import server.handler.ClientHandler;
+import server.models.Message;
+import server.nio.NioConnection;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 成员不断加入/离开时的笔画广播: idle组只有一个线程广播, churn组另有4个线程反复加入并离开同一画板,
+ * 比较两组中fanOut的耗时即为成员变化对广播的影响. 客户端与BroadcastBenchmark相同, 是未连接的NioConnection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class BoardChurnBenchmark {
+    private static final String BOARD_ID = "jmh-churn";
+    private static final int MEMBERS = 100;
+
+    @State(Scope.Group)
+    public static class Shared {
+        Board board;
+        ClientHandler[] members;
+        Message message;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            board = BoardRegistry.getOrCreate(BOARD_ID);
+            members = new ClientHandler[MEMBERS];
+            for (int i = 0; i < MEMBERS; i++) {
+                members[i] = newClient();
+                board.join(members[i]);
+            }
+            message = new Message(Message.Type.EDIT_ACTION,
+                    BenchmarkData.randomActions(1, BenchmarkData.SEED).get(0), "editor");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            for (ClientHandler member : members) {
+                board.leave(member);
+                member.closeConnection();
+            }
+            BenchmarkData.deleteRecursively(Paths.get("boards", BOARD_ID));
+        }
+    }
+
+    // 每个加入/离开线程自己的连接
+    @State(Scope.Thread)
+    public static class Churner {
+        ClientHandler client;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            client = newClient();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            client.closeConnection();
+        }
+    }
+
+    private static ClientHandler newClient() throws IOException {
+        return new NioConnection(SocketChannel.open(), 1 << 20).getHandler();
+    }
+
+    @Benchmark
+    @Group("idle")
+    @GroupThreads(1)
+    public int idleFanOut(Shared shared) {
+        return fanOut(shared);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public int churnFanOut(Shared shared) {
+        return fanOut(shared);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(4)
+    public int joinLeave(Shared shared, Churner churner) {
+        shared.board.join(churner.client);
+        shared.board.leave(churner.client);
+        return drain(churner.client);
+    }
+
+    // 广播后由"I/O线程"取出, 成员的发送队列只由广播线程读取
+    private static int fanOut(Shared shared) {
+        shared.board.broadcastMessage(shared.message);
+        int drained = 0;
+        for (ClientHandler member : shared.members) {
+            drained += drain(member);
+        }
+        return drained;
+    }
+
+    private static int drain(ClientHandler client) {
+        int drained = 0;
+        while (client.getOutboundQueue().poll() != null) {
+            drained++;
+        }
+        return drained;
+    }
+}
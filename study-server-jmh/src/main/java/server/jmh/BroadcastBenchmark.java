@@ -0,0 +1,87 @@
+package server.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.board.Board;
+import server.board.BoardRegistry;
+import server.handler.ClientHandler;
+import server.models.Message;
+import server.nio.NioConnection;
+import server.util.ServerConfig;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一条笔画广播给画板上N个客户端: 逐个入队并由"I/O线程"取出, 不含编码和网络.
+ * 客户端是未连接的NioConnection, 没有注册到Selector, 入队后不会被真正写出.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class BroadcastBenchmark {
+    private static final String BOARD_ID = "jmh-broadcast";
+
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    private Board board;
+    private ClientHandler[] members;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        board = BoardRegistry.getOrCreate(BOARD_ID);
+        members = new ClientHandler[clients];
+        for (int i = 0; i < clients; i++) {
+            members[i] = new NioConnection(SocketChannel.open(), 1 << 20).getHandler();
+            board.join(members[i]);
+        }
+        message = new Message(Message.Type.EDIT_ACTION,
+                BenchmarkData.randomActions(1, BenchmarkData.SEED).get(0), "editor");
+        // 等加入引起的用户列表通知发完再开始测量
+        Thread.sleep(ServerConfig.getInt("board.userUpdateMillis", 100) + 200);
+        drain();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (ClientHandler member : members) {
+            board.leave(member);
+            member.closeConnection();
+        }
+        BenchmarkData.deleteRecursively(Paths.get("boards", BOARD_ID));
+    }
+
+    @Benchmark
+    public int fanOut() {
+        board.broadcastMessage(message);
+        return drain();
+    }
+
+    private int drain() {
+        int drained = 0;
+        for (ClientHandler member : members) {
+            while (member.getOutboundQueue().poll() != null) {
+                drained++;
+            }
+        }
+        return drained;
+    }
+}
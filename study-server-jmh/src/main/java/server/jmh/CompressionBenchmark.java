@@ -0,0 +1,116 @@
+package server.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.codec.WireFormat;
+import server.models.Message;
+import server.nio.FrameCodec;
+import server.nio.FrameCompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接压缩对实时笔画的效果: 每帧的压缩和压缩+解压耗时, 按编码、预置字典和压缩级别对比.
+ * 压缩器在整个试验中持续使用, 与一条长连接相同. 每次试验开始时用新的压缩器打印每帧字节数,
+ * 前10帧最能体现字典的作用, 之后主要靠连接内的32KB窗口.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CompressionBenchmark {
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    private static final int FRAMES = 4096;
+
+    @Param({"SERIALIZED", "BINARY"})
+    public WireFormat format;
+
+    @Param({"preset", "none"})
+    public String dictionary;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private ByteBuffer[] frames;
+    private int next;
+    // compress()用的压缩器, 以及roundTrip()用的一对收发压缩器
+    private FrameCompressor compressor;
+    private FrameCompressor sender;
+    private FrameCompressor receiver;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(BenchmarkData.SEED);
+        frames = new ByteBuffer[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = FrameCodec.encode(new Message(Message.Type.EDIT_ACTION, BenchmarkData.randomAction(random),
+                    "student" + (10 + random.nextInt(5))), format);
+        }
+        printFrameSizes();
+        compressor = newCompressor();
+        sender = newCompressor();
+        receiver = newCompressor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        compressor.close();
+        sender.close();
+        receiver.close();
+    }
+
+    private FrameCompressor newCompressor() {
+        return "preset".equals(dictionary)
+                ? new FrameCompressor(level, MAX_FRAME_BYTES) : new FrameCompressor(level, null, MAX_FRAME_BYTES);
+    }
+
+    private void printFrameSizes() throws IOException {
+        FrameCompressor fresh = newCompressor();
+        long raw = 0;
+        long first = 0;
+        long wire = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            raw += frames[i].remaining() - FrameCodec.HEADER_SIZE;
+            int compressed = fresh.compress(frames[i].duplicate()).remaining() - FrameCodec.HEADER_SIZE;
+            if (i < 10) {
+                first += compressed;
+            }
+            wire += compressed;
+        }
+        fresh.close();
+        System.out.println(format + " dictionary=" + dictionary + " level=" + level + ": raw " + raw / FRAMES
+                + " B/frame, first 10 " + first / 10 + " B/frame, wire " + wire / FRAMES + " B/frame");
+    }
+
+    private ByteBuffer nextFrame() {
+        next = (next + 1) % FRAMES;
+        return frames[next].duplicate();
+    }
+
+    @Benchmark
+    public ByteBuffer compress() throws IOException {
+        return compressor.compress(nextFrame());
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws IOException {
+        ByteBuffer compressed = sender.compress(nextFrame());
+        return receiver.decompress(compressed.array(), compressed.arrayOffset() + compressed.position()
+                + FrameCodec.HEADER_SIZE, compressed.remaining() - FrameCodec.HEADER_SIZE);
+    }
+}
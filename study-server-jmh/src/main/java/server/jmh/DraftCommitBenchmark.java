@@ -0,0 +1,72 @@
+package server.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.models.MainAction.Action;
+import server.util.DraftManager;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编辑者画完一段后提交: 申请租约、添加STROKE_ACTIONS个动作、commitEdit.
+ * 提交会让历史变长, 所以每轮迭代前重建指定长度的历史, 每轮只执行BATCH次,
+ * 一轮内历史最多增长BATCH * STROKE_ACTIONS个动作.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, batchSize = DraftCommitBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = DraftCommitBenchmark.BATCH)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class DraftCommitBenchmark {
+    static final int BATCH = 100;
+    static final int STROKE_ACTIONS = 16;
+
+    @Param({"1000", "10000", "100000"})
+    public int historySize;
+
+    private Path directory;
+    private DraftManager draft;
+    private List<Action> strokes;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        PrintStream stdout = BenchmarkData.silenceStdout();
+        try {
+            directory = BenchmarkData.createTempDirectory("draft-commit-bench");
+            draft = DraftManagerBenchmark.createWithHistory(directory, historySize);
+        } finally {
+            System.setOut(stdout);
+        }
+        strokes = BenchmarkData.randomActions(STROKE_ACTIONS, BenchmarkData.SEED + 2);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public boolean commitStroke() {
+        draft.acquireLease(DraftManagerBenchmark.EDITOR, null);
+        for (Action action : strokes) {
+            draft.addEditAction(action, DraftManagerBenchmark.EDITOR);
+        }
+        return draft.commitEdit(DraftManagerBenchmark.EDITOR);
+    }
+}
@@ -0,0 +1,98 @@
+package server.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.models.MainAction.Action;
+import server.util.DraftManager;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DraftManager的编辑操作在不同历史长度下的耗时. 历史在试验开始前一次性提交,
+ * 编辑者持有整个画板的租约; 每个基准方法执行完后草稿状态与执行前相同, 历史长度不随迭代变化.
+ * 提交会让历史增长, 单独放在DraftCommitBenchmark中.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class DraftManagerBenchmark {
+    static final String EDITOR = "editor";
+
+    @Param({"1000", "10000", "100000"})
+    public int historySize;
+
+    private Path directory;
+    private DraftManager draft;
+    private Action stroke;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        PrintStream stdout = BenchmarkData.silenceStdout();
+        try {
+            directory = BenchmarkData.createTempDirectory("draft-bench");
+            draft = createWithHistory(directory, historySize);
+        } finally {
+            System.setOut(stdout);
+        }
+        stroke = BenchmarkData.randomActions(1, BenchmarkData.SEED + 1).get(0);
+        draft.acquireLease(EDITOR, null);
+        // undoThenRedo需要一个可撤销的动作
+        draft.addEditAction(stroke, EDITOR);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        draft.releaseLease(EDITOR);
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    // 新画一笔后撤销: 重做栈在下次添加时清空, 状态不累积
+    @Benchmark
+    public Action addThenUndo() {
+        draft.addEditAction(stroke, EDITOR);
+        return draft.undoAction(EDITOR);
+    }
+
+    @Benchmark
+    public Action undoThenRedo() {
+        draft.undoAction(EDITOR);
+        return draft.redoAction(EDITOR);
+    }
+
+    // 复制整个已提交历史加上未提交的动作, 新用户加入时的全量同步
+    @Benchmark
+    public List<Action> getCurrentState() {
+        return draft.getCurrentState();
+    }
+
+    // 在directory下建立带操作日志的DraftManager, 并提交count个动作作为已有历史
+    static DraftManager createWithHistory(Path directory, int count) {
+        DraftManager draft = new DraftManager("bench", directory);
+        draft.loadDraftHistory();
+        String seeder = "seeder";
+        draft.acquireLease(seeder, null);
+        for (Action action : BenchmarkData.randomActions(count, BenchmarkData.SEED)) {
+            draft.addEditAction(action, seeder);
+        }
+        draft.commitEdit(seeder);
+        return draft;
+    }
+}
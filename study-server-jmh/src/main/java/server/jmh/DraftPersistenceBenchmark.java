@@ -0,0 +1,69 @@
+package server.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.util.DraftManager;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 草图历史的保存(写检查点)和加载(读最新检查点和其后的日志段)耗时.
+ * 历史内容每轮不变, 保存只会替换检查点, 目录大小保持稳定.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class DraftPersistenceBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int historySize;
+
+    private Path directory;
+    private DraftManager draft;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // 加载时打印的统计信息会计入耗时, 整个试验期间屏蔽
+        stdout = BenchmarkData.silenceStdout();
+        directory = BenchmarkData.createTempDirectory("draft-persist-bench");
+        draft = DraftManagerBenchmark.createWithHistory(directory, historySize);
+        draft.saveDraftHistory();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public DraftManager saveDraftHistory() {
+        draft.saveDraftHistory();
+        return draft;
+    }
+
+    // 模拟服务重启: 新建DraftManager从同一目录加载
+    @Benchmark
+    public long loadDraftHistory() {
+        DraftManager loaded = new DraftManager("bench", directory);
+        loaded.loadDraftHistory();
+        return loaded.getLastSequence();
+    }
+}
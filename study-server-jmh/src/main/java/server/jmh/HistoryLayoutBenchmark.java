@@ -0,0 +1,75 @@
+package server.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.util.ColumnarActionList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已提交历史按下标顺序读取一遍的耗时: ArrayList<Action>与ColumnarActionList对比.
+ * 每次试验开始时打印两种布局估算的每个动作字节数; 实际堆占用用-prof gc或堆转储查看.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class HistoryLayoutBenchmark {
+    @Param({"list", "columnar"})
+    public String layout;
+
+    @Param({"100000", "1000000"})
+    public int historySize;
+
+    private List<Action> history;
+
+    @Setup
+    public void setup() {
+        List<Action> objects = new ArrayList<>(historySize);
+        for (Action action : BenchmarkData.randomActions(historySize, BenchmarkData.SEED)) {
+            objects.add(distinctColor(action));
+        }
+        ColumnarActionList columns = new ColumnarActionList(objects);
+        System.out.println("estimated bytes/action: ArrayList " + columns.estimateObjectLayoutBytes() / historySize
+                + ", columnar " + columns.estimateBytes() / historySize);
+        history = "columnar".equals(layout) ? columns : objects;
+    }
+
+    // 模拟从序列化或网络解码得到的动作: 每个颜色字符串都是独立对象
+    private static Action distinctColor(Action action) {
+        if (action instanceof MainAction.DrawAction) {
+            MainAction.DrawAction draw = (MainAction.DrawAction) action;
+            return new MainAction.DrawAction(draw.getStartX(), draw.getStartY(),
+                    draw.getEndX(), draw.getEndY(), new String(draw.getColor().toCharArray()), draw.getLineWidth(),
+                    draw.getShapeClass());
+        }
+        return action;
+    }
+
+    @Benchmark
+    public double scan() {
+        double sum = 0;
+        for (int i = 0; i < history.size(); i++) {
+            Action action = history.get(i);
+            if (action instanceof MainAction.DrawAction) {
+                sum += ((MainAction.DrawAction) action).getStartX();
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,156 @@
+package server.jmh;
+
+import javafx.scene.shape.Line;
+import javafx.scene.shape.Rectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.util.HistorySquasher;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟一节课的已提交历史(手写笔画、涂色块、中途清空): 压缩本身的耗时, 以及客户端按Java2D
+ * 在1920x1080的画布上重放压缩前后历史的耗时. 每次试验开始时打印压缩前后的动作数和字节数.
+ * 压缩前后画出的结果相同由HistorySquasherTest检查.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Djava.awt.headless=true"})
+public class HistorySquashBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @Param({"20000"})
+    public int strokes;
+
+    private List<Action> original;
+    private HistorySquasher.Result squashed;
+
+    @Setup
+    public void setup() {
+        original = classroom(strokes, new Random(BenchmarkData.SEED));
+        squashed = HistorySquasher.squash(original);
+        System.out.println("Squash: " + squashed);
+    }
+
+    // 重放用的画布和要重放的历史
+    @State(Scope.Thread)
+    public static class Canvas {
+        @Param({"original", "squashed"})
+        public String history;
+
+        List<Action> actions;
+        BufferedImage image;
+        Graphics2D graphics;
+
+        @Setup
+        public void setup(HistorySquashBenchmark data) {
+            actions = "squashed".equals(history) ? data.squashed.getActions() : data.original;
+            image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            graphics = image.createGraphics();
+            graphics.setBackground(new Color(0, 0, 0, 0));
+        }
+
+        @TearDown
+        public void tearDown() {
+            graphics.dispose();
+        }
+    }
+
+    @Benchmark
+    public HistorySquasher.Result squash() {
+        return HistorySquasher.squash(original);
+    }
+
+    @Benchmark
+    public BufferedImage replay(Canvas canvas) {
+        Graphics2D g = canvas.graphics;
+        g.clearRect(0, 0, WIDTH, HEIGHT);
+        for (Action action : canvas.actions) {
+            if (action instanceof MainAction.UndoAllAction) {
+                g.clearRect(0, 0, WIDTH, HEIGHT);
+            } else if (action instanceof MainAction.DrawAction) {
+                draw(g, (MainAction.DrawAction) action);
+            }
+        }
+        return canvas.image;
+    }
+
+    private static void draw(Graphics2D g, MainAction.DrawAction draw) {
+        g.setColor(color(draw.getColor()));
+        if (draw.getShapeClass() == Rectangle.class) {
+            g.fill(new Rectangle2D.Double(Math.min(draw.getStartX(), draw.getEndX()),
+                    Math.min(draw.getStartY(), draw.getEndY()),
+                    Math.abs(draw.getEndX() - draw.getStartX()), Math.abs(draw.getEndY() - draw.getStartY())));
+        } else {
+            g.setStroke(new BasicStroke((float) draw.getLineWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.draw(new Line2D.Double(draw.getStartX(), draw.getStartY(), draw.getEndX(), draw.getEndY()));
+        }
+    }
+
+    private static Color color(String rgba) {
+        long value = Long.parseLong(rgba.substring(2), 16);
+        return new Color((int) (value >>> 24) & 0xff, (int) (value >>> 16) & 0xff,
+                (int) (value >>> 8) & 0xff, (int) value & 0xff);
+    }
+
+    // 每个笔画是几段到几十段首尾相接的线段, 直线部分由共线的小段组成; 偶尔涂一块不透明矩形, 中途清空一次
+    private static List<Action> classroom(int strokes, Random random) {
+        List<Action> actions = new ArrayList<>();
+        String[] colors = {"0x000000ff", "0xff0000ff", "0x0000ffff", "0x00800080"};
+        for (int i = 0; i < strokes; i++) {
+            if (i == strokes / 4) {
+                actions.add(new MainAction.UndoAllAction());
+            }
+            if (random.nextInt(40) == 0) {
+                double x = random.nextInt(WIDTH - 300);
+                double y = random.nextInt(HEIGHT - 200);
+                actions.add(new MainAction.DrawAction(x, y, x + 100 + random.nextInt(200),
+                        y + 80 + random.nextInt(120), "0xffffffff", 1, Rectangle.class));
+                continue;
+            }
+            String color = colors[random.nextInt(colors.length)];
+            double width = 1 + random.nextInt(4);
+            double x = random.nextInt(WIDTH);
+            double y = random.nextInt(HEIGHT);
+            int segments = 4 + random.nextInt(40);
+            double dx = random.nextInt(7) - 3;
+            double dy = random.nextInt(7) - 3;
+            for (int s = 0; s < segments; s++) {
+                // 一半时间沿直线走, 一半时间随机转向
+                if (random.nextBoolean()) {
+                    dx = random.nextInt(7) - 3;
+                    dy = random.nextInt(7) - 3;
+                }
+                actions.add(new MainAction.DrawAction(x, y, x + dx, y + dy, color, width, Line.class));
+                x += dx;
+                y += dy;
+            }
+        }
+        return actions;
+    }
+}
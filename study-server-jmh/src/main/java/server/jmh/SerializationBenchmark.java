@@ -0,0 +1,80 @@
+package server.jmh;
+
+import javafx.scene.shape.Line;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.codec.WireFormat;
+import server.models.MainAction;
+import server.models.Message;
+import server.nio.FrameCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message的编码/解码往返: 单个DrawAction(实时笔画)、64个动作的BatchAction(合并后的笔画)
+ * 和10000个动作的INITIAL_STATE(加入时的完整历史), 分别用Java序列化和BinaryCodec,
+ * 与NIO服务端发送一帧的路径相同. 每次试验开始时打印帧的字节数.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class SerializationBenchmark {
+    @Param({"SERIALIZED", "BINARY"})
+    public WireFormat format;
+
+    @Param({"draw", "batch64", "history10k"})
+    public String payload;
+
+    private Message message;
+    private byte[] frame;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(BenchmarkData.SEED);
+        if ("history10k".equals(payload)) {
+            message = new Message(Message.Type.INITIAL_STATE,
+                    BenchmarkData.randomActions(10_000, random.nextLong()), null);
+        } else {
+            Object data = "draw".equals(payload)
+                    ? new MainAction.DrawAction(100.25, 200.5, 104.75, 203.0, "0x000000ff", 2.0, Line.class)
+                    : new MainAction.BatchAction(BenchmarkData.randomActions(64, random.nextLong()));
+            message = new Message(Message.Type.EDIT_ACTION, data, "student-01");
+        }
+        ByteBuffer encoded = FrameCodec.encode(message, format);
+        frame = new byte[encoded.remaining()];
+        encoded.get(frame);
+        System.out.println(payload + " " + format + ": " + frame.length + " bytes/frame");
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return FrameCodec.encode(message, format);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException, ClassNotFoundException {
+        return FrameCodec.decode(frame, FrameCodec.HEADER_SIZE, frame.length - FrameCodec.HEADER_SIZE);
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException, ClassNotFoundException {
+        ByteBuffer encoded = FrameCodec.encode(message, format);
+        return FrameCodec.decode(encoded.array(), encoded.position() + FrameCodec.HEADER_SIZE,
+                encoded.remaining() - FrameCodec.HEADER_SIZE);
+    }
+}
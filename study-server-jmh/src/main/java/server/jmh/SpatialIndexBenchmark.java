@@ -0,0 +1,106 @@
+package server.jmh;
+
+import javafx.scene.shape.Line;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.util.SpatialIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大画布上的视口查询: 四叉树与逐个检查外接矩形的线性扫描对比, 以及建索引的耗时.
+ * 每次调用查询固定序列中的下一个1920x1080视口.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class SpatialIndexBenchmark {
+    private static final double CANVAS_SIZE = 20_000;
+    private static final double VIEWPORT_WIDTH = 1920;
+    private static final double VIEWPORT_HEIGHT = 1080;
+    private static final int VIEWPORTS = 256;
+
+    @Param({"100000", "1000000"})
+    public int historySize;
+
+    private List<Action> history;
+    private SpatialIndex index;
+    private double[][] viewports;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(BenchmarkData.SEED);
+        history = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            history.add(randomStroke(random));
+        }
+        index = build();
+        viewports = new double[VIEWPORTS][];
+        for (int i = 0; i < VIEWPORTS; i++) {
+            double x = random.nextDouble() * (CANVAS_SIZE - VIEWPORT_WIDTH);
+            double y = random.nextDouble() * (CANVAS_SIZE - VIEWPORT_HEIGHT);
+            viewports[i] = new double[]{x, y, x + VIEWPORT_WIDTH, y + VIEWPORT_HEIGHT};
+        }
+    }
+
+    // 连续笔画中的一小段, 分布在整个大画布上
+    private static Action randomStroke(Random random) {
+        double x = random.nextDouble() * CANVAS_SIZE;
+        double y = random.nextDouble() * CANVAS_SIZE;
+        return new MainAction.DrawAction(x, y, x + random.nextDouble() * 8 - 4, y + random.nextDouble() * 8 - 4,
+                "0x000000ff", 2.0, Line.class);
+    }
+
+    private double[] nextViewport() {
+        next = (next + 1) % VIEWPORTS;
+        return viewports[next];
+    }
+
+    @Benchmark
+    public int[] quadtree() {
+        double[] v = nextViewport();
+        return index.query(v[0], v[1], v[2], v[3]);
+    }
+
+    // 与SpatialIndex相同的判定
+    @Benchmark
+    public int linearScan() {
+        double[] v = nextViewport();
+        int hits = 0;
+        for (Action action : history) {
+            double[] box = SpatialIndex.bounds(action);
+            if (box == null || (box[0] <= v[2] && box[2] >= v[0] && box[1] <= v[3] && box[3] >= v[1])) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SpatialIndex build() {
+        SpatialIndex built = new SpatialIndex();
+        for (Action action : history) {
+            built.add(action);
+        }
+        return built;
+    }
+}
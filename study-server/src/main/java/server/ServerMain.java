@@ -1,11 +1,17 @@
 package server;
 
+import server.board.Board;
+import server.board.BoardRegistry;
 import server.handler.ClientHandler;
-import server.models.MainAction.Action;
+import server.metrics.ServerMetrics;
 import server.models.Message;
 import server.models.UserSession;
+import server.nio.NioServer;
+import server.replication.Replication;
 import server.util.DatabaseUtil;
-import server.util.DraftManager;
+import server.util.HistorySquasher;
+import server.util.ServerConfig;
+import server.util.StartupTimer;
 import server.util.UserManager;
 
 import java.io.*;
@@ -14,36 +20,60 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class ServerMain {
-    private static Set<ClientHandler> onlineUsers = Collections.synchronizedSet(new HashSet<>());
+    // 所有已注册的连接(跨画板), 用于关闭服务和统计; 广播按画板进行
+    private static final Set<ClientHandler> onlineUsers = ConcurrentHashMap.newKeySet();
     private static volatile boolean running = true;
+    // 执行关闭流程的线程(命令监听线程), 主线程等它保存完数据再退出
+    private static volatile Thread shutdownThread;
     private static int port;
     private static String address;
     private static ServerSocket serverSocket;
+    // 连接模式: blocking(每连接一线程) 或 nio(Selector + 固定I/O线程)
+    private static String serverMode;
+    private static NioServer nioServer;
 
     public static void main(String[] args) {
         initialize();
         startCommandListener();
         startServer();
+        // 监听循环在running置为false后很快返回, 此时关闭流程还在保存数据, 命令线程是守护线程
+        Thread shutdown = shutdownThread;
+        if (shutdown != null) {
+            try {
+                shutdown.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     private static void initialize() {
+        StartupTimer.begin();
         System.out.println("Server Initializing...");
         try {
-            // 1. 初始化数据库
-            DatabaseUtil.initialize();
-            
+            // 1. 加载配置
+            loadConfig();
+            StartupTimer.phase("config");
+            ServerMetrics.registerMBeanInBackground();
+
             // 2. 初始化目录
             initializeDirectories();
-            
-            // 3. 加载配置
-            loadConfig();
-            
-            // 4. 加载草图历史
-            DraftManager.loadDraftHistory();
+            StartupTimer.phase("directories");
+
+            // 3. 初始化数据库: background时不等数据库, 就绪前用户记录保存在内存中
+            initializeDatabase();
+
+            // 4. 启动复制: 主服务器接受副本连接, 副本连接主服务器; 要在加载画板之前, 副本才能订阅它们
+            Replication.start();
+
+            // 5. 加载默认画板的草图历史, 其他画板在首次加入时加载
+            BoardRegistry.getDefault();
+            StartupTimer.phase("board history");
             
             System.out.println("Server initialization completed");
         } catch (Exception e) {
@@ -52,6 +82,23 @@ public class ServerMain {
         }
     }
 
+    private static void initializeDatabase() {
+        if (UserManager.isMemoryOnly()) {
+            System.out.println("User store: in-memory only (server.userStore=memory)");
+            return;
+        }
+        String mode = ServerConfig.getString("server.dbStartup", "background");
+        if ("blocking".equalsIgnoreCase(mode)) {
+            DatabaseUtil.initialize();
+            UserManager.warmCache();
+            StartupTimer.phase("database");
+        } else {
+            DatabaseUtil.initializeInBackground(ServerConfig.getLong("server.dbRetryMillis", 10000),
+                    UserManager::onDatabaseReady);
+            System.out.println("Database connecting in background; users are kept in memory until it is ready");
+        }
+    }
+
     private static void initializeDirectories() {
         try {
             // 获取项目根目录
@@ -71,12 +118,12 @@ public class ServerMain {
     }
 
     private static void loadConfig() {
-        Properties props = new Properties();
-        try (InputStream input = new FileInputStream("src/main/resources/server-config.properties")) {
-            props.load(input);
-            port = Integer.parseInt(props.getProperty("server.port", "8888"));
-            address = props.getProperty("server.address", "localhost");
-            System.out.println("Server address: " + address + ":" + port);
+        try {
+            ServerConfig.load();
+            port = ServerConfig.getInt("server.port", 8888);
+            address = ServerConfig.getString("server.address", "localhost");
+            serverMode = ServerConfig.getString("server.mode", "blocking");
+            System.out.println("Server address: " + address + ":" + port + " (" + serverMode + " mode)");
         } catch (IOException e) {
             System.err.println("Failed to load config: " + e.getMessage());
             System.exit(1);
@@ -89,12 +136,22 @@ public class ServerMain {
                 while (running) {
                     String command = reader.readLine();
                     if ("stop server".equalsIgnoreCase(command)) {
-                        if (!DraftManager.isBeingEdited()) {
+                        if (!BoardRegistry.isAnyBeingEdited()) {
                             shutdown();
                             break;
                         } else {
                             System.out.println("Cannot stop server while client is editing");
                         }
+                    } else if ("queue stats".equalsIgnoreCase(command)) {
+                        printQueueStats();
+                    } else if ("db stats".equalsIgnoreCase(command)) {
+                        System.out.println("Connection pool: " + DatabaseUtil.getPoolStats());
+                        System.out.println("User cache: " + UserManager.getCacheStats());
+                        System.out.println("User writes: " + UserManager.getWriteStats());
+                    } else if ("stats".equalsIgnoreCase(command)) {
+                        System.out.println(ServerMetrics.report());
+                    } else if ("squash".equalsIgnoreCase(command)) {
+                        squashAll();
                     }
                 }
             } catch (IOException e) {
@@ -105,11 +162,43 @@ public class ServerMain {
         commandThread.start();
     }
 
+    // 压缩所有已加载画板的已提交历史, 打印每个画板的压缩效果; 副本上的历史由主服务器压缩
+    private static void squashAll() {
+        for (Board board : BoardRegistry.getBoards()) {
+            if (board.isReadOnly()) {
+                System.out.println("Board " + board.getId() + ": read-only replica, skipped");
+                continue;
+            }
+            HistorySquasher.Result result = board.getDraft().squashHistory(1);
+            System.out.println("Board " + board.getId() + ": "
+                    + (result == null ? "changed during squash, skipped" : result));
+        }
+    }
+
+    // 打印每个客户端发送队列的深度和丢弃统计, 以及压缩连接的压缩率和CPU耗时
+    private static void printQueueStats() {
+        List<ClientHandler> clients = new ArrayList<>(onlineUsers);
+        System.out.println("Outbound queues (" + clients.size() + " clients):");
+        for (ClientHandler client : clients) {
+            System.out.println("  " + client.getUserSession().getUsername()
+                    + " [" + client.getBoard().getId() + "]: " + client.getOutboundQueue().getStats());
+            String compression = client.getCompressionStats();
+            if (compression != null) {
+                System.out.println("    compression: " + compression);
+            }
+        }
+    }
+
     private static void startServer() {
+        if ("nio".equalsIgnoreCase(serverMode)) {
+            startNioServer();
+            return;
+        }
         try {
             serverSocket = new ServerSocket(port);
             serverSocket.setSoTimeout(1000); // 设置accept超时为1秒
             System.out.println("Server ready. Waiting for connections...");
+            StartupTimer.ready();
             ExecutorService executor = Executors.newCachedThreadPool();
             
             while (running) {
@@ -137,7 +226,22 @@ public class ServerMain {
         }
     }
 
+    private static void startNioServer() {
+        try {
+            nioServer = new NioServer(port,
+                    ServerConfig.getInt("nio.ioThreads", Runtime.getRuntime().availableProcessors()),
+                    ServerConfig.getInt("nio.backlog", 1024),
+                    ServerConfig.getInt("nio.maxFrameBytes", 16 * 1024 * 1024));
+            nioServer.start();
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Server error: " + e.getMessage());
+            }
+        }
+    }
+
     private static void shutdown() {
+        shutdownThread = Thread.currentThread();
         running = false;
         // 广播退出消息
         broadcastMessage(new Message(Message.Type.EXIT, "Server is shutting down", null));
@@ -153,96 +257,67 @@ public class ServerMain {
         for (ClientHandler client : new HashSet<>(onlineUsers)) {
             client.closeConnection();
         }
+        if (nioServer != null) {
+            nioServer.stop();
+        }
+        Replication.stop();
         
-        // 保存当前状态
-        DraftManager.saveDraftHistory();
+        // 保存所有画板的当前状态
+        BoardRegistry.saveAll();
         
-        // 关闭数据库连接池
+        // 写完排队的登录记录后关闭数据库连接池
+        if (!UserManager.isMemoryOnly()) {
+            UserManager.flushWrites(ServerConfig.getLong("user.shutdownFlushMillis", 5000));
+        }
         DatabaseUtil.shutdown();
         
         System.out.println("Server shutdown completed");
         System.exit(0);
     }
 
-    public static synchronized void handleClientRegistration(ClientHandler client, 
+    public static void handleClientRegistration(ClientHandler client,
             UserSession userSession) {
-        String ipAddress = client.getSocket().getInetAddress().getHostAddress();
-        UserSession existingUser = UserManager.getUserByStudentId(userSession.getStudentId());
-        
-        if (existingUser == null) {
-            UserManager.addUser(userSession.getUsername(), 
-                              userSession.getStudentId(), 
-                              ipAddress);
-        } else {
-            UserManager.updateUser(userSession.getStudentId(), ipAddress);
+        String ipAddress = client.getIpAddress();
+        if (ipAddress == null) {
+            // 注册消息处理前连接已经断开
+            System.out.println("Client disconnected before registration: " + userSession.getUsername());
+            return;
         }
+        // 插入或更新IP由后台批量写库, 这里不等数据库
+        UserManager.recordLogin(userSession.getUsername(), userSession.getStudentId(), ipAddress);
 
         onlineUsers.add(client);
-        broadcastUserUpdate();
+        client.getBoard().join(client);
     }
 
-
-    public static synchronized boolean requestEditPermission(ClientHandler client) {
-        if (!DraftManager.isBeingEdited()) {
-            DraftManager.setBeingEdited(true);
-            DraftManager.setCurrentEditor(client.getUserSession().getUsername());
-            return true;
-        }
-        return false;
+    public static int getOnlineUserCount() {
+        return onlineUsers.size();
     }
 
-    public static synchronized void handleEditComplete() {
-        DraftManager.commitEdit();
-        broadcastDraftUpdate();
-        DraftManager.setBeingEdited(false);
-        DraftManager.setCurrentEditor(null);
-    }
-
-    public static synchronized void handleClientExit(ClientHandler client) {
-        onlineUsers.remove(client);
-        if (client.getUserSession().getUsername()
-                .equals(DraftManager.getCurrentEditor())) {
-            DraftManager.setBeingEdited(false);
-            DraftManager.setCurrentEditor(null);
+    // 切换画板: 离开原画板(释放其编辑权限)后加入新画板; 未注册的连接只记录目标画板
+    public static void handleJoinBoard(ClientHandler client, Board target) {
+        Board current = client.getBoard();
+        if (current == target) {
+            return;
         }
-        broadcastUserUpdate();
-    }
-
-    private static void broadcastUserUpdate() {
-        Set<UserSession> users = new HashSet<>();
-        for (ClientHandler client : onlineUsers) {
-            users.add(client.getUserSession());
+        if (onlineUsers.contains(client)) {
+            current.leave(client);
+            client.setBoard(target);
+            target.join(client);
+        } else {
+            client.setBoard(target);
         }
-        broadcastMessage(new Message(Message.Type.UPDATE_USERS, users, null));
-    }
-
-    public static synchronized void broadcastEditAction(Action action, ClientHandler sender) {
-        Message message = new Message(Message.Type.EDIT_ACTION, action, 
-                sender.getUserSession().getUsername());
-        broadcastToOthers(message, sender);
-    }
-
-    public static synchronized void broadcastDraftUpdate() {
-        Message message = new Message(Message.Type.UPDATE_DRAFT, null, 
-                null);
-        broadcastMessage(message);
     }
 
-    private static void broadcastToOthers(Message message, ClientHandler sender) {
-        for (ClientHandler client : onlineUsers) {
-            if (client != sender) {
-                client.sendMessage(message);
-            }
-        }
+    public static void handleClientExit(ClientHandler client) {
+        onlineUsers.remove(client);
+        client.getBoard().leave(client);
     }
 
+    // 发给所有画板的所有连接, 只用于关闭服务
     private static void broadcastMessage(Message message) {
         for (ClientHandler client : onlineUsers) {
             client.sendMessage(message);
         }
     }
-
-
-    
-
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package server.board;
+
+import server.handler.ClientHandler;
+import server.metrics.ServerMetrics;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.models.Message;
+import server.models.UserSession;
+import server.models.Viewport;
+import server.tile.TileService;
+import server.util.DraftManager;
+import server.util.ServerConfig;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个画板(房间): 草图状态、在线成员和编辑租约.
+ * 成员集合为并发集合, 广播直接遍历不加锁. 加入/离开只修改集合并标记用户列表待发送,
+ * 由通知线程在board.userUpdateMillis之后合并发送最新的UPDATE_USERS,
+ * I/O线程不会因为其他人进出而阻塞, 一阵进出也只给每个成员发一次用户列表.
+ * 编辑租约和历史由DraftManager自己的锁保护. 不同画板之间互不影响.
+ */
+public class Board {
+    // 所有画板共用一个通知线程, 发送合并后的用户列表
+    private static ScheduledExecutorService notifier;
+
+    private final String id;
+    private final DraftManager draft;
+    // 只读副本上的画板: 状态来自主服务器, 本地成员不能编辑
+    private final boolean readOnly;
+    private final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+    // 已有一次用户列表发送在排队, 其间的成员变化由它一并发出
+    private final AtomicBoolean userUpdatePending = new AtomicBoolean();
+
+    Board(String id, DraftManager draft, boolean readOnly) {
+        this.id = id;
+        this.draft = draft;
+        this.readOnly = readOnly;
+        if (TileService.isEnabled()) {
+            draft.addListener(TileService.listenerFor(id));
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public DraftManager getDraft() {
+        return draft;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public List<ClientHandler> getMembers() {
+        return new ArrayList<>(members);
+    }
+
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    public void join(ClientHandler client) {
+        members.add(client);
+        scheduleUserUpdate();
+    }
+
+    // 离开画板, 其编辑租约随之失效(同一用户已从其他连接接手的租约不受影响); 丢弃了未提交的动作时通知其他成员重新同步
+    // 只读副本上的租约都属于主服务器的用户, 不随本地成员离开而释放
+    public void leave(ClientHandler client) {
+        if (!members.remove(client)) {
+            return;
+        }
+        scheduleUserUpdate();
+        UserSession session = client.getUserSession();
+        if (session != null && !readOnly && draft.releaseLease(session.getUsername(), client)) {
+            broadcastDraftUpdate();
+        }
+    }
+
+    /**
+     * 申请编辑租约, 授予时返回null, 否则返回冲突租约的持有者.
+     * region为null表示整个画板; 未开启edit.regionLeases时区域请求也按整个画板处理.
+     */
+    public String requestEditLease(ClientHandler client, Viewport region) {
+        if (!ServerConfig.getBoolean("edit.regionLeases", false)) {
+            region = null;
+        }
+        return draft.acquireLease(client.getUserSession().getUsername(), region, client);
+    }
+
+    // 提交发送者自己的动作并释放其租约
+    public void handleEditComplete(ClientHandler client) {
+        UserSession session = client.getUserSession();
+        if (session != null && !readOnly && draft.commitEdit(session.getUsername())) {
+            broadcastDraftUpdate();
+        }
+    }
+
+    // 一批动作只发一帧: 单个动作保持原来的EDIT_ACTION格式, 多个动作打包成BatchAction
+    public void broadcastEditActions(List<Action> actions, ClientHandler sender) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        broadcastToOthers(editActionMessage(actions, sender.getUserSession().getUsername()), sender);
+    }
+
+    // 只读副本: 转发主服务器上username生效的动作, 本地成员都是观看者
+    public void relayEditActions(List<Action> actions, String username) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        broadcastMessage(editActionMessage(actions, username));
+    }
+
+    private static Message editActionMessage(List<Action> actions, String username) {
+        Action data = actions.size() == 1 ? actions.get(0) : new MainAction.BatchAction(actions);
+        return new Message(Message.Type.EDIT_ACTION, data, username);
+    }
+
+    // 附带发送时的最新序号, 客户端可据此发SYNC_REQUEST只拉取新增部分;
+    // 并发提交时通知可能乱序到达, 较小的序号只会让客户端拉到空的增量
+    public void broadcastDraftUpdate() {
+        broadcastMessage(new Message(Message.Type.UPDATE_DRAFT, draft.getLastSequence(), null));
+    }
+
+    public void broadcastMessage(Message message) {
+        broadcastToOthers(message, null);
+    }
+
+    private void broadcastToOthers(Message message, ClientHandler sender) {
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (ClientHandler client : members) {
+            if (client != sender) {
+                client.sendMessage(message);
+                recipients++;
+            }
+        }
+        ServerMetrics.recordBroadcast(recipients, System.nanoTime() - start);
+    }
+
+    // 合并连续的成员变化: 先清标记再取快照, 保证最后一次变化一定会被发出
+    private void scheduleUserUpdate() {
+        if (userUpdatePending.compareAndSet(false, true)) {
+            long delay = ServerConfig.getInt("board.userUpdateMillis", 100);
+            notifier().schedule(() -> {
+                userUpdatePending.set(false);
+                broadcastUserUpdate();
+            }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService notifier() {
+        if (notifier == null) {
+            notifier = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "board-notifier");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return notifier;
+    }
+
+    // 用户列表只包含本画板的成员
+    private void broadcastUserUpdate() {
+        Set<UserSession> users = new HashSet<>();
+        for (ClientHandler client : members) {
+            users.add(client.getUserSession());
+        }
+        broadcastMessage(new Message(Message.Type.UPDATE_USERS, users, null));
+    }
+}
@@ -0,0 +1,130 @@
+package server.board;
+
+import server.replication.Replication;
+import server.util.DraftManager;
+import server.util.ServerConfig;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 按名字管理画板, 首次加入时从磁盘加载.
+ * 默认画板沿用项目根目录下的local_draft.ser和提交日志, 其他画板各自放在boards.dir/<名字>下.
+ * 表中存放加载中的画板, 由第一个请求者在表外加载, 同时加入同一画板的其他请求者等待加载完成,
+ * 加载其他画板的请求不受影响.
+ */
+public class BoardRegistry {
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final ConcurrentHashMap<String, CompletableFuture<Board>> boards = new ConcurrentHashMap<>();
+
+    public static String getDefaultId() {
+        return ServerConfig.getString("board.default", "default");
+    }
+
+    public static Board getDefault() {
+        return getOrCreate(getDefaultId());
+    }
+
+    /**
+     * 返回指定画板, 不存在时创建并加载历史.
+     * 名字不合法或画板数已达board.maxBoards时返回null.
+     */
+    public static Board getOrCreate(String id) {
+        if (id == null || !VALID_ID.matcher(id).matches()) {
+            return null;
+        }
+        CompletableFuture<Board> board = boards.get(id);
+        if (board == null) {
+            if (boards.size() >= ServerConfig.getInt("board.maxBoards", 256)) {
+                System.err.println("Board limit reached, rejecting board " + id);
+                return null;
+            }
+            CompletableFuture<Board> loading = new CompletableFuture<>();
+            board = boards.putIfAbsent(id, loading);
+            if (board == null) {
+                return load(id, loading);
+            }
+        }
+        return board.join();
+    }
+
+    // 只返回已加载(或正在加载)的画板, 不创建
+    public static Board get(String id) {
+        CompletableFuture<Board> board = id == null ? null : boards.get(id);
+        return board == null ? null : board.join();
+    }
+
+    // 返回已加载或磁盘上已有的画板, 不新建画板目录
+    public static Board getExisting(String id) {
+        Board board = get(id);
+        if (board != null || id == null || !VALID_ID.matcher(id).matches()) {
+            return board;
+        }
+        return Files.isDirectory(directoryFor(id)) ? getOrCreate(id) : null;
+    }
+
+    // 在表外加载画板, 完成后唤醒等待同一画板的请求者; 失败时移出表, 下次请求重新加载
+    private static Board load(String id, CompletableFuture<Board> loading) {
+        try {
+            Board board;
+            // 只读副本不读写磁盘, 历史在订阅后由主服务器发来
+            if (Replication.isFollower()) {
+                board = new Board(id, DraftManager.inMemory(id), true);
+            } else {
+                DraftManager draft = new DraftManager(id, directoryFor(id));
+                draft.loadDraftHistory();
+                board = new Board(id, draft, false);
+            }
+            // 先注册复制源再公开画板, 之后的提交都会发给副本
+            Replication.attach(board);
+            loading.complete(board);
+            return board;
+        } catch (RuntimeException e) {
+            boards.remove(id, loading);
+            loading.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // 已加载完成的画板
+    public static List<Board> getBoards() {
+        List<Board> loaded = new ArrayList<>();
+        for (CompletableFuture<Board> board : boards.values()) {
+            if (board.isDone() && !board.isCompletedExceptionally()) {
+                loaded.add(board.join());
+            }
+        }
+        return loaded;
+    }
+
+    public static boolean isAnyBeingEdited() {
+        for (Board board : getBoards()) {
+            if (!board.isReadOnly() && board.getDraft().isBeingEdited()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 保存所有已加载画板的历史
+    public static void saveAll() {
+        for (Board board : getBoards()) {
+            board.getDraft().saveDraftHistory();
+        }
+    }
+
+    private static Path directoryFor(String id) {
+        String projectRoot = new File("").getAbsolutePath();
+        if (id.equals(getDefaultId())) {
+            return Paths.get(projectRoot);
+        }
+        return Paths.get(projectRoot, ServerConfig.getString("boards.dir", "boards"), id);
+    }
+}
@@ -0,0 +1,574 @@
+package server.codec;
+
+import javafx.scene.shape.*;
+import javafx.scene.text.Text;
+import server.models.DraftSync;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.models.Message;
+import server.models.StateChunk;
+import server.models.TileData;
+import server.models.TileRequest;
+import server.models.UserSession;
+import server.models.Viewport;
+import server.models.ViewportState;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * 紧凑二进制编码, 作为Java序列化的替代.
+ * 负载格式: [MAGIC][VERSION][类型标签][flags][username?][data?]
+ * 类型标签、动作标签、图形类和颜色字典都是固定编号, 新增时只能追加.
+ */
+public class BinaryCodec {
+    public static final int MAGIC = 0xB7;
+    public static final int VERSION = 1;
+
+    private static final int FLAG_USERNAME = 1;
+    private static final int FLAG_DATA = 2;
+    // BatchAction最多嵌套的层数
+    private static final int MAX_BATCH_DEPTH = 8;
+
+    // 数据值标签
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_USER_SESSION = 2;
+    private static final int VALUE_USER_SET = 3;
+    private static final int VALUE_ACTION = 4;
+    private static final int VALUE_ACTION_LIST = 5;
+    private static final int VALUE_LONG = 6;
+    private static final int VALUE_DRAFT_SYNC = 7;
+    private static final int VALUE_STATE_CHUNK = 8;
+    private static final int VALUE_VIEWPORT = 9;
+    private static final int VALUE_VIEWPORT_STATE = 10;
+    private static final int VALUE_TILE_REQUEST = 11;
+    private static final int VALUE_TILE_DATA = 12;
+    private static final int VALUE_SERIALIZED = 127;
+
+    // 动作标签
+    private static final int ACTION_DRAW = 1;
+    private static final int ACTION_TEXT = 2;
+    private static final int ACTION_UNDO = 3;
+    private static final int ACTION_UNDO_ALL = 4;
+    private static final int ACTION_REDO = 5;
+    private static final int ACTION_BATCH = 6;
+
+    // 数值编码方式(2位)
+    private static final int NUM_VARINT = 0;
+    private static final int NUM_FLOAT = 1;
+    private static final int NUM_DOUBLE = 2;
+
+    // 颜色与图形类的编码标记
+    private static final int CODE_NULL = 0;
+    private static final int CODE_RGBA = 0xFE;
+    private static final int CODE_LITERAL = 0xFF;
+
+    private static final Message.Type[] TYPE_BY_TAG = new Message.Type[64];
+    private static final Map<Message.Type, Integer> TAG_BY_TYPE = new EnumMap<>(Message.Type.class);
+
+    private static final List<Class<? extends Shape>> SHAPES = List.of(
+            Line.class, Rectangle.class, Circle.class, Ellipse.class, Polygon.class,
+            Polyline.class, Path.class, Arc.class, QuadCurve.class, CubicCurve.class,
+            SVGPath.class, Text.class);
+    private static final Map<Class<?>, Integer> SHAPE_CODES = new HashMap<>();
+
+    // 常用颜色(JavaFX Color.toString()格式)
+    private static final List<String> COLORS = List.of(
+            "0x000000ff", "0xffffffff", "0xff0000ff", "0x008000ff", "0x0000ffff",
+            "0xffff00ff", "0xffa500ff", "0x800080ff", "0xffc0cbff", "0x808080ff",
+            "0xa52a2aff", "0x00ffffff", "0xff00ffff", "0x00ff00ff", "0x00000000");
+    private static final Map<String, Integer> COLOR_CODES = new HashMap<>();
+
+    static {
+        tag(Message.Type.REGISTER, 1);
+        tag(Message.Type.EDIT_REQUEST, 2);
+        tag(Message.Type.UPDATE_USERS, 3);
+        tag(Message.Type.INITIAL_STATE, 4);
+        tag(Message.Type.EDIT_GRANTED, 5);
+        tag(Message.Type.EDIT_REJECTED, 6);
+        tag(Message.Type.EDIT_ACTION, 7);
+        tag(Message.Type.EDIT_COMPLETE, 8);
+        tag(Message.Type.UPDATE_DRAFT, 9);
+        tag(Message.Type.EXIT, 10);
+        tag(Message.Type.SYNC_REQUEST, 11);
+        tag(Message.Type.SYNC_STATE, 12);
+        tag(Message.Type.STREAM_STATE, 13);
+        tag(Message.Type.STATE_CHUNK, 14);
+        tag(Message.Type.VIEWPORT_QUERY, 15);
+        tag(Message.Type.VIEWPORT_STATE, 16);
+        tag(Message.Type.JOIN_BOARD, 17);
+        tag(Message.Type.TILE_REQUEST, 18);
+        tag(Message.Type.TILE_DATA, 19);
+        tag(Message.Type.COMPRESSION, 20);
+        tag(Message.Type.REDIRECT, 21);
+
+        for (int i = 0; i < SHAPES.size(); i++) {
+            SHAPE_CODES.put(SHAPES.get(i), i + 1);
+        }
+        for (int i = 0; i < COLORS.size(); i++) {
+            COLOR_CODES.put(COLORS.get(i), i + 1);
+        }
+    }
+
+    private static void tag(Message.Type type, int tag) {
+        TYPE_BY_TAG[tag] = type;
+        TAG_BY_TYPE.put(type, tag);
+    }
+
+    public static boolean isBinary(byte firstByte) {
+        return (firstByte & 0xFF) == MAGIC;
+    }
+
+    public static void encode(Message message, BinaryWriter out) throws IOException {
+        Integer tag = TAG_BY_TYPE.get(message.getCommand());
+        if (tag == null) {
+            throw new IOException("No binary tag for " + message.getCommand());
+        }
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(tag);
+        int flags = (message.getUsername() != null ? FLAG_USERNAME : 0)
+                | (message.getData() != null ? FLAG_DATA : 0);
+        out.writeByte(flags);
+        if (message.getUsername() != null) {
+            out.writeString(message.getUsername());
+        }
+        if (message.getData() != null) {
+            writeValue(out, message.getData());
+        }
+    }
+
+    public static byte[] encode(Message message) throws IOException {
+        BinaryWriter out = new BinaryWriter();
+        encode(message, out);
+        return out.toByteArray();
+    }
+
+    public static Message decode(byte[] payload, int offset, int length) throws IOException {
+        BinaryReader in = new BinaryReader(payload, offset, length);
+        if (in.readByte() != MAGIC) {
+            throw new IOException("Not a binary message");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary version " + version);
+        }
+        int tag = in.readByte();
+        Message.Type type = tag < TYPE_BY_TAG.length ? TYPE_BY_TAG[tag] : null;
+        if (type == null) {
+            throw new IOException("Unknown message tag " + tag);
+        }
+        int flags = in.readByte();
+        String username = (flags & FLAG_USERNAME) != 0 ? in.readString() : null;
+        Object data = (flags & FLAG_DATA) != 0 ? readValue(in) : null;
+        return new Message(type, data, username);
+    }
+
+    private static void writeValue(BinaryWriter out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof UserSession) {
+            out.writeByte(VALUE_USER_SESSION);
+            writeUser(out, (UserSession) value);
+        } else if (value instanceof Action) {
+            out.writeByte(VALUE_ACTION);
+            writeAction(out, (Action) value);
+        } else if (value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeSignedVarLong((Long) value);
+        } else if (value instanceof DraftSync) {
+            DraftSync sync = (DraftSync) value;
+            out.writeByte(VALUE_DRAFT_SYNC);
+            out.writeByte(sync.isFull() ? 1 : 0);
+            out.writeSignedVarLong(sync.getFromSequence());
+            out.writeSignedVarLong(sync.getToSequence());
+            writeActions(out, sync.getActions());
+            writeActions(out, sync.getPendingActions());
+        } else if (value instanceof StateChunk) {
+            StateChunk chunk = (StateChunk) value;
+            out.writeByte(VALUE_STATE_CHUNK);
+            out.writeByte((chunk.isFull() ? 1 : 0) | (chunk.isLast() ? 2 : 0));
+            out.writeSignedVarLong(chunk.getFromSequence());
+            out.writeSignedVarLong(chunk.getToSequence());
+            writeActions(out, chunk.getActions());
+            writeActions(out, chunk.getPendingActions());
+        } else if (value instanceof Viewport) {
+            out.writeByte(VALUE_VIEWPORT);
+            writeViewport(out, (Viewport) value);
+        } else if (value instanceof ViewportState) {
+            ViewportState state = (ViewportState) value;
+            out.writeByte(VALUE_VIEWPORT_STATE);
+            writeViewport(out, state.getViewport());
+            out.writeSignedVarLong(state.getToSequence());
+            // 序号递增, 写差值
+            long[] sequences = state.getSequences();
+            out.writeVarInt(sequences.length);
+            long previous = 0;
+            for (long sequence : sequences) {
+                out.writeSignedVarLong(sequence - previous);
+                previous = sequence;
+            }
+            writeActions(out, state.getActions());
+        } else if (value instanceof TileRequest) {
+            TileRequest request = (TileRequest) value;
+            out.writeByte(VALUE_TILE_REQUEST);
+            writeViewport(out, request.getViewport());
+            out.writeVarInt(request.getLevel());
+        } else if (value instanceof TileData) {
+            TileData tile = (TileData) value;
+            out.writeByte(VALUE_TILE_DATA);
+            out.writeVarInt(tile.getLevel());
+            out.writeSignedVarLong(tile.getX());
+            out.writeSignedVarLong(tile.getY());
+            out.writeVarInt(tile.getSize());
+            out.writeSignedVarLong(tile.getVersion());
+            // 长度加1, 0表示空白瓦片
+            byte[] png = tile.getPng();
+            out.writeVarInt(png == null ? 0 : png.length + 1);
+            if (png != null) {
+                out.writeBytes(png, 0, png.length);
+            }
+        } else if (value instanceof Set && allInstances((Set<?>) value, UserSession.class)) {
+            Set<?> users = (Set<?>) value;
+            out.writeByte(VALUE_USER_SET);
+            out.writeVarInt(users.size());
+            for (Object user : users) {
+                writeUser(out, (UserSession) user);
+            }
+        } else if (value instanceof List && allInstances((List<?>) value, Action.class)) {
+            out.writeByte(VALUE_ACTION_LIST);
+            writeActions(out, (List<?>) value);
+        } else {
+            // 没有专用编码的数据退回Java序列化
+            out.writeByte(VALUE_SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(value);
+            }
+            out.writeVarInt(bytes.size());
+            out.writeBytes(bytes.toByteArray(), 0, bytes.size());
+        }
+    }
+
+    private static Object readValue(BinaryReader in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case VALUE_STRING:
+                return in.readString();
+            case VALUE_USER_SESSION:
+                return readUser(in);
+            case VALUE_ACTION:
+                return readAction(in);
+            case VALUE_LONG:
+                return in.readSignedVarLong();
+            case VALUE_USER_SET: {
+                int count = in.readLength();
+                Set<UserSession> users = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    users.add(readUser(in));
+                }
+                return users;
+            }
+            case VALUE_ACTION_LIST:
+                return readActions(in, 0);
+            case VALUE_DRAFT_SYNC: {
+                boolean full = in.readByte() == 1;
+                long from = in.readSignedVarLong();
+                long to = in.readSignedVarLong();
+                List<Action> actions = readActions(in, 0);
+                return new DraftSync(full, from, to, actions, readActions(in, 0));
+            }
+            case VALUE_STATE_CHUNK: {
+                int flags = in.readByte();
+                long from = in.readSignedVarLong();
+                long to = in.readSignedVarLong();
+                List<Action> actions = readActions(in, 0);
+                return new StateChunk((flags & 1) != 0, from, to, actions, (flags & 2) != 0, readActions(in, 0));
+            }
+            case VALUE_VIEWPORT:
+                return readViewport(in);
+            case VALUE_VIEWPORT_STATE: {
+                Viewport viewport = readViewport(in);
+                long to = in.readSignedVarLong();
+                long[] sequences = new long[in.readLength()];
+                long previous = 0;
+                for (int i = 0; i < sequences.length; i++) {
+                    previous += in.readSignedVarLong();
+                    sequences[i] = previous;
+                }
+                return new ViewportState(viewport, to, sequences, readActions(in, 0));
+            }
+            case VALUE_TILE_REQUEST: {
+                Viewport viewport = readViewport(in);
+                return new TileRequest(viewport, in.readVarInt());
+            }
+            case VALUE_TILE_DATA: {
+                int level = in.readVarInt();
+                int x = (int) in.readSignedVarLong();
+                int y = (int) in.readSignedVarLong();
+                int size = in.readVarInt();
+                long version = in.readSignedVarLong();
+                int length = in.readVarInt();
+                byte[] png = length == 0 ? null : in.readBytes(length - 1);
+                return new TileData(level, x, y, size, version, png);
+            }
+            case VALUE_SERIALIZED: {
+                byte[] bytes = in.readBytes(in.readLength());
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown serialized value", e);
+                }
+            }
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static boolean allInstances(Collection<?> values, Class<?> type) {
+        for (Object value : values) {
+            if (!type.isInstance(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeActions(BinaryWriter out, List<?> actions) throws IOException {
+        out.writeVarInt(actions.size());
+        for (Object action : actions) {
+            writeAction(out, (Action) action);
+        }
+    }
+
+    private static List<Action> readActions(BinaryReader in, int depth) throws IOException {
+        int count = in.readLength();
+        List<Action> actions = new ArrayList<>(Math.min(count, 1 << 16));
+        for (int i = 0; i < count; i++) {
+            actions.add(readAction(in, depth));
+        }
+        return actions;
+    }
+
+    private static void writeUser(BinaryWriter out, UserSession user) {
+        out.writeString(user.getUsername());
+        out.writeString(user.getStudentId());
+        out.writeString(user.getIpAddress());
+    }
+
+    private static UserSession readUser(BinaryReader in) throws IOException {
+        return new UserSession(in.readString(), in.readString(), in.readString());
+    }
+
+    private static void writeViewport(BinaryWriter out, Viewport viewport) {
+        writeNumbers(out, viewport.getMinX(), viewport.getMinY(), viewport.getMaxX(), viewport.getMaxY());
+    }
+
+    private static Viewport readViewport(BinaryReader in) throws IOException {
+        double[] values = readNumbers(in, 4);
+        return new Viewport(values[0], values[1], values[2], values[3]);
+    }
+
+    public static void writeAction(BinaryWriter out, Action action) throws IOException {
+        if (action instanceof MainAction.DrawAction) {
+            MainAction.DrawAction draw = (MainAction.DrawAction) action;
+            out.writeByte(ACTION_DRAW);
+            writeShape(out, draw.getShapeClass());
+            writeColor(out, draw.getColor());
+            writeNumbers(out, draw.getStartX(), draw.getStartY(), draw.getEndX(), draw.getEndY());
+            writeNumbers(out, draw.getLineWidth());
+        } else if (action instanceof MainAction.TextAction) {
+            MainAction.TextAction text = (MainAction.TextAction) action;
+            out.writeByte(ACTION_TEXT);
+            out.writeString(text.getText());
+            writeColor(out, text.getColor());
+            writeNumbers(out, text.getX(), text.getY(), text.getLineWidth());
+        } else if (action instanceof MainAction.UndoAction) {
+            out.writeByte(ACTION_UNDO);
+        } else if (action instanceof MainAction.UndoAllAction) {
+            out.writeByte(ACTION_UNDO_ALL);
+        } else if (action instanceof MainAction.RedoAction) {
+            out.writeByte(ACTION_REDO);
+        } else if (action instanceof MainAction.BatchAction) {
+            out.writeByte(ACTION_BATCH);
+            writeActions(out, ((MainAction.BatchAction) action).getActions());
+        } else {
+            throw new IOException("No binary tag for " + action.getClass().getName());
+        }
+    }
+
+    public static Action readAction(BinaryReader in) throws IOException {
+        return readAction(in, 0);
+    }
+
+    // depth为所在BatchAction的嵌套层数, 客户端只会发一层, 限制层数防止恶意数据耗尽栈
+    private static Action readAction(BinaryReader in, int depth) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case ACTION_DRAW: {
+                Class<? extends Shape> shape = readShape(in);
+                String color = readColor(in);
+                double[] coords = readNumbers(in, 4);
+                double lineWidth = readNumbers(in, 1)[0];
+                return new MainAction.DrawAction(coords[0], coords[1], coords[2], coords[3],
+                        color, lineWidth, shape);
+            }
+            case ACTION_TEXT: {
+                String text = in.readString();
+                String color = readColor(in);
+                double[] values = readNumbers(in, 3);
+                return new MainAction.TextAction(values[0], values[1], text, color, values[2]);
+            }
+            case ACTION_UNDO:
+                return new MainAction.UndoAction();
+            case ACTION_UNDO_ALL:
+                return new MainAction.UndoAllAction();
+            case ACTION_REDO:
+                return new MainAction.RedoAction();
+            case ACTION_BATCH:
+                if (depth >= MAX_BATCH_DEPTH) {
+                    throw new IOException("BatchAction nested deeper than " + MAX_BATCH_DEPTH);
+                }
+                return new MainAction.BatchAction(readActions(in, depth + 1));
+            default:
+                throw new IOException("Unknown action tag " + tag);
+        }
+    }
+
+    // 一个头字节记录最多4个数值的编码方式, 整数用zigzag varint, 其余按float/double无损保存
+    private static void writeNumbers(BinaryWriter out, double... values) {
+        int header = 0;
+        for (int i = 0; i < values.length; i++) {
+            header |= numberKind(values[i]) << (i * 2);
+        }
+        out.writeByte(header);
+        for (int i = 0; i < values.length; i++) {
+            switch ((header >> (i * 2)) & 3) {
+                case NUM_VARINT:
+                    out.writeSignedVarLong((long) values[i]);
+                    break;
+                case NUM_FLOAT:
+                    out.writeFloat((float) values[i]);
+                    break;
+                default:
+                    out.writeDouble(values[i]);
+                    break;
+            }
+        }
+    }
+
+    private static double[] readNumbers(BinaryReader in, int count) throws IOException {
+        int header = in.readByte();
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            switch ((header >> (i * 2)) & 3) {
+                case NUM_VARINT:
+                    values[i] = in.readSignedVarLong();
+                    break;
+                case NUM_FLOAT:
+                    values[i] = in.readFloat();
+                    break;
+                case NUM_DOUBLE:
+                    values[i] = in.readDouble();
+                    break;
+                default:
+                    throw new IOException("Unknown number encoding");
+            }
+        }
+        return values;
+    }
+
+    private static int numberKind(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < (1L << 31)
+                && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0)) {
+            return NUM_VARINT;
+        }
+        if ((double) (float) value == value || Double.isNaN(value)) {
+            return NUM_FLOAT;
+        }
+        return NUM_DOUBLE;
+    }
+
+    private static void writeShape(BinaryWriter out, Class<? extends Shape> shape) {
+        if (shape == null) {
+            out.writeByte(CODE_NULL);
+            return;
+        }
+        Integer code = SHAPE_CODES.get(shape);
+        if (code != null) {
+            out.writeByte(code);
+        } else {
+            out.writeByte(CODE_LITERAL);
+            out.writeString(shape.getName());
+        }
+    }
+
+    private static Class<? extends Shape> readShape(BinaryReader in) throws IOException {
+        int code = in.readByte();
+        if (code == CODE_NULL) {
+            return null;
+        }
+        if (code == CODE_LITERAL) {
+            String name = in.readString();
+            try {
+                return Class.forName(name, false, BinaryCodec.class.getClassLoader())
+                        .asSubclass(Shape.class);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Unknown shape class " + name, e);
+            }
+        }
+        if (code > SHAPES.size()) {
+            throw new IOException("Unknown shape code " + code);
+        }
+        return SHAPES.get(code - 1);
+    }
+
+    private static void writeColor(BinaryWriter out, String color) {
+        if (color == null) {
+            out.writeByte(CODE_NULL);
+            return;
+        }
+        Integer code = COLOR_CODES.get(color);
+        if (code != null) {
+            out.writeByte(code);
+        } else if (isRgbaLiteral(color)) {
+            out.writeByte(CODE_RGBA);
+            out.writeInt(Integer.parseUnsignedInt(color.substring(2), 16));
+        } else {
+            out.writeByte(CODE_LITERAL);
+            out.writeString(color);
+        }
+    }
+
+    private static String readColor(BinaryReader in) throws IOException {
+        int code = in.readByte();
+        if (code == CODE_NULL) {
+            return null;
+        }
+        if (code == CODE_RGBA) {
+            return String.format("0x%08x", in.readInt());
+        }
+        if (code == CODE_LITERAL) {
+            return in.readString();
+        }
+        if (code > COLORS.size()) {
+            throw new IOException("Unknown color code " + code);
+        }
+        return COLORS.get(code - 1);
+    }
+
+    // 只接受小写的0xrrggbbaa, 保证解码后字符串与原值一致
+    private static boolean isRgbaLiteral(String color) {
+        if (color.length() != 10 || !color.startsWith("0x")) {
+            return false;
+        }
+        for (int i = 2; i < 10; i++) {
+            char c = color.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package server.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// BinaryWriter的读取端
+public class BinaryReader {
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    public BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    // 长度来自网络, 负数或超过剩余字节数都按数据损坏处理; 用减法比较避免position + count溢出
+    private void require(int count) throws IOException {
+        if (count < 0 || count > limit - position) {
+            throw new IOException("Unexpected end of binary message");
+        }
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    public byte[] readBytes(int length) throws IOException {
+        require(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        int value = ((buffer[position] & 0xFF) << 24)
+                | ((buffer[position + 1] & 0xFF) << 16)
+                | ((buffer[position + 2] & 0xFF) << 8)
+                | (buffer[position + 3] & 0xFF);
+        position += 4;
+        return value;
+    }
+
+    public long readLong() throws IOException {
+        long high = readInt() & 0xFFFFFFFFL;
+        long low = readInt() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 读取一个长度或元素个数. 每个字节或元素至少占一个字节, 超过剩余字节数的一定是损坏的数据,
+     * 在分配数组或列表之前就拒绝, 不会因为一个伪造的长度分配大量内存.
+     */
+    public int readLength() throws IOException {
+        int length = readVarInt();
+        if (length > limit - position) {
+            throw new IOException("Length " + length + " exceeds remaining " + (limit - position) + " bytes");
+        }
+        return length;
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long raw = readVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public String readString() throws IOException {
+        int length = readVarInt();
+        if (length == 0) {
+            return null;
+        }
+        length--;
+        require(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+}
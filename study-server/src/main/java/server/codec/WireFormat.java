@@ -0,0 +1,11 @@
+package server.codec;
+
+// 连接使用的消息编码, 由客户端REGISTER帧的编码决定
+public enum WireFormat {
+    SERIALIZED,  // Java对象序列化
+    BINARY;      // BinaryCodec紧凑编码
+
+    public static WireFormat detect(byte firstByte) {
+        return BinaryCodec.isBinary(firstByte) ? BINARY : SERIALIZED;
+    }
+}
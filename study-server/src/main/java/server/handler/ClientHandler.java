@@ -1,20 +1,53 @@
 package server.handler;
 
 import server.ServerMain;
+import server.board.Board;
+import server.board.BoardRegistry;
+import server.metrics.ServerMetrics;
 import server.models.MainAction.Action;
 import server.models.MainAction;
 import server.models.Message;
+import server.models.TileRequest;
 import server.models.UserSession;
-import server.util.DraftManager;
+import server.models.Viewport;
+import server.nio.NioConnection;
+import server.replication.Replication;
+import server.tile.TileService;
+import server.util.ServerConfig;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public final class ClientHandler implements Runnable {
+    // 非阻塞模式下处理消息的线程池, 所有连接共享
+    private static ExecutorService handlers;
 
-public class ClientHandler implements Runnable {
     private Socket socket;
     private ObjectInputStream input;
     private ObjectOutputStream output;
     private UserSession userSession;
+    // 所在画板, 注册前为默认画板; 由JOIN_BOARD切换
+    private volatile Board board = BoardRegistry.getDefault();
+    // 非阻塞模式下的连接, 阻塞模式下为null
+    private NioConnection connection;
+    // 发送队列, 阻塞模式由写线程发送, 非阻塞模式由I/O线程发送
+    private final OutboundQueue outbound = OutboundQueue.fromConfig(() -> board.getDraft().getLastSequence());
+    // 合并编辑者连续发来的单个动作
+    private final EditCoalescer coalescer = EditCoalescer.fromConfig(this::applyEdits);
+    // 非阻塞模式下待处理的任务, 同一连接的任务按顺序在处理线程上串行执行
+    private final Queue<Runnable> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inboundCount = new AtomicInteger();
+    private final AtomicInteger pendingMessages = new AtomicInteger();
 
     public ClientHandler(Socket socket) {
         this.socket = socket;
@@ -26,20 +59,114 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    public ClientHandler(NioConnection connection) {
+        this.connection = connection;
+        this.socket = connection.getChannel().socket();
+    }
+
     @Override
     public void run() {
+        Thread writer = new Thread(this::drainOutbound, "client-writer");
+        writer.setDaemon(true);
+        writer.start();
         try {
             while (true) {
                 Message message = (Message) input.readObject();
                 handleMessage(message);
             }
         } catch (IOException | ClassNotFoundException e) {
+            coalescer.flush();
             ServerMain.handleClientExit(this);
             closeConnection();
         }
     }
 
+    // 非阻塞模式下由I/O线程回调, I/O线程只负责拆帧, 消息交给处理线程
+    public void onMessage(Message message) {
+        if (pendingMessages.incrementAndGet() > ServerConfig.getInt("nio.maxPendingMessages", 1024)) {
+            System.err.println("Too many pending messages, closing connection");
+            connection.close();
+            return;
+        }
+        submit(() -> {
+            pendingMessages.decrementAndGet();
+            // 连接已关闭时丢弃剩余消息
+            if (!connection.isClosed()) {
+                handleMessage(message);
+            }
+        });
+    }
+
+    public void onDisconnect() {
+        outbound.close();
+        submit(() -> {
+            coalescer.flush();
+            ServerMain.handleClientExit(this);
+        });
+    }
+
+    // 非阻塞模式下由I/O线程调用: 在处理线程上取出需要访问草图的下一条消息(历史分块或补发的UPDATE_DRAFT)交给ready,
+    // I/O线程不等草图锁, 也不复制历史
+    public void pollDraftWork(Consumer<Message> ready) {
+        handlers().execute(() -> {
+            Message message = null;
+            try {
+                message = outbound.poll();
+            } catch (Throwable e) {
+                System.err.println("Error preparing message, closing connection: " + e);
+                connection.close();
+            }
+            ready.accept(message);
+        });
+    }
+
+    private void submit(Runnable task) {
+        inbound.add(task);
+        if (inboundCount.getAndIncrement() == 0) {
+            handlers().execute(this::drainInbound);
+        }
+    }
+
+    private void drainInbound() {
+        do {
+            Runnable task = inbound.poll();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // Error也要接住: 否则计数不会减少, 之后这个连接的消息再也不会被调度
+                System.err.println("Error handling message, closing connection: " + e);
+                connection.close();
+            }
+        } while (inboundCount.decrementAndGet() > 0);
+    }
+
+    private static synchronized ExecutorService handlers() {
+        if (handlers == null) {
+            int threads = ServerConfig.getInt("nio.handlerThreads", Runtime.getRuntime().availableProcessors() * 2);
+            AtomicInteger count = new AtomicInteger();
+            handlers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+                Thread thread = new Thread(r, "client-handler-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return handlers;
+    }
+
+    // 按消息类型记录处理耗时
     private void handleMessage(Message message) {
+        long start = System.nanoTime();
+        try {
+            dispatch(message);
+        } finally {
+            ServerMetrics.recordMessage(message.getCommand(), System.nanoTime() - start);
+        }
+    }
+
+    private void dispatch(Message message) {
+        if (message.getCommand() != Message.Type.EDIT_ACTION) {
+            coalescer.flush();
+        }
         switch (message.getCommand()) {
             case REGISTER:
                 userSession = (UserSession) message.getData();
@@ -47,8 +174,10 @@ public class ClientHandler implements Runnable {
                 break;
             case INITIAL_STATE:
                 initialState();
+                handleEditRequest(message.getData(), false);
+                break;
             case EDIT_REQUEST:
-                handleEditRequest();
+                handleEditRequest(message.getData(), true);
                 break;
             case EDIT_ACTION:
                 handleEditAction((Action) message.getData());
@@ -56,6 +185,24 @@ public class ClientHandler implements Runnable {
             case EDIT_COMPLETE:
                 handleEditComplete();
                 break;
+            case SYNC_REQUEST:
+                handleSyncRequest(message.getData());
+                break;
+            case STREAM_STATE:
+                handleStreamState(message.getData());
+                break;
+            case VIEWPORT_QUERY:
+                handleViewportQuery(message.getData());
+                break;
+            case JOIN_BOARD:
+                handleJoinBoard(message.getData());
+                break;
+            case TILE_REQUEST:
+                handleTileRequest(message.getData());
+                break;
+            case COMPRESSION:
+                handleCompression(message.getData());
+                break;
             case EXIT:
                 ServerMain.handleClientExit(this);
                 closeConnection();
@@ -66,69 +213,193 @@ public class ClientHandler implements Runnable {
     }
 
     public void initialState() {
-        Message message = new Message(Message.Type.INITIAL_STATE, DraftManager.getCurrentState(),null);
+        Message message = new Message(Message.Type.INITIAL_STATE, board.getDraft().getCurrentState(),null);
         sendMessage(message);
     }
 
-    private void handleEditRequest() {
-        boolean granted = ServerMain.requestEditPermission(this);
+    // 断线重连: 客户端带上已有的最后序号, 只下发其后的动作
+    private void handleSyncRequest(Object data) {
+        long lastSequence = data instanceof Number ? ((Number) data).longValue() : -1;
+        sendMessage(new Message(Message.Type.SYNC_STATE, board.getDraft().getStateSince(lastSequence), null));
+    }
+
+    // 分块下发历史: 块在发送时才生成, 与实时笔画交错发送
+    private void handleStreamState(Object data) {
+        long lastSequence = data instanceof Number ? ((Number) data).longValue() : -1;
+        outbound.startStream(new StateStream(board.getDraft(), lastSequence,
+                ServerConfig.getInt("state.chunkActions", 2000)));
+        if (connection != null) {
+            connection.requestWrite();
+        }
+    }
+
+    // 区域查询: 只下发与客户端可见区域相交的已提交动作
+    private void handleViewportQuery(Object data) {
+        if (data instanceof Viewport) {
+            sendMessage(new Message(Message.Type.VIEWPORT_STATE,
+                    board.getDraft().getActionsInViewport((Viewport) data), null));
+        }
+    }
+
+    // 瓦片由渲染线程异步回复, 未开启tile.enabled时忽略
+    private void handleTileRequest(Object data) {
+        if (data instanceof TileRequest && TileService.isEnabled()) {
+            TileService.request(this, board, (TileRequest) data);
+        }
+    }
+
+    // 协商压缩: 只有非阻塞模式按帧收发, 阻塞模式总是回复null(不压缩)
+    private void handleCompression(Object data) {
+        String scheme = connection != null ? connection.negotiateCompression(data) : null;
+        sendMessage(new Message(Message.Type.COMPRESSION, scheme, null));
+    }
+
+    // 切换画板, 回复JOIN_BOARD告知实际所在的画板(名字不合法时仍为原画板)
+    private void handleJoinBoard(Object data) {
+        Board target = data instanceof String ? BoardRegistry.getOrCreate((String) data) : null;
+        if (target != null) {
+            ServerMain.handleJoinBoard(this, target);
+        }
+        sendMessage(new Message(Message.Type.JOIN_BOARD, board.getId(), null));
+    }
+
+    /**
+     * data为Viewport时申请区域租约, 否则申请整个画板; 拒绝时username为冲突租约的持有者.
+     * 只读副本上不能编辑: 客户端显式申请时回复REDIRECT指向主服务器, INITIAL_STATE附带的申请只回复拒绝.
+     */
+    private void handleEditRequest(Object data, boolean explicit) {
+        if (board.isReadOnly()) {
+            sendMessage(explicit
+                    ? new Message(Message.Type.REDIRECT, Replication.getLeaderClientAddress(), null)
+                    : new Message(Message.Type.EDIT_REJECTED, null, null));
+            return;
+        }
+        // 未注册的连接没有用户名, 不能编辑
+        if (userSession == null) {
+            sendMessage(new Message(Message.Type.EDIT_REJECTED, null, null));
+            return;
+        }
+        Viewport region = data instanceof Viewport ? (Viewport) data : null;
+        String holder = board.requestEditLease(this, region);
+        boolean granted = holder == null;
         Message response = new Message(
             granted ? Message.Type.EDIT_GRANTED : Message.Type.EDIT_REJECTED,
-            null,
-            granted ? userSession.getUsername() : DraftManager.getCurrentEditor()
+            granted ? region : null,
+            granted ? userSession.getUsername() : holder
         );
         sendMessage(response);
     }
 
     private void handleEditAction(Action action) {
-        if (action instanceof MainAction.UndoAction){
-            handleUndo();
-            return;
-        }else if (action instanceof MainAction.RedoAction){
-            handleRedo();
-            return;
-        }else {
-            DraftManager.addEditAction(action, userSession.getUsername());
+        if (action instanceof MainAction.BatchAction) {
+            coalescer.flush();
+            List<Action> actions = new ArrayList<>();
+            flatten(action, actions);
+            applyEdits(actions);
+        } else if (coalescer.isEnabled()
+                && !(action instanceof MainAction.UndoAction || action instanceof MainAction.RedoAction)) {
+            coalescer.add(action);
+        } else {
+            coalescer.flush();
+            applyEdits(Collections.singletonList(action));
         }
-        ServerMain.broadcastEditAction(action, this);
     }
 
-    private void handleEditComplete() {
-        ServerMain.handleEditComplete();
+    // 一批动作只加一次锁, 转发给其他用户时也只占一帧; 只读副本上没有租约, 未注册的连接没有用户名, 直接忽略
+    private void applyEdits(List<Action> actions) {
+        Board current = board;
+        if (userSession == null || current.isReadOnly()) {
+            return;
+        }
+        current.broadcastEditActions(current.getDraft().applyEditActions(actions, userSession.getUsername()), this);
     }
 
-    private void handleUndo() {
-        Action undoneAction = DraftManager.undoAction(userSession.getUsername());
-        if (undoneAction != null) {
-            ServerMain.broadcastEditAction(new MainAction.UndoAction(), this);
+    private static void flatten(Action action, List<Action> into) {
+        if (action instanceof MainAction.BatchAction) {
+            for (Action inner : ((MainAction.BatchAction) action).getActions()) {
+                flatten(inner, into);
+            }
+        } else if (action != null) {
+            into.add(action);
         }
     }
 
-    private void handleRedo() {
-        Action redoAction = DraftManager.redoAction(userSession.getUsername());
-        if (redoAction != null) {
-            ServerMain.broadcastEditAction(new MainAction.RedoAction(), this);
-        }
+    private void handleEditComplete() {
+        board.handleEditComplete(this);
     }
 
+    // 只入队不阻塞, 慢客户端不会拖慢广播
     public void sendMessage(Message message) {
+        if (!outbound.offer(message)) {
+            System.out.println("Outbound queue overflow, disconnecting "
+                    + (userSession != null ? userSession.getUsername() : socket.getInetAddress()));
+            closeConnection();
+            return;
+        }
+        if (connection != null) {
+            connection.requestWrite();
+        }
+    }
+
+    // 阻塞模式的写线程: 队列空了才flush, 积压时合并写出
+    private void drainOutbound() {
         try {
-            output.writeObject(message);
-            output.flush();
+            Message message;
+            while ((message = outbound.take()) != null) {
+                output.writeObject(message);
+                // 清空句柄表: 否则流会一直引用所有发过的对象(包括历史分块), 再次发送被修改过的对象也只会写出旧句柄
+                output.reset();
+                if (outbound.isEmpty()) {
+                    output.flush();
+                }
+            }
         } catch (IOException e) {
             closeConnection();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    public OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+
     public Socket getSocket() {
         return socket;
     }
 
+    // 客户端IP, 连接已经关闭时可能为null
+    public String getIpAddress() {
+        if (connection != null) {
+            return connection.getRemoteHost();
+        }
+        InetAddress address = socket.getInetAddress();
+        return address != null ? address.getHostAddress() : null;
+    }
+
+    // 连接压缩的统计, 未压缩时返回null
+    public String getCompressionStats() {
+        return connection != null ? connection.getCompressionStats() : null;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public void setBoard(Board board) {
+        this.board = board;
+    }
+
     public UserSession getUserSession() {
         return userSession;
     }
 
     public void closeConnection() {
+        outbound.close();
+        if (connection != null) {
+            connection.close();
+            return;
+        }
         try {
             if (input != null) input.close();
             if (output != null) output.close();
@@ -0,0 +1,76 @@
+package server.handler;
+
+import server.models.MainAction.Action;
+import server.util.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 把编辑者连续发来的单个动作在一个短时间窗口内合并成一批, 一次加锁处理、一帧转发.
+ * 窗口到期、积累到上限或收到其他消息时提交; edit.coalesceMillis为0时不合并.
+ */
+public class EditCoalescer {
+    // 所有连接共用一个定时线程, 只在启用合并时创建
+    private static ScheduledExecutorService timer;
+
+    private final long windowMillis;
+    private final int maxActions;
+    private final Consumer<List<Action>> sink;
+    private List<Action> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduled;
+
+    public EditCoalescer(long windowMillis, int maxActions, Consumer<List<Action>> sink) {
+        this.windowMillis = windowMillis;
+        this.maxActions = Math.max(1, maxActions);
+        this.sink = sink;
+    }
+
+    public static EditCoalescer fromConfig(Consumer<List<Action>> sink) {
+        return new EditCoalescer(ServerConfig.getLong("edit.coalesceMillis", 0),
+                ServerConfig.getInt("edit.coalesceMaxActions", 256), sink);
+    }
+
+    public boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    public synchronized void add(Action action) {
+        pending.add(action);
+        if (pending.size() >= maxActions) {
+            flush();
+        } else if (scheduled == null) {
+            scheduled = timer().schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 提交等待中的动作; 读线程处理其他消息前先调用, 保证动作顺序不变
+    public synchronized void flush() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Action> batch = pending;
+        pending = new ArrayList<>();
+        sink.accept(batch);
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "edit-coalescer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timer;
+    }
+}
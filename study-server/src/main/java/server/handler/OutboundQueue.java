@@ -0,0 +1,297 @@
+package server.handler;
+
+import server.models.Message;
+import server.util.ServerConfig;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.LongSupplier;
+
+// 每个客户端的有界发送队列, 广播只负责入队, 由该客户端自己的写线程取出发送
+public class OutboundQueue {
+    public enum OverflowPolicy {
+        DROP_OLDEST_EPHEMERAL,  // 丢弃最早的可丢弃消息(实时笔画/通知)
+        COALESCE,               // 同类状态通知只保留最新一条, 否则按DROP_OLDEST_EPHEMERAL处理
+        DISCONNECT              // 队列满直接断开该客户端
+    }
+
+    /**
+     * pollWithoutDraft()的返回值: 下一条需要访问草图(历史分块或补发的UPDATE_DRAFT),
+     * 调用方应在处理线程上调用poll()生成它. 只用于比较, 不会被发送.
+     */
+    public static final Message DRAFT_WORK = new Message(Message.Type.STATE_CHUNK, null, null);
+
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private boolean closed = false;
+    // 丢弃过实时笔画或UPDATE_DRAFT, 队列清空后补发一条UPDATE_DRAFT让客户端重新拉取状态
+    private boolean resyncPending = false;
+    // 丢弃过的用户列表, 之后没有更新的列表入队时在队列清空后补发
+    private Message droppedUsers;
+    // 正在分块下发的历史; 队列空闲时或每隔chunkInterleave条普通消息发一块
+    private StateStream stream;
+    private final int chunkInterleave;
+    private int sentSinceChunk = 0;
+    // 补发的UPDATE_DRAFT附带的最新序号, 与Board.broadcastDraftUpdate一致; 为null时不附带
+    private final LongSupplier lastSequence;
+
+    // 统计
+    private int maxDepth = 0;
+    private long enqueued = 0;
+    private long sent = 0;
+    private long dropped = 0;
+    private long coalesced = 0;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, 32);
+    }
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, int chunkInterleave) {
+        this(capacity, policy, chunkInterleave, null);
+    }
+
+    /**
+     * @param lastSequence 所在画板的最新序号, 在队列锁之外调用(取序号需要草图锁)
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy, int chunkInterleave, LongSupplier lastSequence) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.chunkInterleave = Math.max(1, chunkInterleave);
+        this.lastSequence = lastSequence;
+    }
+
+    public static OutboundQueue fromConfig(LongSupplier lastSequence) {
+        OverflowPolicy policy;
+        try {
+            policy = OverflowPolicy.valueOf(ServerConfig.getString(
+                    "outbound.overflowPolicy", OverflowPolicy.DROP_OLDEST_EPHEMERAL.name()).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            policy = OverflowPolicy.DROP_OLDEST_EPHEMERAL;
+        }
+        return new OutboundQueue(ServerConfig.getInt("outbound.queueCapacity", 1024), policy,
+                ServerConfig.getInt("state.chunkInterleave", 32), lastSequence);
+    }
+
+    // 实时笔画和状态通知丢了之后可以补回, 见rememberDropped
+    private static boolean isEphemeral(Message message) {
+        switch (message.getCommand()) {
+            case EDIT_ACTION:
+            case UPDATE_USERS:
+            case UPDATE_DRAFT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // 只有最新一条有意义的状态通知
+    private static boolean isCoalescible(Message message) {
+        return message.getCommand() == Message.Type.UPDATE_USERS
+                || message.getCommand() == Message.Type.UPDATE_DRAFT;
+    }
+
+    /**
+     * 入队, 不会阻塞调用方.
+     * @return false 表示按照溢出策略应断开该客户端
+     */
+    public synchronized boolean offer(Message message) {
+        if (closed) {
+            return true;
+        }
+        if (queue.size() >= capacity && !makeRoom(message)) {
+            return false;
+        }
+        if (message.getCommand() == Message.Type.UPDATE_USERS) {
+            droppedUsers = null;
+        }
+        queue.add(message);
+        enqueued++;
+        maxDepth = Math.max(maxDepth, queue.size());
+        notifyAll();
+        return true;
+    }
+
+    // 队列已满时按策略腾出位置; 返回false表示需要断开
+    private boolean makeRoom(Message incoming) {
+        if (policy == OverflowPolicy.DISCONNECT) {
+            return false;
+        }
+        if (policy == OverflowPolicy.COALESCE && isCoalescible(incoming)
+                && removeFirst(incoming.getCommand())) {
+            coalesced++;
+            return true;
+        }
+        Iterator<Message> it = queue.iterator();
+        while (it.hasNext()) {
+            Message queued = it.next();
+            if (isEphemeral(queued)) {
+                it.remove();
+                dropped++;
+                rememberDropped(queued);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 丢弃的笔画和UPDATE_DRAFT由补发的UPDATE_DRAFT补回; 用户列表队列中还有更新的就不必补发
+    private void rememberDropped(Message message) {
+        if (message.getCommand() != Message.Type.UPDATE_USERS) {
+            resyncPending = true;
+        } else if (!contains(Message.Type.UPDATE_USERS)) {
+            droppedUsers = message;
+        }
+    }
+
+    private boolean contains(Message.Type type) {
+        for (Message queued : queue) {
+            if (queued.getCommand() == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 队列清空后补发丢弃过的用户列表
+    private Message pollDroppedUsers() {
+        Message users = droppedUsers;
+        droppedUsers = null;
+        return users;
+    }
+
+    // 不持有队列锁时调用: 草图锁内的广播会再取队列锁, 反过来会死锁
+    private Message draftResync() {
+        return new Message(Message.Type.UPDATE_DRAFT,
+                lastSequence != null ? lastSequence.getAsLong() : null, null);
+    }
+
+    private boolean hasResync() {
+        return resyncPending || droppedUsers != null;
+    }
+
+    private boolean removeFirst(Message.Type type) {
+        Iterator<Message> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().getCommand() == type) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 只由该客户端的发送线程调用
+    public Message poll() {
+        return poll(true);
+    }
+
+    /**
+     * 非阻塞模式的I/O线程调用: 与poll()相同, 但下一条需要访问草图时不生成也不取出, 返回DRAFT_WORK.
+     * 调用方随后在其他线程上调用poll(), 其间不再调用本方法, 保持单一发送方.
+     */
+    public Message pollWithoutDraft() {
+        return poll(false);
+    }
+
+    private Message poll(boolean fromDraft) {
+        StateStream current;
+        synchronized (this) {
+            boolean streamTurn = stream != null
+                    && (queue.isEmpty() || sentSinceChunk >= chunkInterleave);
+            if (streamTurn) {
+                if (!fromDraft) {
+                    return DRAFT_WORK;
+                }
+                current = stream;
+            } else {
+                // 队列清空后先补发UPDATE_DRAFT, 再补发丢弃过的用户列表
+                Message message = queue.poll();
+                if (message == null && !resyncPending) {
+                    message = pollDroppedUsers();
+                }
+                if (message == null && !resyncPending) {
+                    return null;
+                }
+                if (message == null && !fromDraft) {
+                    return DRAFT_WORK;
+                }
+                sent++;
+                sentSinceChunk++;
+                if (message != null) {
+                    return message;
+                }
+                resyncPending = false;
+                current = null;
+            }
+        }
+        if (current == null) {
+            return draftResync();
+        }
+        // 在队列锁之外从DraftManager复制下一块
+        Message chunk = current.nextChunk();
+        synchronized (this) {
+            if (current.isDone() && stream == current) {
+                stream = null;
+            }
+            sentSinceChunk = 0;
+            if (chunk != null) {
+                sent++;
+                return chunk;
+            }
+        }
+        return poll(true);
+    }
+
+    // 阻塞等待下一条消息, 队列关闭后返回null
+    public Message take() throws InterruptedException {
+        while (true) {
+            synchronized (this) {
+                while (queue.isEmpty() && stream == null && !hasResync() && !closed) {
+                    wait();
+                }
+                if (closed) {
+                    return null;
+                }
+            }
+            Message message = poll();
+            if (message != null) {
+                return message;
+            }
+        }
+    }
+
+    // 开始分块下发历史, 替换尚未发完的旧传输
+    public synchronized void startStream(StateStream newStream) {
+        if (closed) {
+            return;
+        }
+        stream = newStream;
+        notifyAll();
+    }
+
+    public synchronized boolean isStreaming() {
+        return stream != null;
+    }
+
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty() && stream == null && !hasResync();
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        stream = null;
+        notifyAll();
+    }
+
+    public synchronized String getStats() {
+        return String.format("depth=%d/%d max=%d enqueued=%d sent=%d dropped=%d coalesced=%d policy=%s%s",
+                queue.size(), capacity, maxDepth, enqueued, sent, dropped, coalesced, policy,
+                stream != null ? " streaming" : "");
+    }
+}
@@ -0,0 +1,63 @@
+package server.handler;
+
+import server.models.MainAction.Action;
+import server.models.Message;
+import server.models.StateChunk;
+import server.util.DraftManager;
+
+import java.util.Collections;
+import java.util.List;
+
+// 按需生成STATE_CHUNK: 只有发送队列取到它时才从DraftManager复制下一块, 内存中最多一块
+public class StateStream {
+    private final DraftManager draft;
+    private final int chunkActions;
+    private long cursor;
+    private long targetSequence;
+    private boolean full;
+    private boolean done = false;
+
+    public StateStream(DraftManager draft, long lastSequence, int chunkActions) {
+        this.draft = draft;
+        this.chunkActions = Math.max(1, chunkActions);
+        long base = draft.getBaseSequence();
+        this.targetSequence = draft.getLastSequence();
+        if (lastSequence < base || lastSequence > targetSequence) {
+            this.cursor = base;
+            this.full = true;
+        } else {
+            this.cursor = lastSequence;
+            this.full = false;
+        }
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    // 由发送线程调用, 返回下一块; 已发完返回null
+    public Message nextChunk() {
+        if (done) {
+            return null;
+        }
+        List<Action> actions = draft.getCommittedRange(cursor, chunkActions, targetSequence);
+        if (actions == null) {
+            // 传输途中历史被清空: 从新的起点重新发送完整历史
+            cursor = draft.getBaseSequence();
+            targetSequence = draft.getLastSequence();
+            full = true;
+            actions = draft.getCommittedRange(cursor, chunkActions, targetSequence);
+            if (actions == null) {
+                actions = Collections.emptyList();
+            }
+        }
+        long from = cursor;
+        cursor += actions.size();
+        boolean last = cursor >= targetSequence;
+        List<Action> pending = last ? draft.getPendingActions() : Collections.emptyList();
+        StateChunk chunk = new StateChunk(full, from, cursor, actions, last, pending);
+        full = false;
+        done = last;
+        return new Message(Message.Type.STATE_CHUNK, chunk, null);
+    }
+}
@@ -0,0 +1,147 @@
+package server.loadtest;
+
+import server.codec.WireFormat;
+import server.models.Message;
+import server.nio.FrameCodec;
+import server.nio.FrameCompressor;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * 压测客户端的连接, 与真实客户端的编码一致:
+ * object为阻塞模式服务端使用的对象流, serialized/binary为非阻塞模式的长度前缀帧.
+ * 帧连接可以在连接时协商压缩, 之后收发的帧都经过FrameCompressor.
+ * 只有一个线程调用send, 一个线程调用receive.
+ */
+abstract class ClientTransport implements Closeable {
+    protected final Socket socket;
+
+    protected ClientTransport(Socket socket) {
+        this.socket = socket;
+    }
+
+    // compress只对帧连接有效; 收到的字节数累加到stats
+    static ClientTransport connect(String host, int port, String wire, boolean compress, LoadGenerator.Stats stats)
+            throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        try {
+            switch (wire) {
+                case "object":
+                    return new ObjectStreamTransport(socket);
+                case "serialized":
+                    return new FrameTransport(socket, WireFormat.SERIALIZED, compress, stats);
+                case "binary":
+                    return new FrameTransport(socket, WireFormat.BINARY, compress, stats);
+                default:
+                    throw new IllegalArgumentException("Unknown wire format: " + wire);
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            socket.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    abstract void send(Message message) throws IOException;
+
+    abstract Message receive() throws IOException, ClassNotFoundException;
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private static class ObjectStreamTransport extends ClientTransport {
+        private final ObjectOutputStream out;
+        private final ObjectInputStream in;
+
+        ObjectStreamTransport(Socket socket) throws IOException {
+            super(socket);
+            // 服务端先建输出流再建输入流, 这里先写出流头, 否则双方都在等对方的流头
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        @Override
+        synchronized void send(Message message) throws IOException {
+            out.writeObject(message);
+            // 不保留已发送对象的引用表, 长时间压测时内存不增长
+            out.reset();
+            out.flush();
+        }
+
+        @Override
+        Message receive() throws IOException, ClassNotFoundException {
+            return (Message) in.readObject();
+        }
+    }
+
+    private static class FrameTransport extends ClientTransport {
+        private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+        private final WireFormat format;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final LoadGenerator.Stats stats;
+        private FrameCompressor compressor;
+
+        FrameTransport(Socket socket, WireFormat format, boolean compress, LoadGenerator.Stats stats)
+                throws IOException, ClassNotFoundException {
+            super(socket);
+            this.format = format;
+            this.stats = stats;
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (compress) {
+                negotiate();
+            }
+        }
+
+        // 在发送其他消息之前协商: 回复之前服务端不会发来压缩帧, 回复之后发出的帧才能压缩
+        private void negotiate() throws IOException, ClassNotFoundException {
+            send(new Message(Message.Type.COMPRESSION, FrameCompressor.SCHEME, null));
+            Message reply = receive();
+            if (reply.getCommand() != Message.Type.COMPRESSION) {
+                throw new IOException("Unexpected reply to COMPRESSION: " + reply.getCommand());
+            }
+            if (FrameCompressor.SCHEME.equals(reply.getData())) {
+                compressor = new FrameCompressor(6, MAX_FRAME_BYTES);
+            }
+        }
+
+        @Override
+        synchronized void send(Message message) throws IOException {
+            ByteBuffer frame = FrameCodec.encode(message, format);
+            if (compressor != null) {
+                frame = compressor.compress(frame);
+            }
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            out.flush();
+        }
+
+        @Override
+        Message receive() throws IOException, ClassNotFoundException {
+            int length = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            stats.wireBytesReceived.add(FrameCodec.HEADER_SIZE + length);
+            if (compressor != null && FrameCompressor.isCompressed(payload[0])) {
+                payload = compressor.decompress(payload, 0, length);
+                length = payload.length;
+            }
+            stats.frameBytesReceived.add(FrameCodec.HEADER_SIZE + length);
+            return FrameCodec.decode(payload, 0, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (compressor != null) {
+                compressor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package server.loadtest;
+
+import javafx.scene.shape.Line;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.models.Message;
+import server.models.UserSession;
+import server.models.Viewport;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一个模拟学生: 注册、切到压测画板、拉取初始状态, 之后只看或轮流画画.
+ * 画画的学生每次申请租约, 按设定速率发一串笔画再提交. 每条笔画的起点在本客户端内唯一,
+ * 其他客户端收到后按(发送者, 起点)查到发送时间, 得到端到端的转发延迟.
+ */
+class LoadClient {
+    private static final int CANVAS_WIDTH = 1920;
+    private static final int CANVAS_HEIGHT = 1080;
+    private static final int REGION_SIZE = 300;
+    private static final long REPLY_TIMEOUT_MILLIS = 5000;
+
+    final String name;
+    private final LoadGenerator generator;
+    private final LoadGenerator.Options options;
+    private final LoadGenerator.Stats stats;
+    private final boolean drawer;
+    // 连接的服务端端口, 有副本时只看的学生连副本
+    private final int port;
+    private final Random random;
+
+    private ClientTransport transport;
+    private final BlockingQueue<Message> leaseReplies = new LinkedBlockingQueue<>();
+    private volatile boolean running = true;
+    private volatile boolean stateReceived = false;
+    private long connectStart;
+    // 本客户端发出的笔画: 起点(x<<32|y) -> 发送时间
+    private final Map<Long, Long> sentAt = new ConcurrentHashMap<>();
+    private int strokeCounter = 0;
+
+    LoadClient(LoadGenerator generator, int index, boolean drawer) {
+        this.generator = generator;
+        this.options = generator.options;
+        this.stats = generator.stats;
+        this.name = "load-" + index;
+        this.drawer = drawer;
+        this.port = generator.portFor(index, drawer);
+        this.random = new Random(options.seed + index);
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    // 在自己的线程中运行, 直到stop()或连接断开
+    void run() {
+        connectStart = System.nanoTime();
+        try {
+            transport = ClientTransport.connect(options.host, port, options.wire, options.compress, stats);
+        } catch (IOException e) {
+            stats.connectFailures.increment();
+            return;
+        }
+        Thread reader = new Thread(this::readLoop, name + "-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            transport.send(new Message(Message.Type.REGISTER, new UserSession(name, name, null), null));
+            transport.send(new Message(Message.Type.JOIN_BOARD, options.board, null));
+            transport.send(new Message(Message.Type.INITIAL_STATE, null, null));
+            // 服务端处理INITIAL_STATE时会顺带申请整个画板的租约, 拿到了就立即还回去
+            Message reply = leaseReplies.poll(REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (reply != null && reply.getCommand() == Message.Type.EDIT_GRANTED) {
+                transport.send(new Message(Message.Type.EDIT_COMPLETE, null, null));
+            }
+            stats.joined.increment();
+
+            while (running) {
+                long think = (long) (-Math.log(1 - random.nextDouble()) * options.thinkMillis);
+                if (!sleepWhileRunning(think)) {
+                    break;
+                }
+                if (drawer) {
+                    drawTurn();
+                }
+            }
+            transport.send(new Message(Message.Type.EXIT, null, null));
+        } catch (IOException e) {
+            if (running) {
+                stats.disconnects.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            try {
+                transport.close();
+            } catch (IOException e) {
+                // 已关闭
+            }
+        }
+    }
+
+    private void drawTurn() throws IOException, InterruptedException {
+        Viewport region = null;
+        if (options.regions) {
+            int x = random.nextInt(CANVAS_WIDTH - REGION_SIZE);
+            int y = random.nextInt(CANVAS_HEIGHT - REGION_SIZE);
+            region = new Viewport(x, y, x + REGION_SIZE, y + REGION_SIZE);
+        }
+        transport.send(new Message(Message.Type.EDIT_REQUEST, region, null));
+        Message reply = leaseReplies.poll(REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (reply == null) {
+            stats.leaseTimeouts.increment();
+            return;
+        }
+        if (reply.getCommand() != Message.Type.EDIT_GRANTED) {
+            stats.leaseRejected.increment();
+            return;
+        }
+        stats.leaseGranted.increment();
+
+        long interval = 1_000_000_000L / Math.max(1, options.strokeRate);
+        long next = System.nanoTime();
+        for (int i = 0; i < options.burst && running; i++) {
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            transport.send(new Message(Message.Type.EDIT_ACTION, nextStroke(region), null));
+            stats.strokesSent.increment();
+        }
+        transport.send(new Message(Message.Type.EDIT_COMPLETE, null, null));
+    }
+
+    // 起点在区域(或整个画布)内逐像素推进, 转一圈之前不会重复
+    private Action nextStroke(Viewport region) {
+        int minX = region == null ? 0 : (int) region.getMinX();
+        int minY = region == null ? 0 : (int) region.getMinY();
+        int width = region == null ? CANVAS_WIDTH : REGION_SIZE;
+        int height = region == null ? CANVAS_HEIGHT : REGION_SIZE;
+        int k = strokeCounter++;
+        int x = minX + k % width;
+        int y = minY + (k / width) % height;
+        sentAt.put(key(x, y), System.nanoTime());
+        return new MainAction.DrawAction(x, y, x + random.nextInt(6), y + random.nextInt(6),
+                "0x000000ff", 2.0, Line.class);
+    }
+
+    // 收到别人的笔画时调用, 返回发送时间, 未知时返回-1
+    long sentTime(double x, double y) {
+        Long sent = sentAt.get(key((long) x, (long) y));
+        return sent == null ? -1 : sent;
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                Message message = transport.receive();
+                long now = System.nanoTime();
+                stats.messagesReceived.increment();
+                switch (message.getCommand()) {
+                    case INITIAL_STATE:
+                        if (!stateReceived) {
+                            stateReceived = true;
+                            stats.joinToState.recordNanos(now - connectStart);
+                        }
+                        break;
+                    case EDIT_GRANTED:
+                    case EDIT_REJECTED:
+                        leaseReplies.offer(message);
+                        break;
+                    case EDIT_ACTION:
+                        onStrokes(message, now);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            if (running) {
+                running = false;
+                stats.disconnects.increment();
+            }
+        }
+    }
+
+    private void onStrokes(Message message, long now) {
+        LoadClient sender = generator.client(message.getUsername());
+        Object data = message.getData();
+        if (data instanceof MainAction.BatchAction) {
+            for (Action action : ((MainAction.BatchAction) data).getActions()) {
+                onStroke(sender, action, now);
+            }
+        } else {
+            onStroke(sender, (Action) data, now);
+        }
+    }
+
+    private void onStroke(LoadClient sender, Action action, long now) {
+        stats.strokesReceived.increment();
+        if (sender == null || !(action instanceof MainAction.DrawAction)) {
+            return;
+        }
+        MainAction.DrawAction draw = (MainAction.DrawAction) action;
+        long sent = sender.sentTime(draw.getStartX(), draw.getStartY());
+        if (sent > 0 && now >= sent) {
+            stats.strokeLatency.recordNanos(now - sent);
+            if (port != options.port) {
+                stats.replicaStrokeLatency.recordNanos(now - sent);
+            }
+        }
+    }
+
+    private boolean sleepWhileRunning(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (running) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return true;
+            }
+            Thread.sleep(Math.min(remaining, 200));
+        }
+        return false;
+    }
+
+    private static long key(long x, long y) {
+        return (x << 32) | (y & 0xffffffffL);
+    }
+}
@@ -0,0 +1,314 @@
+package server.loadtest;
+
+import server.ServerMain;
+import server.metrics.LatencyHistogram;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无界面的课堂压测: 按设定速率陆续加入一批学生, 其中一部分轮流申请租约画画,
+ * 最后报告笔画转发延迟分位、加入到收到初始状态的耗时和吞吐.
+ *
+ * 运行(在study-server目录下):
+ * java -cp target/classes:<javafx-graphics.jar> server.loadtest.LoadGenerator [--key=value ...]
+ * 参数见Options; --embedded在本进程内启动服务端, 用户存储换成内存, 不需要MySQL.
+ * --followers=N再启动N个只读副本进程(端口port+1..port+N), 画画的学生连主服务器, 只看的学生轮流连副本;
+ * 不加--embedded时主服务器需要自己以replication.role=leader启动.
+ */
+public class LoadGenerator {
+
+    static class Options {
+        String host = "localhost";
+        int port = 8888;
+        // 学生总数和每秒加入的人数
+        int clients = 50;
+        double joinRate = 10;
+        // 会画画的学生比例, 平均思考时间(毫秒), 每次拿到租约后的笔画数和每秒笔画数
+        double drawers = 0.2;
+        long thinkMillis = 3000;
+        int burst = 30;
+        int strokeRate = 60;
+        // 申请300x300的区域租约而不是整个画板, 需要服务端开启edit.regionLeases
+        boolean regions = false;
+        String board = "loadtest";
+        // object对应阻塞模式服务端, serialized/binary对应非阻塞模式
+        String wire = "binary";
+        // 连接时协商压缩, 只对serialized/binary有效
+        boolean compress = false;
+        // 全部加入后继续运行的秒数
+        int duration = 30;
+        boolean embedded = false;
+        // 只读副本进程数, 以及主服务器接受副本连接的端口
+        int followers = 0;
+        int replicationPort = 8890;
+        long seed = 42;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (!arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+                int eq = arg.indexOf('=');
+                String key = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+                String value = eq < 0 ? "true" : arg.substring(eq + 1);
+                switch (key) {
+                    case "host": options.host = value; break;
+                    case "port": options.port = Integer.parseInt(value); break;
+                    case "clients": options.clients = Integer.parseInt(value); break;
+                    case "joinRate": options.joinRate = Double.parseDouble(value); break;
+                    case "drawers": options.drawers = Double.parseDouble(value); break;
+                    case "thinkMillis": options.thinkMillis = Long.parseLong(value); break;
+                    case "burst": options.burst = Integer.parseInt(value); break;
+                    case "strokeRate": options.strokeRate = Integer.parseInt(value); break;
+                    case "regions": options.regions = Boolean.parseBoolean(value); break;
+                    case "board": options.board = value; break;
+                    case "wire": options.wire = value; break;
+                    case "compress": options.compress = Boolean.parseBoolean(value); break;
+                    case "duration": options.duration = Integer.parseInt(value); break;
+                    case "embedded": options.embedded = Boolean.parseBoolean(value); break;
+                    case "followers": options.followers = Integer.parseInt(value); break;
+                    case "replicationPort": options.replicationPort = Integer.parseInt(value); break;
+                    case "seed": options.seed = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: --" + key);
+                }
+            }
+            return options;
+        }
+    }
+
+    static class Stats {
+        final LongAdder joined = new LongAdder();
+        final LongAdder connectFailures = new LongAdder();
+        final LongAdder disconnects = new LongAdder();
+        final LongAdder leaseGranted = new LongAdder();
+        final LongAdder leaseRejected = new LongAdder();
+        final LongAdder leaseTimeouts = new LongAdder();
+        final LongAdder strokesSent = new LongAdder();
+        final LongAdder strokesReceived = new LongAdder();
+        final LongAdder messagesReceived = new LongAdder();
+        // 帧连接收到的字节数: 线路上的实际字节, 以及解压后的帧字节
+        final LongAdder wireBytesReceived = new LongAdder();
+        final LongAdder frameBytesReceived = new LongAdder();
+        final LatencyHistogram strokeLatency = new LatencyHistogram();
+        // 经副本转发给只看的学生的部分
+        final LatencyHistogram replicaStrokeLatency = new LatencyHistogram();
+        final LatencyHistogram joinToState = new LatencyHistogram();
+    }
+
+    final Options options;
+    final Stats stats = new Stats();
+    private final Map<String, LoadClient> clients = new ConcurrentHashMap<>();
+
+    LoadGenerator(Options options) {
+        this.options = options;
+    }
+
+    LoadClient client(String name) {
+        return name == null ? null : clients.get(name);
+    }
+
+    // 画画的学生连主服务器, 只看的学生按序号轮流连各个副本
+    int portFor(int index, boolean drawer) {
+        if (drawer || options.followers <= 0) {
+            return options.port;
+        }
+        return options.port + 1 + index % options.followers;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        if (options.embedded) {
+            startEmbeddedServer(options);
+        }
+        List<Follower> followers = startFollowers(options);
+        new LoadGenerator(options).run();
+        for (Follower follower : followers) {
+            follower.printReplicationStats();
+        }
+        System.exit(0);
+    }
+
+    void run() throws InterruptedException {
+        System.out.printf("Load test: %d clients at %.1f/s, %.0f%% drawing, %d strokes per turn at %d/s, wire=%s%s%n",
+                options.clients, options.joinRate, options.drawers * 100, options.burst, options.strokeRate, options.wire,
+                options.compress ? " (compressed)" : "");
+        List<LoadClient> started = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        long nextReport = startNanos + TimeUnit.SECONDS.toNanos(5);
+        int drawerCount = (int) Math.round(options.clients * options.drawers);
+
+        // 画画的学生均匀分布在加入顺序中
+        for (int i = 0; i < options.clients; i++) {
+            long joinAt = startNanos + (long) (i * 1e9 / options.joinRate);
+            while (System.nanoTime() < joinAt) {
+                Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(joinAt - System.nanoTime())));
+            }
+            boolean drawer = drawerCount > 0 && (long) i * drawerCount / options.clients
+                    != (long) (i + 1) * drawerCount / options.clients;
+            LoadClient client = new LoadClient(this, i, drawer);
+            clients.put(client.name, client);
+            started.add(client);
+            Thread thread = new Thread(client::run, client.name);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+            if (System.nanoTime() >= nextReport) {
+                printProgress(startNanos);
+                nextReport += TimeUnit.SECONDS.toNanos(5);
+            }
+        }
+
+        long rampNanos = System.nanoTime() - startNanos;
+        long measureStart = System.nanoTime();
+        long sentAtRamp = stats.strokesSent.sum();
+        long receivedAtRamp = stats.strokesReceived.sum();
+        long end = measureStart + TimeUnit.SECONDS.toNanos(options.duration);
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(5000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            printProgress(startNanos);
+        }
+        double measureSeconds = (System.nanoTime() - measureStart) / 1e9;
+        long sentInWindow = stats.strokesSent.sum() - sentAtRamp;
+        long receivedInWindow = stats.strokesReceived.sum() - receivedAtRamp;
+
+        for (LoadClient client : started) {
+            client.stop();
+        }
+        for (Thread thread : threads) {
+            thread.join(2000);
+        }
+
+        System.out.println("========== Load test report ==========");
+        System.out.printf("Ramp-up: %d clients in %.1f s (%d joined, %d connect failures, %d disconnects)%n",
+                options.clients, rampNanos / 1e9, stats.joined.sum(), stats.connectFailures.sum(), stats.disconnects.sum());
+        System.out.printf("Leases: %d granted, %d rejected, %d timed out%n",
+                stats.leaseGranted.sum(), stats.leaseRejected.sum(), stats.leaseTimeouts.sum());
+        System.out.printf("Throughput (%.1f s after ramp-up): %.0f strokes/s sent, %.0f strokes/s delivered%n",
+                measureSeconds, sentInWindow / measureSeconds, receivedInWindow / measureSeconds);
+        System.out.printf("Totals: %d strokes sent, %d delivered, %d messages received%n",
+                stats.strokesSent.sum(), stats.strokesReceived.sum(), stats.messagesReceived.sum());
+        System.out.println("Stroke latency:     " + stats.strokeLatency.summary());
+        if (options.followers > 0) {
+            System.out.println("  via followers:    " + stats.replicaStrokeLatency.summary());
+        }
+        System.out.println("Join to first state: " + stats.joinToState.summary());
+        long frameBytes = stats.frameBytesReceived.sum();
+        if (frameBytes > 0) {
+            long wireBytes = stats.wireBytesReceived.sum();
+            System.out.printf("Received: %d bytes on the wire for %d bytes of frames (%.1f%%)%n",
+                    wireBytes, frameBytes, 100.0 * wireBytes / frameBytes);
+        }
+    }
+
+    private void printProgress(long startNanos) {
+        System.out.printf("[%5.1fs] joined=%d strokes sent=%d delivered=%d p99=%dus%n",
+                (System.nanoTime() - startNanos) / 1e9, stats.joined.sum(), stats.strokesSent.sum(),
+                stats.strokesReceived.sum(), stats.strokeLatency.percentile(99));
+    }
+
+    // 在本进程内启动服务端并等到可以连接. 配置通过同名系统属性覆盖server-config.properties
+    private static void startEmbeddedServer(Options options) throws InterruptedException {
+        System.setProperty("server.userStore", "memory");
+        System.setProperty("server.port", String.valueOf(options.port));
+        System.setProperty("server.mode", "object".equals(options.wire) ? "blocking" : "nio");
+        if (options.regions) {
+            System.setProperty("edit.regionLeases", "true");
+        }
+        if (options.followers > 0) {
+            System.setProperty("replication.role", "leader");
+            System.setProperty("replication.port", String.valueOf(options.replicationPort));
+        }
+        Thread server = new Thread(() -> ServerMain.main(new String[0]), "embedded-server");
+        server.setDaemon(true);
+        server.start();
+        waitForPort(options.host, options.port, "Embedded server");
+    }
+
+    private static void waitForPort(String host, int port, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                new Socket(host, port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException(what + " did not start on port " + port);
+    }
+
+    // 每个副本一个服务端进程, 用当前的classpath启动, 配置通过系统属性覆盖; 输出写到临时文件
+    private static List<Follower> startFollowers(Options options) throws IOException, InterruptedException {
+        List<Follower> followers = new ArrayList<>();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 1; i <= options.followers; i++) {
+            int port = options.port + i;
+            File log = File.createTempFile("follower-" + port + "-", ".log");
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("-Dserver.port=" + port);
+            command.add("-Dserver.mode=" + ("object".equals(options.wire) ? "blocking" : "nio"));
+            command.add("-Dserver.userStore=memory");
+            command.add("-Dmetrics.jmx=false");
+            command.add("-Dreplication.role=follower");
+            command.add("-Dreplication.leader=" + options.host + ":" + options.replicationPort);
+            command.add("-Dreplication.leaderClientAddress=" + options.host + ":" + options.port);
+            command.add(ServerMain.class.getName());
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(log).start();
+            Follower follower = new Follower(port, process, log);
+            followers.add(follower);
+            Runtime.getRuntime().addShutdownHook(new Thread(process::destroy));
+            System.out.println("Follower on port " + port + " started, output in " + log);
+        }
+        for (Follower follower : followers) {
+            waitForPort(options.host, follower.port, "Follower");
+        }
+        return followers;
+    }
+
+    // 一个副本进程
+    private static class Follower {
+        final int port;
+        final Process process;
+        final File log;
+
+        Follower(int port, Process process, File log) {
+            this.port = port;
+            this.process = process;
+            this.log = log;
+        }
+
+        // 通过控制台stats命令取副本的指标, 只打印复制相关的几行
+        void printReplicationStats() throws IOException, InterruptedException {
+            BufferedWriter console = new BufferedWriter(
+                    new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            console.write("stats");
+            console.newLine();
+            console.flush();
+            Thread.sleep(500);
+            for (String line : Files.readAllLines(log.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("Replication")) {
+                    System.out.println("Follower " + port + " " + line);
+                }
+            }
+            process.destroy();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程安全的延迟直方图(微秒). 小于2^(bits+1)微秒的值精确到1微秒, 更大的值按2的幂分段,
+ * 每段2^bits个桶, 相对误差不超过2^-bits. 不需要预先知道最大值, 记录时不加锁.
+ */
+public class LatencyHistogram {
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final int linear;
+    private final AtomicLongArray counts;
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    // 每段512个桶, 误差0.2%, 约220KB; 压测报告用
+    public LatencyHistogram() {
+        this(9);
+    }
+
+    public LatencyHistogram(int subBucketBits) {
+        this.subBucketBits = subBucketBits;
+        this.subBuckets = 1 << subBucketBits;
+        this.linear = 2 * subBuckets;
+        this.counts = new AtomicLongArray(linear + (63 - subBucketBits) * subBuckets);
+    }
+
+    public void recordNanos(long nanos) {
+        record(Math.max(0, nanos / 1000));
+    }
+
+    public void record(long micros) {
+        counts.incrementAndGet(index(micros));
+        total.increment();
+        sum.add(micros);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // 返回不小于该分位的最小桶下界, p取0~100
+    public long percentile(double p) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return lowerBound(i);
+            }
+        }
+        return lowerBound(counts.length() - 1);
+    }
+
+    public long max() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return lowerBound(i);
+            }
+        }
+        return 0;
+    }
+
+    public LatencySnapshot snapshot() {
+        return new LatencySnapshot(count(), Math.round(mean()), percentile(50), percentile(90), percentile(99), max());
+    }
+
+    public String summary() {
+        return String.format("n=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d (us)",
+                count(), mean(), percentile(50), percentile(90), percentile(99), percentile(99.9), max());
+    }
+
+    private int index(long micros) {
+        if (micros < linear) {
+            return (int) micros;
+        }
+        // 右移后落在[subBuckets, 2*subBuckets)
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - subBucketBits;
+        return linear + (shift - 1) * subBuckets + (int) (micros >> shift) - subBuckets;
+    }
+
+    private long lowerBound(int index) {
+        if (index < linear) {
+            return index;
+        }
+        int shift = (index - linear) / subBuckets + 1;
+        long sub = (index - linear) % subBuckets + subBuckets;
+        return sub << shift;
+    }
+}
@@ -0,0 +1,54 @@
+package server.metrics;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * 某一时刻的延迟统计(微秒), 通过JMX以CompositeData的形式展示.
+ */
+public class LatencySnapshot {
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    @ConstructorParameters({"count", "mean", "p50", "p90", "p99", "max"})
+    public LatencySnapshot(long count, long mean, long p50, long p90, long p99, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%d p50=%d p90=%d p99=%d max=%d (us)", count, mean, p50, p90, p99, max);
+    }
+}
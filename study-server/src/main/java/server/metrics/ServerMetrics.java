@@ -0,0 +1,163 @@
+package server.metrics;
+
+import server.models.Message;
+import server.util.ServerConfig;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * 服务端运行指标: 按消息类型的计数和处理耗时, 广播耗时, 画板锁等待, 草图落盘耗时, 连接压缩, 复制延迟.
+ * 记录只做LongAdder累加和直方图桶自增, 不加锁, 可以在生产环境常开.
+ * 通过JMX(server:type=ServerStats)和控制台stats命令查看.
+ */
+public class ServerMetrics {
+    // 每段64个桶, 误差约1.6%, 每个直方图约30KB
+    private static final int PRECISION_BITS = 6;
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    private static final long startMillis = System.currentTimeMillis();
+    private static final LongAdder[] messageCounts = new LongAdder[TYPES.length];
+    private static final LatencyHistogram[] messageLatency = new LatencyHistogram[TYPES.length];
+    private static final LatencyHistogram broadcast = new LatencyHistogram(PRECISION_BITS);
+    private static final LongAdder broadcastRecipients = new LongAdder();
+    private static final LatencyHistogram draftLockWait = new LatencyHistogram(PRECISION_BITS);
+    private static final LatencyHistogram draftLogWrite = new LatencyHistogram(PRECISION_BITS);
+    private static final LatencyHistogram draftCheckpoint = new LatencyHistogram(PRECISION_BITS);
+    // 压缩连接的累计字节数和耗时: [原始字节, 压缩后字节, 纳秒]
+    private static final LongAdder[] deflated = {new LongAdder(), new LongAdder(), new LongAdder()};
+    private static final LongAdder[] inflated = {new LongAdder(), new LongAdder(), new LongAdder()};
+    // 副本: 主服务器发出记录到本地重放完成的时间
+    private static final LatencyHistogram replicationLag = new LatencyHistogram(PRECISION_BITS);
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            messageCounts[i] = new LongAdder();
+            messageLatency[i] = new LatencyHistogram(PRECISION_BITS);
+        }
+    }
+
+    // 处理一条客户端消息的耗时
+    public static void recordMessage(Message.Type type, long nanos) {
+        if (type == null) {
+            return;
+        }
+        messageCounts[type.ordinal()].increment();
+        messageLatency[type.ordinal()].recordNanos(nanos);
+    }
+
+    // 一次广播: 遍历成员并入队的耗时, 不含实际发送
+    public static void recordBroadcast(int recipients, long nanos) {
+        broadcastRecipients.add(recipients);
+        broadcast.recordNanos(nanos);
+    }
+
+    // 等待画板草图锁(DraftManager实例锁)的时间
+    public static void recordDraftLockWait(long nanos) {
+        draftLockWait.recordNanos(nanos);
+    }
+
+    // 日志线程一次写入(含按策略fsync)的耗时
+    public static void recordDraftLogWrite(long nanos) {
+        draftLogWrite.recordNanos(nanos);
+    }
+
+    // 写一个检查点(全量快照)的耗时
+    public static void recordDraftCheckpoint(long nanos) {
+        draftCheckpoint.recordNanos(nanos);
+    }
+
+    // 压缩一帧发送数据
+    public static void recordCompression(long rawBytes, long compressedBytes, long nanos) {
+        deflated[0].add(rawBytes);
+        deflated[1].add(compressedBytes);
+        deflated[2].add(nanos);
+    }
+
+    // 解压一帧接收数据
+    public static void recordDecompression(long compressedBytes, long rawBytes, long nanos) {
+        inflated[0].add(rawBytes);
+        inflated[1].add(compressedBytes);
+        inflated[2].add(nanos);
+    }
+
+    // 副本应用一条复制记录时距主服务器发出的时间, 依赖两边的时钟同步
+    public static void recordReplicationLag(long nanos) {
+        replicationLag.recordNanos(nanos);
+    }
+
+    // 所有压缩连接合计的压缩率和每KB原始数据耗费的CPU时间
+    static String getCompressionStats() {
+        return String.format("out %s, in %s", compressionSummary(deflated), compressionSummary(inflated));
+    }
+
+    private static String compressionSummary(LongAdder[] totals) {
+        long raw = totals[0].sum();
+        long compressed = totals[1].sum();
+        long nanos = totals[2].sum();
+        return String.format("%d -> %d bytes (%.1f%%, %.0f ns/KB)", raw, compressed,
+                raw == 0 ? 0 : 100.0 * compressed / raw, raw == 0 ? 0 : nanos * 1024.0 / raw);
+    }
+
+    static long getUptimeMillis() {
+        return System.currentTimeMillis() - startMillis;
+    }
+
+    static long getMessageCount(Message.Type type) {
+        return messageCounts[type.ordinal()].sum();
+    }
+
+    static LatencyHistogram getMessageLatency(Message.Type type) {
+        return messageLatency[type.ordinal()];
+    }
+
+    static LatencyHistogram getBroadcast() {
+        return broadcast;
+    }
+
+    static long getBroadcastRecipients() {
+        return broadcastRecipients.sum();
+    }
+
+    static LatencyHistogram getDraftLockWait() {
+        return draftLockWait;
+    }
+
+    static LatencyHistogram getDraftLogWrite() {
+        return draftLogWrite;
+    }
+
+    static LatencyHistogram getDraftCheckpoint() {
+        return draftCheckpoint;
+    }
+
+    static LatencyHistogram getReplicationLag() {
+        return replicationLag;
+    }
+
+    /**
+     * 在后台线程注册MXBean: 首次获取平台MBeanServer要加载不少类,
+     * 放在启动路径上会推迟开始监听. metrics.jmx=false时不注册.
+     */
+    public static void registerMBeanInBackground() {
+        if (!ServerConfig.getBoolean("metrics.jmx", true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new ServerStats(), new ObjectName(ServerStats.OBJECT_NAME));
+            } catch (Exception e) {
+                System.err.println("Failed to register metrics MBean: " + e.getMessage());
+            }
+        }, "metrics-jmx");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // 控制台stats命令的输出
+    public static String report() {
+        return new ServerStats().report();
+    }
+}
@@ -0,0 +1,158 @@
+package server.metrics;
+
+import server.ServerMain;
+import server.board.Board;
+import server.board.BoardRegistry;
+import server.models.Message;
+import server.replication.Replication;
+import server.tile.TileService;
+import server.util.DatabaseUtil;
+import server.util.UserManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// ServerStatsMXBean的实现, 每次读取时从ServerMetrics和各模块现取
+class ServerStats implements ServerStatsMXBean {
+    static final String OBJECT_NAME = "server:type=ServerStats";
+
+    @Override
+    public long getUptimeMillis() {
+        return ServerMetrics.getUptimeMillis();
+    }
+
+    @Override
+    public int getOnlineUsers() {
+        return ServerMain.getOnlineUserCount();
+    }
+
+    @Override
+    public int getBoardCount() {
+        return BoardRegistry.getBoards().size();
+    }
+
+    @Override
+    public long getHistorySize() {
+        long total = 0;
+        for (Board board : BoardRegistry.getBoards()) {
+            total += board.getDraft().getHistorySize();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getMessageCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Message.Type type : Message.Type.values()) {
+            long count = ServerMetrics.getMessageCount(type);
+            if (count > 0) {
+                counts.put(type.name(), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getMessageLatency() {
+        Map<String, LatencySnapshot> latency = new LinkedHashMap<>();
+        for (Message.Type type : Message.Type.values()) {
+            LatencyHistogram histogram = ServerMetrics.getMessageLatency(type);
+            if (histogram.count() > 0) {
+                latency.put(type.name(), histogram.snapshot());
+            }
+        }
+        return latency;
+    }
+
+    @Override
+    public LatencySnapshot getBroadcastLatency() {
+        return ServerMetrics.getBroadcast().snapshot();
+    }
+
+    @Override
+    public long getBroadcastRecipients() {
+        return ServerMetrics.getBroadcastRecipients();
+    }
+
+    @Override
+    public LatencySnapshot getDraftLockWait() {
+        return ServerMetrics.getDraftLockWait().snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getDraftLogWrite() {
+        return ServerMetrics.getDraftLogWrite().snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getDraftCheckpoint() {
+        return ServerMetrics.getDraftCheckpoint().snapshot();
+    }
+
+    @Override
+    public int getDatabaseActiveConnections() {
+        return DatabaseUtil.getActiveConnections();
+    }
+
+    @Override
+    public int getDatabaseIdleConnections() {
+        return DatabaseUtil.getIdleConnections();
+    }
+
+    @Override
+    public String getDatabasePool() {
+        return DatabaseUtil.getPoolStats();
+    }
+
+    @Override
+    public String getUserCache() {
+        return UserManager.getCacheStats();
+    }
+
+    @Override
+    public String getUserWrites() {
+        return UserManager.getWriteStats();
+    }
+
+    @Override
+    public String getTileCache() {
+        return TileService.getStats();
+    }
+
+    @Override
+    public String getCompression() {
+        return ServerMetrics.getCompressionStats();
+    }
+
+    @Override
+    public LatencySnapshot getReplicationLag() {
+        return ServerMetrics.getReplicationLag().snapshot();
+    }
+
+    @Override
+    public String getReplication() {
+        return Replication.getStats();
+    }
+
+    String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Uptime: %d s, online users: %d, boards: %d, history: %d actions%n",
+                getUptimeMillis() / 1000, getOnlineUsers(), getBoardCount(), getHistorySize()));
+        out.append("Messages handled:").append(System.lineSeparator());
+        for (Map.Entry<String, LatencySnapshot> entry : getMessageLatency().entrySet()) {
+            out.append(String.format("  %-15s %s%n", entry.getKey(), entry.getValue()));
+        }
+        out.append(String.format("Broadcast:       %s, %d recipients%n", getBroadcastLatency(), getBroadcastRecipients()));
+        out.append(String.format("Draft lock wait: %s%n", getDraftLockWait()));
+        out.append(String.format("Draft log write: %s%n", getDraftLogWrite()));
+        out.append(String.format("Checkpoint:      %s%n", getDraftCheckpoint()));
+        out.append("Connection pool: ").append(getDatabasePool()).append(System.lineSeparator());
+        out.append("User cache: ").append(getUserCache()).append(System.lineSeparator());
+        out.append("User writes: ").append(getUserWrites()).append(System.lineSeparator());
+        out.append("Tile cache: ").append(getTileCache()).append(System.lineSeparator());
+        out.append("Compression: ").append(getCompression()).append(System.lineSeparator());
+        out.append(String.format("Replication lag: %s%n", getReplicationLag()));
+        out.append("Replication: ").append(getReplication());
+        return out.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package server.metrics;
+
+import java.util.Map;
+
+/**
+ * 通过JMX暴露的运行指标, 延迟单位均为微秒, 计数从服务启动起累计.
+ */
+public interface ServerStatsMXBean {
+    long getUptimeMillis();
+
+    int getOnlineUsers();
+
+    int getBoardCount();
+
+    // 所有已加载画板的已提交动作数之和
+    long getHistorySize();
+
+    // 按消息类型的处理次数, 只包含出现过的类型
+    Map<String, Long> getMessageCounts();
+
+    // 按消息类型的处理耗时
+    Map<String, LatencySnapshot> getMessageLatency();
+
+    LatencySnapshot getBroadcastLatency();
+
+    long getBroadcastRecipients();
+
+    LatencySnapshot getDraftLockWait();
+
+    LatencySnapshot getDraftLogWrite();
+
+    LatencySnapshot getDraftCheckpoint();
+
+    int getDatabaseActiveConnections();
+
+    int getDatabaseIdleConnections();
+
+    String getDatabasePool();
+
+    String getUserCache();
+
+    String getUserWrites();
+
+    String getTileCache();
+
+    // 所有压缩连接合计的压缩率和CPU耗时
+    String getCompression();
+
+    // 副本上的复制延迟(主服务器发出到副本重放), 主服务器上为空
+    LatencySnapshot getReplicationLag();
+
+    // 复制角色和状态: 主服务器上为各副本的发送队列, 副本上为连接状态和落后的序号数
+    String getReplication();
+}
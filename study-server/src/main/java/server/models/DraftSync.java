@@ -0,0 +1,52 @@
+package server.models;
+
+import server.models.MainAction.Action;
+
+import java.io.Serializable;
+import java.util.List;
+
+// SYNC_STATE的数据: 客户端已有序号之后的已提交动作, 或者无法增量时的完整快照
+public class DraftSync implements Serializable {
+    private static final long serialVersionUID = 0x67bf79773f80f4a0L;
+    private final boolean full;
+    private final long fromSequence;
+    private final long toSequence;
+    private final List<Action> actions;
+    private final List<Action> pendingActions;
+
+    /**
+     * @param full           true表示actions是完整历史, 客户端需先清空画板
+     * @param fromSequence   actions中第一个动作的序号为fromSequence + 1
+     * @param toSequence     最后一个已提交动作的序号, 客户端下次同步时带上它
+     * @param actions        已提交动作
+     * @param pendingActions 当前编辑者尚未提交的动作(没有序号)
+     */
+    public DraftSync(boolean full, long fromSequence, long toSequence,
+                     List<Action> actions, List<Action> pendingActions) {
+        this.full = full;
+        this.fromSequence = fromSequence;
+        this.toSequence = toSequence;
+        this.actions = actions;
+        this.pendingActions = pendingActions;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public long getFromSequence() {
+        return fromSequence;
+    }
+
+    public long getToSequence() {
+        return toSequence;
+    }
+
+    public List<Action> getActions() {
+        return actions;
+    }
+
+    public List<Action> getPendingActions() {
+        return pendingActions;
+    }
+}
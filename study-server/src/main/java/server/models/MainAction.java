@@ -2,11 +2,16 @@ package server.models;
 
 import javafx.scene.shape.Shape;
 
+import java.io.Serializable;
+import java.util.List;
+
 public class MainAction {
-    public interface Action {
+    // 各动作的serialVersionUID固定为原先按类结构算出的值, 已写出的草图和检查点仍可读取
+    public interface Action extends Serializable {
     }
 
     public static class DrawAction implements Action {
+        private static final long serialVersionUID = 0xfe3cfa0bcca01ff0L;
         private double startX;
         private double startY;
         private double endX;
@@ -55,6 +60,7 @@ public class MainAction {
     }
 
     public static class TextAction implements Action {
+        private static final long serialVersionUID = 0x3956e65f27bf8c41L;
         private double x;
         private double y;
         private String text;
@@ -91,11 +97,28 @@ public class MainAction {
     }
 
     public static class UndoAction implements Action {
+        private static final long serialVersionUID = 0xa0f70a04ba42a703L;
     }
 
     public static class UndoAllAction implements Action {
+        private static final long serialVersionUID = 0x6662c4b3377a3045L;
     }
 
     public static class RedoAction implements Action {
+        private static final long serialVersionUID = 0x1540e8819319d741L;
+    }
+
+    // 一次发送的多个连续动作, 服务端展开后依次处理, 不会写入历史
+    public static class BatchAction implements Action {
+        private static final long serialVersionUID = 0xc6cf44def37163bdL;
+        private List<Action> actions;
+
+        public BatchAction(List<Action> actions) {
+            this.actions = actions;
+        }
+
+        public List<Action> getActions() {
+            return actions;
+        }
     }
 }
\ No newline at end of file
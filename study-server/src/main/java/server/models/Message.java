@@ -5,15 +5,26 @@ import java.io.Serializable;
 public class Message implements Serializable {
     public enum Type {
         REGISTER,        // 注册
-        EDIT_REQUEST,    // 请求编辑权限
+        EDIT_REQUEST,    // 请求编辑租约, data为Viewport时只申请该区域, 否则为整个画板
         UPDATE_USERS,    // 更新用户列表
         INITIAL_STATE,   // 初始状态
-        EDIT_GRANTED,    // 授予编辑权限
+        EDIT_GRANTED,    // 授予编辑租约, data为授予的区域(整个画板时为null)
         EDIT_REJECTED,   // 拒绝编辑权限
         EDIT_ACTION,     // 编辑动作
         EDIT_COMPLETE,   // 编辑完成
         UPDATE_DRAFT,    // 更新草图
-        EXIT             // 退出
+        EXIT,            // 退出
+        SYNC_REQUEST,    // 增量同步请求, data为客户端已有的最后序号
+        SYNC_STATE,      // 增量同步响应, data为DraftSync
+        STREAM_STATE,    // 请求分块下发历史, data为客户端已有的最后序号(-1表示全部)
+        STATE_CHUNK,     // 分块下发的一段历史, data为StateChunk
+        VIEWPORT_QUERY,  // 只请求某个区域内的历史, data为Viewport
+        VIEWPORT_STATE,  // 区域查询结果, data为ViewportState
+        JOIN_BOARD,      // 切换画板, data为画板名; 服务端回复实际所在的画板名
+        TILE_REQUEST,    // 请求已提交历史的渲染瓦片, data为TileRequest
+        TILE_DATA,       // 一块瓦片, data为TileData; 每块一条消息
+        COMPRESSION,     // 协商连接压缩, 客户端发来支持的方案名(逗号分隔), 服务端回复选定的方案, null表示不压缩
+        REDIRECT         // 只读副本不能编辑, data为主服务器的地址(host:port), 客户端应连接主服务器后再申请编辑
     }
 
     private Type type;
@@ -0,0 +1,59 @@
+package server.models;
+
+import server.models.MainAction.Action;
+
+import java.io.Serializable;
+import java.util.List;
+
+// STATE_CHUNK的数据: 分块下发的已提交历史中的一段
+public class StateChunk implements Serializable {
+    private static final long serialVersionUID = 0x803c9f169c5d66c6L;
+    private final boolean full;
+    private final long fromSequence;
+    private final long toSequence;
+    private final List<Action> actions;
+    private final boolean last;
+    private final List<Action> pendingActions;
+
+    /**
+     * @param full           true表示从这一块开始是完整历史, 客户端需先清空画板
+     * @param fromSequence   本块第一个动作的序号为fromSequence + 1
+     * @param toSequence     本块最后一个动作的序号
+     * @param actions        本块的已提交动作
+     * @param last           是否为最后一块
+     * @param pendingActions 最后一块附带当前编辑者尚未提交的动作, 其余块为空
+     */
+    public StateChunk(boolean full, long fromSequence, long toSequence, List<Action> actions,
+                      boolean last, List<Action> pendingActions) {
+        this.full = full;
+        this.fromSequence = fromSequence;
+        this.toSequence = toSequence;
+        this.actions = actions;
+        this.last = last;
+        this.pendingActions = pendingActions;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public long getFromSequence() {
+        return fromSequence;
+    }
+
+    public long getToSequence() {
+        return toSequence;
+    }
+
+    public List<Action> getActions() {
+        return actions;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public List<Action> getPendingActions() {
+        return pendingActions;
+    }
+}
@@ -0,0 +1,59 @@
+package server.models;
+
+import java.io.Serializable;
+
+/**
+ * TILE_DATA的数据: 一块已提交历史的渲染结果.
+ * 瓦片覆盖画布上[x*size*2^level, (x+1)*size*2^level)的区域(y同理), 包含序号不大于version的所有已提交动作.
+ * 客户端画上瓦片后, 以各瓦片中最小的version发SYNC_REQUEST, 只需重放之后提交的动作.
+ */
+public class TileData implements Serializable {
+    private static final long serialVersionUID = 0x4cfde97f16b83e35L;
+    private final int level;
+    private final int x;
+    private final int y;
+    private final int size;
+    private final long version;
+    private final byte[] png;
+
+    /**
+     * @param level   瓦片层级
+     * @param x       瓦片列号, 可以为负
+     * @param y       瓦片行号, 可以为负
+     * @param size    瓦片边长(像素)
+     * @param version 瓦片包含的最后一个已提交动作的序号
+     * @param png     PNG编码的图像, 区域内没有内容时为null
+     */
+    public TileData(int level, int x, int y, int size, long version, byte[] png) {
+        this.level = level;
+        this.x = x;
+        this.y = y;
+        this.size = size;
+        this.version = version;
+        this.png = png;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public byte[] getPng() {
+        return png;
+    }
+}
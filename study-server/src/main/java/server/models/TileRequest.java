@@ -0,0 +1,27 @@
+package server.models;
+
+import java.io.Serializable;
+
+// TILE_REQUEST的数据: 请求覆盖viewport的某一层瓦片
+public class TileRequest implements Serializable {
+    private static final long serialVersionUID = 0xb5e5b5026b12c9b8L;
+    private final Viewport viewport;
+    private final int level;
+
+    /**
+     * @param viewport 画布坐标下的可见区域
+     * @param level    瓦片层级, 第0层1个像素对应1个画布单位, 每升一层缩小一半
+     */
+    public TileRequest(Viewport viewport, int level) {
+        this.viewport = viewport;
+        this.level = level;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
@@ -0,0 +1,35 @@
+package server.models;
+
+import java.io.Serializable;
+
+// 画布上的矩形区域, VIEWPORT_QUERY的数据
+public class Viewport implements Serializable {
+    private static final long serialVersionUID = 0x5113f7de717a6a1eL;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    public Viewport(double minX, double minY, double maxX, double maxY) {
+        this.minX = Math.min(minX, maxX);
+        this.minY = Math.min(minY, maxY);
+        this.maxX = Math.max(minX, maxX);
+        this.maxY = Math.max(minY, maxY);
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+}
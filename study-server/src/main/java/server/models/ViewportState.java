@@ -0,0 +1,44 @@
+package server.models;
+
+import server.models.MainAction.Action;
+
+import java.io.Serializable;
+import java.util.List;
+
+// VIEWPORT_STATE的数据: 与视口相交的已提交动作, 按提交顺序排列
+public class ViewportState implements Serializable {
+    private static final long serialVersionUID = 0x92e44c24fc63d556L;
+    private final Viewport viewport;
+    private final long toSequence;
+    private final long[] sequences;
+    private final List<Action> actions;
+
+    /**
+     * @param viewport   查询的区域
+     * @param toSequence 查询时最后一个已提交动作的序号
+     * @param sequences  每个动作的序号, 与actions一一对应
+     * @param actions    与区域相交的动作, 以及清空画板等没有几何范围的动作
+     */
+    public ViewportState(Viewport viewport, long toSequence, long[] sequences, List<Action> actions) {
+        this.viewport = viewport;
+        this.toSequence = toSequence;
+        this.sequences = sequences;
+        this.actions = actions;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    public long getToSequence() {
+        return toSequence;
+    }
+
+    public long[] getSequences() {
+        return sequences;
+    }
+
+    public List<Action> getActions() {
+        return actions;
+    }
+}
@@ -0,0 +1,53 @@
+package server.nio;
+
+import server.codec.BinaryCodec;
+import server.codec.BinaryWriter;
+import server.codec.WireFormat;
+import server.models.Message;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+// nio模式的帧格式: [4字节长度][负载], 负载为序列化的Message或BinaryCodec编码.
+// 与阻塞模式的连续对象流不兼容, 只在server.mode=nio时使用, 见README的"连接模式"
+public class FrameCodec {
+    public static final int HEADER_SIZE = 4;
+
+    public static ByteBuffer encode(Message message) throws IOException {
+        return encode(message, WireFormat.SERIALIZED);
+    }
+
+    public static ByteBuffer encode(Message message, WireFormat format) throws IOException {
+        if (format == WireFormat.BINARY) {
+            BinaryWriter out = new BinaryWriter(128);
+            // 预留长度字段
+            out.writeInt(0);
+            BinaryCodec.encode(message, out);
+            out.setInt(0, out.size() - HEADER_SIZE);
+            return ByteBuffer.wrap(out.array(), 0, out.size());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[HEADER_SIZE]);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(message);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.capacity() - HEADER_SIZE);
+        return frame;
+    }
+
+    public static WireFormat detect(byte[] payload, int offset) {
+        return WireFormat.detect(payload[offset]);
+    }
+
+    public static Message decode(byte[] payload, int offset, int length)
+            throws IOException, ClassNotFoundException {
+        if (detect(payload, offset) == WireFormat.BINARY) {
+            return BinaryCodec.decode(payload, offset, length);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(payload, offset, length))) {
+            return (Message) ois.readObject();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package server.nio;
+
+import server.metrics.ServerMetrics;
+import server.util.ServerConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 一个连接的流式压缩: 每个方向一个贯穿整个连接的raw deflate流, 以WireDictionary为预置字典.
+ * 每帧以SYNC_FLUSH结束, 帧内数据到达即可完整解出, 实时笔画不会等待凑满缓冲; 之前帧的内容留在
+ * 32KB窗口中供后续帧引用. 与WebSocket permessage-deflate相同, 每帧末尾固定的00 00 FF FF不发送,
+ * 解压时补回. 压缩帧的负载以MARKER开头, 与序列化(0xAC)和BinaryCodec(0xB7)的帧区分.
+ * 压缩和解压只在连接所在的I/O线程中进行, 加锁只是为了与其他线程关闭连接时释放本地内存互斥;
+ * 统计字段由其他线程读取, 用volatile保证可见.
+ */
+public class FrameCompressor {
+    public static final String SCHEME = WireDictionary.SCHEME;
+    public static final int MARKER = 0xDF;
+
+    private static final int INITIAL_BUFFER = 8 * 1024;
+    private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+    private static final byte[] SYNC_TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private final int maxFrameBytes;
+    // 解压缓冲, 处理过大帧之后换回初始大小
+    private byte[] inflateBuffer = new byte[INITIAL_BUFFER];
+    private int inflatedSize;
+    private boolean closed = false;
+    private volatile long rawOut = 0;
+    private volatile long wireOut = 0;
+    private volatile long deflateNanos = 0;
+    private volatile long wireIn = 0;
+    private volatile long rawIn = 0;
+    private volatile long inflateNanos = 0;
+
+    // 使用当前方案(SCHEME)的预置字典, 客户端一侧也这样创建
+    public FrameCompressor(int level, int maxFrameBytes) {
+        this(level, WireDictionary.bytes(), maxFrameBytes);
+    }
+
+    // dictionary为null时不使用预置字典, 只用于对比字典的效果
+    public FrameCompressor(int level, byte[] dictionary, int maxFrameBytes) {
+        this.deflater = new Deflater(level, true);
+        this.inflater = new Inflater(true);
+        this.maxFrameBytes = maxFrameBytes;
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+            inflater.setDictionary(dictionary);
+        }
+    }
+
+    // 按compression.level创建, 使用当前方案的字典
+    static FrameCompressor fromConfig(int maxFrameBytes) {
+        int level = ServerConfig.getInt("compression.level", 6);
+        return new FrameCompressor(Math.max(1, Math.min(9, level)), maxFrameBytes);
+    }
+
+    // 客户端发来的方案列表(逗号分隔)中包含本方案且compression.enabled时返回本方案, 否则返回null
+    static String choose(Object offered) {
+        if (!(offered instanceof String) || !ServerConfig.getBoolean("compression.enabled", true)) {
+            return null;
+        }
+        for (String scheme : ((String) offered).split(",")) {
+            if (scheme.trim().equals(SCHEME)) {
+                return SCHEME;
+            }
+        }
+        return null;
+    }
+
+    public static boolean isCompressed(byte firstByte) {
+        return (firstByte & 0xFF) == MARKER;
+    }
+
+    /**
+     * 压缩一个完整的帧([长度][负载]), 返回新的帧[长度][MARKER][deflate数据].
+     */
+    public synchronized ByteBuffer compress(ByteBuffer frame) throws IOException {
+        if (closed) {
+            throw new IOException("Compressor closed");
+        }
+        long start = System.nanoTime();
+        int length = frame.remaining() - FrameCodec.HEADER_SIZE;
+        deflater.setInput(frame.array(), frame.arrayOffset() + frame.position() + FrameCodec.HEADER_SIZE, length);
+        // deflate最坏情况下每16KB多5个字节, 不够时再扩容
+        byte[] output = new byte[FrameCodec.HEADER_SIZE + 1 + length + length / 1024 + 64];
+        int size = FrameCodec.HEADER_SIZE + 1;
+        while (true) {
+            if (output.length - size < 64) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            int space = output.length - size;
+            int written = deflater.deflate(output, size, space, Deflater.SYNC_FLUSH);
+            size += written;
+            if (written < space) {
+                break;
+            }
+        }
+        // 空帧且上一帧已经刷新时deflate不输出任何数据; SYNC_FLUSH之后按字节对齐, 手动补一个空的存储块
+        if (size == FrameCodec.HEADER_SIZE + 1) {
+            output[size++] = 0;
+            System.arraycopy(SYNC_TAIL, 0, output, size, SYNC_TAIL.length);
+            size += SYNC_TAIL.length;
+        }
+        // 去掉SYNC_FLUSH产生的空块尾部
+        size -= SYNC_TAIL.length;
+        output[FrameCodec.HEADER_SIZE] = (byte) MARKER;
+        ByteBuffer compressed = ByteBuffer.wrap(output, 0, size);
+        compressed.putInt(0, size - FrameCodec.HEADER_SIZE);
+        rawOut += length;
+        wireOut += size - FrameCodec.HEADER_SIZE;
+        long nanos = System.nanoTime() - start;
+        deflateNanos += nanos;
+        ServerMetrics.recordCompression(length, size - FrameCodec.HEADER_SIZE, nanos);
+        return compressed;
+    }
+
+    /**
+     * 解压一个以MARKER开头的负载, 返回原始负载. 数据损坏或解出的长度超过帧长度上限时抛出IOException.
+     */
+    public synchronized byte[] decompress(byte[] payload, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Compressor closed");
+        }
+        long start = System.nanoTime();
+        inflatedSize = 0;
+        try {
+            inflater.setInput(payload, offset + 1, length - 1);
+            inflateAvailable();
+            inflater.setInput(SYNC_TAIL);
+            inflateAvailable();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame: " + e.getMessage());
+        }
+        byte[] result = Arrays.copyOf(inflateBuffer, inflatedSize);
+        if (inflateBuffer.length > MAX_RETAINED_BUFFER) {
+            inflateBuffer = new byte[INITIAL_BUFFER];
+        }
+        wireIn += length;
+        rawIn += result.length;
+        long nanos = System.nanoTime() - start;
+        inflateNanos += nanos;
+        ServerMetrics.recordDecompression(length, result.length, nanos);
+        return result;
+    }
+
+    // 解出当前输入能解出的全部数据, 追加到inflateBuffer
+    private void inflateAvailable() throws DataFormatException, IOException {
+        while (true) {
+            if (inflatedSize == inflateBuffer.length) {
+                if (inflateBuffer.length >= maxFrameBytes) {
+                    throw new IOException("Decompressed frame exceeds " + maxFrameBytes + " bytes");
+                }
+                inflateBuffer = Arrays.copyOf(inflateBuffer, Math.min(maxFrameBytes, inflateBuffer.length * 2));
+            }
+            int read = inflater.inflate(inflateBuffer, inflatedSize, inflateBuffer.length - inflatedSize);
+            inflatedSize += read;
+            if (read == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                return;
+            }
+        }
+    }
+
+    // 释放zlib的本地内存(每个方向约几百KB), 连接关闭时调用
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        deflater.end();
+        inflater.end();
+    }
+
+    // 发送和接收两个方向的压缩率与每KB原始数据耗费的CPU时间
+    public String getStats() {
+        return String.format("out %d -> %d bytes (%.1f%%, %.0f ns/KB), in %d -> %d bytes (%.1f%%, %.0f ns/KB)",
+                rawOut, wireOut, percent(wireOut, rawOut), perKilobyte(deflateNanos, rawOut),
+                rawIn, wireIn, percent(wireIn, rawIn), perKilobyte(inflateNanos, rawIn));
+    }
+
+    static double percent(long compressed, long raw) {
+        return raw == 0 ? 0 : 100.0 * compressed / raw;
+    }
+
+    static double perKilobyte(long nanos, long raw) {
+        return raw == 0 ? 0 : nanos * 1024.0 / raw;
+    }
+}
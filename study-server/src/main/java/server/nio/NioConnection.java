@@ -0,0 +1,319 @@
+package server.nio;
+
+import server.codec.WireFormat;
+import server.handler.ClientHandler;
+import server.handler.OutboundQueue;
+import server.models.Message;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 单个非阻塞连接: 负责拆帧读取和待写缓冲
+public final class NioConnection {
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+
+    private final SocketChannel channel;
+    private final int maxFrameBytes;
+    private final ClientHandler handler;
+    // 接受连接时记下对端地址, 连接关闭后通道不再提供地址
+    private final String remoteHost;
+    private final Object writeLock = new Object();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private SelectionKey key;
+    private boolean writePending = false;
+    // 正在写出的帧, 只由I/O线程访问
+    private ByteBuffer currentFrame;
+    // 处理线程正在生成需要访问草图的下一帧, 期间I/O线程不从队列取消息; 生成好的消息和未压缩的帧放在
+    // draftMessage/draftFrame. 都由writeLock保护
+    private boolean draftWorkPending = false;
+    private Message draftMessage;
+    private ByteBuffer draftFrame;
+    // 在REGISTER时按客户端使用的编码确定
+    private volatile WireFormat format = WireFormat.SERIALIZED;
+    // 回复COMPRESSION同意压缩之后创建, 其后双方的帧都可以压缩; 只由I/O线程使用
+    private volatile FrameCompressor compressor;
+
+    public NioConnection(SocketChannel channel, int maxFrameBytes) {
+        this.channel = channel;
+        this.maxFrameBytes = maxFrameBytes;
+        this.remoteHost = remoteHost(channel);
+        this.handler = new ClientHandler(this);
+    }
+
+    void attach(SelectionKey key) {
+        synchronized (writeLock) {
+            this.key = key;
+            if (!handler.getOutboundQueue().isEmpty()) {
+                writePending = true;
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    // 对端IP, 接受时已经关闭的连接返回null
+    public String getRemoteHost() {
+        return remoteHost;
+    }
+
+    private static String remoteHost(SocketChannel channel) {
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+            if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null) {
+                return ((InetSocketAddress) address).getAddress().getHostAddress();
+            }
+        } catch (IOException e) {
+            // 通道已关闭
+        }
+        return null;
+    }
+
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    public ClientHandler getHandler() {
+        return handler;
+    }
+
+    // 由I/O线程调用: 读取数据并按帧分发
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= FrameCodec.HEADER_SIZE) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length <= 0 || length > maxFrameBytes) {
+                    System.err.println("Invalid frame length " + length + ", closing connection");
+                    close();
+                    return;
+                }
+                if (readBuffer.remaining() < FrameCodec.HEADER_SIZE + length) {
+                    break;
+                }
+                int start = readBuffer.position() + FrameCodec.HEADER_SIZE;
+                byte[] payload = readBuffer.array();
+                int offset = readBuffer.arrayOffset() + start;
+                int payloadLength = length;
+                if (FrameCompressor.isCompressed(payload[offset])) {
+                    if (compressor == null) {
+                        System.err.println("Compressed frame before negotiation, closing connection");
+                        close();
+                        return;
+                    }
+                    payload = compressor.decompress(payload, offset, length);
+                    offset = 0;
+                    payloadLength = payload.length;
+                    if (payloadLength == 0) {
+                        System.err.println("Empty compressed frame, closing connection");
+                        close();
+                        return;
+                    }
+                }
+                Message message = FrameCodec.decode(payload, offset, payloadLength);
+                if (message.getCommand() == Message.Type.REGISTER) {
+                    format = FrameCodec.detect(payload, offset);
+                }
+                readBuffer.position(start + length);
+                handler.onMessage(message);
+                if (closed.get()) {
+                    return;
+                }
+            }
+            readBuffer.compact();
+            ensureReadCapacity();
+        } catch (IOException | ClassNotFoundException e) {
+            close();
+        } catch (RuntimeException e) {
+            // 帧内容与声明的类型不符等, 只影响这一个连接
+            System.err.println("Malformed message, closing connection: " + e);
+            close();
+        }
+    }
+
+    // 当前帧比缓冲区大时扩容
+    private void ensureReadCapacity() {
+        if (readBuffer.position() < FrameCodec.HEADER_SIZE || readBuffer.hasRemaining()) {
+            return;
+        }
+        int length = readBuffer.getInt(0);
+        int needed = Math.max(readBuffer.capacity() * 2, FrameCodec.HEADER_SIZE + length);
+        ByteBuffer larger = ByteBuffer.allocate(needed);
+        readBuffer.flip();
+        larger.put(readBuffer);
+        readBuffer = larger;
+    }
+
+    // 由I/O线程调用: 从发送队列取消息编码并尽量写出; 历史分块等需要访问草图的消息由处理线程生成
+    void onWritable() {
+        OutboundQueue outbound = handler.getOutboundQueue();
+        try {
+            while (true) {
+                if (currentFrame == null) {
+                    Message preparedMessage;
+                    ByteBuffer prepared;
+                    synchronized (writeLock) {
+                        if (draftWorkPending) {
+                            // 生成好之后由requestWrite重新注册写事件
+                            writePending = false;
+                            if (key.isValid()) {
+                                key.interestOps(SelectionKey.OP_READ);
+                            }
+                            return;
+                        }
+                        preparedMessage = draftMessage;
+                        prepared = draftFrame;
+                        draftMessage = null;
+                        draftFrame = null;
+                    }
+                    if (prepared != null) {
+                        currentFrame = finish(preparedMessage, prepared);
+                        continue;
+                    }
+                    Message next = outbound.pollWithoutDraft();
+                    if (next == OutboundQueue.DRAFT_WORK) {
+                        startDraftWork();
+                        continue;
+                    }
+                    if (next == null) {
+                        synchronized (writeLock) {
+                            if (outbound.isEmpty()) {
+                                writePending = false;
+                                if (key.isValid()) {
+                                    key.interestOps(SelectionKey.OP_READ);
+                                }
+                                return;
+                            }
+                        }
+                        continue;
+                    }
+                    currentFrame = encode(next);
+                    if (currentFrame == null) {
+                        continue;
+                    }
+                }
+                channel.write(currentFrame);
+                if (currentFrame.hasRemaining()) {
+                    return;
+                }
+                currentFrame = null;
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void startDraftWork() {
+        synchronized (writeLock) {
+            draftWorkPending = true;
+        }
+        handler.pollDraftWork(message -> {
+            ByteBuffer frame = null;
+            try {
+                if (message != null && !closed.get()) {
+                    frame = FrameCodec.encode(message, format);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to encode message: " + e.getMessage());
+            } finally {
+                synchronized (writeLock) {
+                    draftMessage = message;
+                    draftFrame = frame;
+                    draftWorkPending = false;
+                }
+                requestWrite();
+            }
+        });
+    }
+
+    private ByteBuffer encode(Message message) {
+        try {
+            return finish(message, FrameCodec.encode(message, format));
+        } catch (IOException e) {
+            System.err.println("Failed to encode message: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 在I/O线程上按发送顺序压缩; 同意压缩的COMPRESSION回复本身不压缩, 之后的帧都压缩
+    private ByteBuffer finish(Message message, ByteBuffer frame) throws IOException {
+        if (compressor != null) {
+            return compressor.compress(frame);
+        }
+        if (message.getCommand() == Message.Type.COMPRESSION && message.getData() != null) {
+            compressor = FrameCompressor.fromConfig(maxFrameBytes);
+            if (closed.get()) {
+                compressor.close();
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * 处理客户端的COMPRESSION请求, 返回回复中的方案名(null表示不压缩).
+     * 已经在压缩时仍回复当前方案, 不会重新开始压缩流.
+     */
+    public String negotiateCompression(Object offered) {
+        if (compressor != null) {
+            return FrameCompressor.SCHEME;
+        }
+        return FrameCompressor.choose(offered);
+    }
+
+    // 未压缩的连接返回null
+    public String getCompressionStats() {
+        FrameCompressor current = compressor;
+        return current == null ? null : current.getStats();
+    }
+
+    // 可由任意线程调用: 有新消息入队后请求I/O线程写出
+    public void requestWrite() {
+        if (closed.get()) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (writePending || key == null) {
+                return;
+            }
+            writePending = true;
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                key.selector().wakeup();
+            }
+        }
+    }
+
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+        if (compressor != null) {
+            compressor.close();
+        }
+        handler.onDisconnect();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+}
@@ -0,0 +1,112 @@
+package server.nio;
+
+import server.util.StartupTimer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+// Reactor模式服务器: 一个接收线程 + 固定数量的I/O线程
+public class NioServer {
+    private final int port;
+    private final int backlog;
+    private final int maxFrameBytes;
+    private final NioWorker[] workers;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private volatile boolean running = true;
+    private int nextWorker = 0;
+
+    public NioServer(int port, int ioThreads, int backlog, int maxFrameBytes) throws IOException {
+        this.port = port;
+        this.backlog = backlog;
+        this.maxFrameBytes = maxFrameBytes;
+        this.workers = new NioWorker[Math.max(1, ioThreads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new NioWorker();
+        }
+    }
+
+    // 阻塞运行接收循环, 直到stop()被调用
+    public void start() throws IOException {
+        for (int i = 0; i < workers.length; i++) {
+            Thread thread = new Thread(workers[i], "nio-worker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        System.out.println("NIO server ready with " + workers.length
+                + " I/O threads. Waiting for connections...");
+        StartupTimer.ready();
+
+        try {
+            while (running) {
+                acceptSelector.select(1000);
+                Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        acceptAll();
+                    }
+                }
+            }
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void acceptAll() {
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                NioConnection connection = new NioConnection(channel, maxFrameBytes);
+                workers[nextWorker].register(connection);
+                nextWorker = (nextWorker + 1) % workers.length;
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Accept error: " + e.getMessage());
+            }
+        }
+    }
+
+    public int getConnectionCount() {
+        int count = 0;
+        for (NioWorker worker : workers) {
+            count += worker.connectionCount();
+        }
+        return count;
+    }
+
+    public void stop() {
+        running = false;
+        for (NioWorker worker : workers) {
+            worker.stop();
+        }
+        if (acceptSelector != null) {
+            acceptSelector.wakeup();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (acceptSelector != null) acceptSelector.close();
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package server.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// I/O线程: 每个线程一个Selector, 负责若干连接的读写
+public class NioWorker implements Runnable {
+    private final Selector selector;
+    private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    public NioWorker() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    // 由接收线程调用, 注册在I/O线程中完成
+    void register(NioConnection connection) {
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+    }
+
+    int connectionCount() {
+        return selector.keys().size();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+                registerPending();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("I/O worker error: " + e.getMessage());
+                }
+            }
+        }
+        closeAll();
+    }
+
+    // 单个连接处理中的运行时异常(如畸形数据导致的类型转换错误)只关闭该连接, 不能让I/O线程退出
+    private void handle(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (!key.isValid()) {
+                connection.close();
+                return;
+            }
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Closing connection after unexpected error: " + e);
+            try {
+                connection.close();
+            } catch (RuntimeException ignored) {
+                // 关闭时的清理失败不影响其他连接
+            }
+        }
+    }
+
+    private void registerPending() {
+        NioConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            SocketChannel channel = connection.getChannel();
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key);
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            ((NioConnection) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,70 @@
+package server.nio;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 压缩连接共用的预置字典, 客户端必须使用逐字节相同的字典, 所以内容只能随方案名(SCHEME)一起变更.
+ * 内容取自两种消息编码中反复出现的片段: Java序列化的流头、类名、字段名和类型签名,
+ * 以及常用颜色、图形类和消息类型名. deflate对越靠近末尾的字典内容引用越短, 最常见的片段放在最后.
+ */
+final class WireDictionary {
+    static final String SCHEME = "deflate-v1";
+
+    private static final String[] TOKENS = {
+            // 不常见的消息和数据类型
+            "server.models.TileRequest", "server.models.TileData", "server.models.Viewport",
+            "server.models.ViewportState", "server.models.StateChunk", "server.models.DraftSync",
+            "TILE_REQUEST", "TILE_DATA", "VIEWPORT_QUERY", "VIEWPORT_STATE", "JOIN_BOARD",
+            "STREAM_STATE", "STATE_CHUNK", "SYNC_REQUEST", "SYNC_STATE", "EDIT_REJECTED", "EXIT",
+            "minXminYmaxXmaxY", "fromSequencetoSequence", "sequences", "[J",
+            "server.models.MainAction$UndoAllAction", "server.models.MainAction$RedoAction",
+            "server.models.MainAction$UndoAction",
+            // 用户列表
+            "java.util.HashSet", "server.models.UserSession", "usernamestudentIdipAddress",
+            "UPDATE_USERS", "REGISTER",
+            // 文字和其他图形
+            "server.models.MainAction$TextAction", "textxy",
+            "javafx.scene.shape.Circle", "javafx.scene.shape.Ellipse", "javafx.scene.shape.Rectangle",
+            "javafx.scene.shape.Path", "javafx.scene.shape.Shape",
+            // 常用颜色(JavaFX Color.toString()格式)
+            "0xffffffff", "0x008000ff", "0xffff00ff", "0x0000ffff", "0xff0000ff", "0x000000ff",
+            // 编辑流程
+            "EDIT_REQUEST", "EDIT_GRANTED", "EDIT_COMPLETE", "UPDATE_DRAFT", "INITIAL_STATE",
+            "java.util.ArrayListx\u0000\u0000\u0000\u0001w\u0004\u0000\u0000\u0000\u0001",
+            "server.models.MainAction$BatchActionL\u0000\u0007actionst\u0000\u0010Ljava/util/List;",
+            "java.lang.Long", "java.lang.Number", "java.lang.Double", "valuexp",
+            // 一条EDIT_ACTION的Java序列化骨架, 按流中出现的顺序: 消息, 绘制动作, 图形类, 消息类型枚举
+            "\u00ac\u00ed\u0000\u0005sr\u0000\u0015server.models.Message",
+            "\u0002\u0000\u0003L\u0000\u0004datat\u0000\u0012Ljava/lang/Object;"
+                    + "L\u0000\u0004typet\u0000\u001cLserver/models/Message$Type;"
+                    + "L\u0000\u0008usernamet\u0000\u0012Ljava/lang/String;xp"
+                    + "sr\u0000#server.models.MainAction$DrawAction",
+            "\u0002\u0000\u0007D\u0000\u0004endXD\u0000\u0004endYD\u0000\tlineWidth"
+                    + "D\u0000\u0006startXD\u0000\u0006startYL\u0000\u0005colorq\u0000~\u0000\u0003"
+                    + "L\u0000\nshapeClasst\u0000\u0011Ljava/lang/Class;xp",
+            "t\u0000\n0x000000ffvr\u0000\u0017javafx.scene.shape.Line"
+                    + "\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000xp"
+                    + "~r\u0000\u001aserver.models.Message$Type\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000"
+                    + "\u0012\u0000\u0000xr\u0000\u000ejava.lang.Enum\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000"
+                    + "\u0012\u0000\u0000xpt\u0000\u000bEDIT_ACTIONt\u0000",
+    };
+
+    private static final byte[] BYTES = build();
+
+    private WireDictionary() {
+    }
+
+    // 返回共享数组, 调用方不得修改
+    static byte[] bytes() {
+        return BYTES;
+    }
+
+    private static byte[] build() {
+        StringBuilder dictionary = new StringBuilder(4096);
+        for (String token : TOKENS) {
+            dictionary.append(token);
+        }
+        // 每个字符都在0-255之间, 按ISO-8859-1逐字节写出
+        return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,73 @@
+package server.replication;
+
+import server.board.Board;
+import server.models.MainAction.Action;
+import server.util.DraftManager;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 主服务器上一个画板的复制源: 作为DraftManager的监听器, 在画板锁内把每个变化放入订阅者的发送队列.
+ * 订阅时的快照也在画板锁内取得并入队, 所以每个副本收到的是快照加上其后完整有序的变化.
+ * 记录在副本的发送线程中才编码, 锁内只有入队.
+ */
+class BoardPublisher implements DraftManager.DraftListener {
+    private final Board board;
+    private final Set<FollowerLink> links = ConcurrentHashMap.newKeySet();
+
+    BoardPublisher(Board board) {
+        this.board = board;
+    }
+
+    String getBoardId() {
+        return board.getId();
+    }
+
+    long getLastSequence() {
+        return board.getDraft().getLastSequence();
+    }
+
+    // 重复订阅(副本发现漏了记录)时重新发一份快照
+    void subscribe(FollowerLink link) {
+        board.getDraft().exportReplica(snapshot -> {
+            links.add(link);
+            link.send(ReplicationRecord.snapshot(board.getId(), snapshot));
+        });
+    }
+
+    void unsubscribe(FollowerLink link) {
+        links.remove(link);
+    }
+
+    @Override
+    public void committed(String username, long fromSequence, List<Action> actions) {
+        publish(ReplicationRecord.commit(board.getId(), username, fromSequence, actions));
+    }
+
+    // 清空或压缩后序号整体后移, 副本无法按增量跟上, 重新发快照; 锁可重入
+    @Override
+    public void reset() {
+        if (links.isEmpty()) {
+            return;
+        }
+        board.getDraft().exportReplica(snapshot -> publish(ReplicationRecord.snapshot(board.getId(), snapshot)));
+    }
+
+    @Override
+    public void edited(String username, List<Action> actions) {
+        publish(ReplicationRecord.edits(board.getId(), username, actions));
+    }
+
+    @Override
+    public void released(String username) {
+        publish(ReplicationRecord.release(board.getId(), username));
+    }
+
+    private void publish(ReplicationRecord record) {
+        for (FollowerLink link : links) {
+            link.send(record);
+        }
+    }
+}
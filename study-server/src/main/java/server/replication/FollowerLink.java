@@ -0,0 +1,159 @@
+package server.replication;
+
+import server.board.Board;
+import server.board.BoardRegistry;
+import server.codec.BinaryWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 主服务器到一个副本的连接: 读线程处理订阅, 写线程从队列取记录编码发送, 空闲时也按间隔发心跳.
+ * 队列满(副本跟不上)时断开, 副本重连后重新订阅并从快照开始, 不会拖慢画板锁内的入队.
+ */
+class FollowerLink {
+    // 编码缓冲超过这个大小(发过大快照)后换回小缓冲
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    private final Socket socket;
+    private final ReplicationServer server;
+    private final String name;
+    private final BlockingQueue<ReplicationRecord> queue;
+    private final Set<BoardPublisher> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final long heartbeatMillis;
+    private volatile long sentRecords = 0;
+
+    FollowerLink(Socket socket, ReplicationServer server, int queueRecords, long heartbeatMillis) {
+        this.socket = socket;
+        this.server = server;
+        this.name = socket.getRemoteSocketAddress().toString();
+        this.queue = new LinkedBlockingQueue<>(queueRecords);
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    void start() {
+        Thread reader = new Thread(this::readLoop, "replication-reader " + name);
+        reader.setDaemon(true);
+        reader.start();
+        Thread writer = new Thread(this::writeLoop, "replication-writer " + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // 在画板锁内调用, 只入队不阻塞
+    void send(ReplicationRecord record) {
+        if (closed.get()) {
+            return;
+        }
+        if (!queue.offer(record)) {
+            System.err.println("Replication queue full for follower " + name + ", disconnecting");
+            close();
+        }
+    }
+
+    private void readLoop() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while (!closed.get()) {
+                ReplicationRecord record = ReplicationRecord.read(in);
+                if (record.type != ReplicationRecord.SUBSCRIBE) {
+                    throw new IOException("Unexpected record " + record.type + " from follower");
+                }
+                // 只订阅已有的画板, 副本不能让主服务器新建画板
+                Board board = BoardRegistry.getExisting(record.boardId);
+                BoardPublisher publisher = board == null ? null : Replication.publisherFor(board.getId());
+                if (publisher == null) {
+                    System.err.println("Follower " + name + " subscribed to unknown board " + record.boardId);
+                    continue;
+                }
+                subscriptions.add(publisher);
+                publisher.subscribe(this);
+                System.out.println("Follower " + name + " subscribed to board " + board.getId());
+            }
+        } catch (EOFException e) {
+            // 副本断开
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.err.println("Replication link " + name + " failed: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void writeLoop() {
+        BinaryWriter buffer = new BinaryWriter();
+        long lastHeartbeat = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (!closed.get()) {
+                ReplicationRecord record = queue.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                if (record != null) {
+                    record.write(out, buffer);
+                    sentRecords++;
+                    if (buffer.array().length > MAX_RETAINED_BUFFER) {
+                        buffer = new BinaryWriter();
+                    }
+                }
+                // 心跳在已出队的记录之后发, 其中的序号与副本的差即为队列中尚未发出的部分
+                long now = System.currentTimeMillis();
+                if (now - lastHeartbeat >= heartbeatMillis) {
+                    heartbeat().write(out, buffer);
+                    lastHeartbeat = now;
+                }
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.err.println("Replication link " + name + " failed: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private ReplicationRecord heartbeat() {
+        Map<String, Long> sequences = new LinkedHashMap<>();
+        for (BoardPublisher publisher : subscriptions) {
+            sequences.put(publisher.getBoardId(), publisher.getLastSequence());
+        }
+        return ReplicationRecord.heartbeat(sequences);
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (BoardPublisher publisher : subscriptions) {
+            publisher.unsubscribe(this);
+        }
+        queue.clear();
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+        server.remove(this);
+        System.out.println("Follower " + name + " disconnected");
+    }
+
+    String getStats() {
+        return name + ": " + subscriptions.size() + " boards, " + sentRecords + " records sent, "
+                + queue.size() + " queued";
+    }
+}
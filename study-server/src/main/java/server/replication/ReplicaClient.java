@@ -0,0 +1,219 @@
+package server.replication;
+
+import server.board.Board;
+import server.board.BoardRegistry;
+import server.codec.BinaryWriter;
+import server.metrics.ServerMetrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 副本一侧: 连接主服务器, 订阅本地已加载的画板, 按顺序重放收到的记录并转发给本地观看者.
+ * 断线后每隔replication.retryMillis重连并重新订阅, 每个画板从新的快照开始.
+ * 提交的起始序号与本地不一致(漏了记录)时重新订阅该画板, 新快照到达前忽略它的增量记录.
+ */
+class ReplicaClient {
+    private final String host;
+    private final int port;
+    private final long retryMillis;
+    private final long heartbeatMillis;
+    private final Set<String> boards = ConcurrentHashMap.newKeySet();
+    // 等待新快照的画板
+    private final Set<String> resyncing = ConcurrentHashMap.newKeySet();
+    private final Object writeLock = new Object();
+    private final BinaryWriter writeBuffer = new BinaryWriter(256);
+    private DataOutputStream output;
+    private volatile Socket socket;
+    private volatile boolean running = true;
+    // 以下统计只由接收线程写入
+    private volatile boolean connected = false;
+    private volatile long records = 0;
+    private volatile long snapshots = 0;
+    private volatile long resyncs = 0;
+    private volatile long lastLagMicros = 0;
+    private volatile long lastRecordMillis = 0;
+    private volatile Map<String, Long> leaderSequences = Collections.emptyMap();
+
+    ReplicaClient(String host, int port, long retryMillis, long heartbeatMillis) {
+        this.host = host;
+        this.port = port;
+        this.retryMillis = retryMillis;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    void start() {
+        Thread thread = new Thread(this::run, "replica-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // 画板创建时调用; 未连接时只记下, 连上后统一订阅
+    void subscribe(String boardId) {
+        boards.add(boardId);
+        resyncing.add(boardId);
+        synchronized (writeLock) {
+            if (output == null) {
+                return;
+            }
+            try {
+                writeSubscribe(boardId);
+                output.flush();
+            } catch (IOException e) {
+                // 接收线程会因为连接已断而重连
+                closeSocket();
+            }
+        }
+    }
+
+    private void writeSubscribe(String boardId) throws IOException {
+        ReplicationRecord.subscribe(boardId).write(output, writeBuffer);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Socket current = new Socket();
+                current.connect(new InetSocketAddress(host, port), (int) Math.max(1000, retryMillis));
+                current.setTcpNoDelay(true);
+                // 超过几个心跳间隔没有任何记录时认为主服务器已失联
+                current.setSoTimeout((int) (heartbeatMillis * 3 + 1000));
+                socket = current;
+                synchronized (writeLock) {
+                    output = new DataOutputStream(new BufferedOutputStream(current.getOutputStream()));
+                    resyncing.addAll(boards);
+                    for (String boardId : boards) {
+                        writeSubscribe(boardId);
+                    }
+                    output.flush();
+                }
+                connected = true;
+                System.out.println("Replica connected to leader " + host + ":" + port);
+                receive(new DataInputStream(new BufferedInputStream(current.getInputStream())));
+            } catch (EOFException e) {
+                if (running) {
+                    System.err.println("Leader " + host + ":" + port + " closed the replication connection");
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Replication from " + host + ":" + port + " unavailable: " + e.getMessage());
+                }
+            } finally {
+                synchronized (writeLock) {
+                    output = null;
+                }
+                connected = false;
+                closeSocket();
+            }
+            if (running) {
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        while (running) {
+            ReplicationRecord record = ReplicationRecord.read(in);
+            apply(record);
+            records++;
+            lastRecordMillis = System.currentTimeMillis();
+            long lag = Math.max(0, ReplicationRecord.nowMicros() - record.leaderMicros);
+            lastLagMicros = lag;
+            ServerMetrics.recordReplicationLag(lag * 1000);
+        }
+    }
+
+    private void apply(ReplicationRecord record) {
+        if (record.type == ReplicationRecord.HEARTBEAT) {
+            leaderSequences = record.sequences;
+            return;
+        }
+        // 只处理本地已订阅的画板
+        Board board = BoardRegistry.get(record.boardId);
+        if (board == null) {
+            return;
+        }
+        if (record.type == ReplicationRecord.SNAPSHOT) {
+            board.getDraft().resetReplica(record.snapshot);
+            resyncing.remove(board.getId());
+            snapshots++;
+            board.broadcastDraftUpdate();
+            return;
+        }
+        if (resyncing.contains(board.getId())) {
+            return;
+        }
+        switch (record.type) {
+            case ReplicationRecord.EDITS:
+                board.getDraft().applyReplicaEdits(record.username, record.actions);
+                board.relayEditActions(record.actions, record.username);
+                break;
+            case ReplicationRecord.COMMIT:
+                if (board.getDraft().commitReplica(record.username, record.fromSequence, record.actions)) {
+                    board.broadcastDraftUpdate();
+                } else {
+                    resyncs++;
+                    System.err.println("Replica of board " + board.getId() + " missed records before sequence "
+                            + record.fromSequence + ", resubscribing");
+                    subscribe(board.getId());
+                }
+                break;
+            case ReplicationRecord.RELEASE:
+                if (board.getDraft().releaseLease(record.username)) {
+                    board.broadcastDraftUpdate();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // 最近一次心跳中主服务器的序号与本地序号之差, 按画板求和
+    private long getSequenceLag() {
+        long lag = 0;
+        for (Map.Entry<String, Long> entry : leaderSequences.entrySet()) {
+            Board board = BoardRegistry.get(entry.getKey());
+            if (board != null) {
+                lag += Math.max(0, entry.getValue() - board.getDraft().getLastSequence());
+            }
+        }
+        return lag;
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    void stop() {
+        running = false;
+        closeSocket();
+    }
+
+    String getStats() {
+        long idle = lastRecordMillis == 0 ? -1 : System.currentTimeMillis() - lastRecordMillis;
+        return String.format("follower of %s:%d, %s, %d boards, %d records, %d snapshots, %d resyncs, "
+                        + "last lag %.2f ms, sequence lag %d, last record %d ms ago",
+                host, port, connected ? "connected" : "disconnected", boards.size(), records, snapshots, resyncs,
+                lastLagMicros / 1000.0, getSequenceLag(), idle);
+    }
+}
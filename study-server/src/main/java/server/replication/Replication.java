@@ -0,0 +1,89 @@
+package server.replication;
+
+import server.board.Board;
+import server.util.ServerConfig;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 日志复制的只读副本, 用于分担观看者的广播.
+ * replication.role=leader时在replication.port上接受副本连接, 把每个画板的变化(实时笔画、提交、
+ * 释放租约)按DraftManager中的顺序发给订阅它的副本; follower时不读写磁盘, 从replication.leader
+ * 订阅本地用到的画板, 自己服务只读客户端(INITIAL_STATE、同步、实时笔画), 编辑申请回复REDIRECT.
+ * none(默认)时两者都不启动.
+ */
+public class Replication {
+    private static final ConcurrentHashMap<String, BoardPublisher> publishers = new ConcurrentHashMap<>();
+    private static volatile ReplicationServer server;
+    private static volatile ReplicaClient client;
+
+    public static boolean isLeader() {
+        return "leader".equalsIgnoreCase(ServerConfig.getString("replication.role", "none"));
+    }
+
+    public static boolean isFollower() {
+        return "follower".equalsIgnoreCase(ServerConfig.getString("replication.role", "none"));
+    }
+
+    // 副本上的编辑申请被重定向到这个地址(主服务器的客户端端口)
+    public static String getLeaderClientAddress() {
+        return ServerConfig.getString("replication.leaderClientAddress", "localhost:8888");
+    }
+
+    // 启动时在加载画板之前调用
+    public static synchronized void start() throws IOException {
+        long heartbeatMillis = Math.max(10, ServerConfig.getLong("replication.heartbeatMillis", 1000));
+        if (isLeader() && server == null) {
+            ReplicationServer started = new ReplicationServer(
+                    ServerConfig.getString("replication.bindAddress", "127.0.0.1"),
+                    ServerConfig.getInt("replication.port", 8890),
+                    ServerConfig.getInt("replication.queueRecords", 100000), heartbeatMillis);
+            started.start();
+            server = started;
+        } else if (isFollower() && client == null) {
+            String leader = ServerConfig.getString("replication.leader", "localhost:8890");
+            int colon = leader.lastIndexOf(':');
+            client = new ReplicaClient(leader.substring(0, colon), Integer.parseInt(leader.substring(colon + 1)),
+                    ServerConfig.getLong("replication.retryMillis", 2000), heartbeatMillis);
+            client.start();
+            System.out.println("Replica of " + leader + ", edit requests are redirected to "
+                    + getLeaderClientAddress());
+        }
+    }
+
+    // 画板创建时由BoardRegistry调用: 主服务器注册复制源, 副本订阅该画板
+    public static void attach(Board board) {
+        if (isLeader()) {
+            BoardPublisher publisher = new BoardPublisher(board);
+            publishers.put(board.getId(), publisher);
+            board.getDraft().addListener(publisher);
+        } else if (isFollower() && client != null) {
+            client.subscribe(board.getId());
+        }
+    }
+
+    static BoardPublisher publisherFor(String boardId) {
+        return publishers.get(boardId);
+    }
+
+    public static void stop() {
+        if (server != null) {
+            server.stop();
+        }
+        if (client != null) {
+            client.stop();
+        }
+    }
+
+    // 主服务器: 每个副本的订阅数和发送队列; 副本: 连接状态、延迟和落后的序号数
+    public static String getStats() {
+        if (server != null) {
+            return server.getStats();
+        }
+        if (client != null) {
+            return client.getStats();
+        }
+        return "disabled";
+    }
+}
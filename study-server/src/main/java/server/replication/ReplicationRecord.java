@@ -0,0 +1,238 @@
+package server.replication;
+
+import server.codec.BinaryCodec;
+import server.codec.BinaryReader;
+import server.codec.BinaryWriter;
+import server.models.MainAction.Action;
+import server.util.ReplicaSnapshot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 主服务器与只读副本之间的一条复制记录. 每条记录一帧: [int长度][类型][字段...],
+ * 字段用BinaryWriter的变长编码, 动作沿用BinaryCodec的动作格式.
+ * 副本发SUBSCRIBE, 主服务器回SNAPSHOT, 之后按DraftManager中发生的顺序发EDITS/COMMIT/RELEASE,
+ * 并定期发HEARTBEAT. 记录带主服务器发出时的时间戳(微秒), 副本据此计算复制延迟.
+ */
+final class ReplicationRecord {
+    static final int VERSION = 1;
+    // 副本 -> 主服务器: 订阅一个画板
+    static final int SUBSCRIBE = 1;
+    // 画板的完整状态, 订阅、清空和压缩之后发送
+    static final int SNAPSHOT = 2;
+    // 一个编辑者生效的一批动作(实时笔画)
+    static final int EDITS = 3;
+    // 一次提交
+    static final int COMMIT = 4;
+    // 一个编辑者的租约被释放且没有提交
+    static final int RELEASE = 5;
+    // 心跳, 附带每个已订阅画板的最新序号
+    static final int HEARTBEAT = 6;
+
+    // 一次快照可能包含整节课的历史, 上限比客户端帧大得多
+    private static final int MAX_RECORD_BYTES = 512 * 1024 * 1024;
+
+    final int type;
+    final String boardId;
+    final String username;
+    // COMMIT: 第一个动作之前的序号
+    final long fromSequence;
+    final long leaderMicros;
+    final List<Action> actions;
+    final ReplicaSnapshot snapshot;
+    // HEARTBEAT: 画板名 -> 最新序号
+    final Map<String, Long> sequences;
+
+    private ReplicationRecord(int type, String boardId, String username, long fromSequence, long leaderMicros,
+            List<Action> actions, ReplicaSnapshot snapshot, Map<String, Long> sequences) {
+        this.type = type;
+        this.boardId = boardId;
+        this.username = username;
+        this.fromSequence = fromSequence;
+        this.leaderMicros = leaderMicros;
+        this.actions = actions;
+        this.snapshot = snapshot;
+        this.sequences = sequences;
+    }
+
+    static ReplicationRecord subscribe(String boardId) {
+        return new ReplicationRecord(SUBSCRIBE, boardId, null, 0, 0, null, null, null);
+    }
+
+    static ReplicationRecord snapshot(String boardId, ReplicaSnapshot snapshot) {
+        return new ReplicationRecord(SNAPSHOT, boardId, null, 0, nowMicros(), null, snapshot, null);
+    }
+
+    static ReplicationRecord edits(String boardId, String username, List<Action> actions) {
+        return new ReplicationRecord(EDITS, boardId, username, 0, nowMicros(), actions, null, null);
+    }
+
+    static ReplicationRecord commit(String boardId, String username, long fromSequence, List<Action> actions) {
+        return new ReplicationRecord(COMMIT, boardId, username, fromSequence, nowMicros(), actions, null, null);
+    }
+
+    static ReplicationRecord release(String boardId, String username) {
+        return new ReplicationRecord(RELEASE, boardId, username, 0, nowMicros(), null, null, null);
+    }
+
+    static ReplicationRecord heartbeat(Map<String, Long> sequences) {
+        return new ReplicationRecord(HEARTBEAT, null, null, 0, nowMicros(), null, null, sequences);
+    }
+
+    // 墙钟时间(微秒), 主服务器和副本在不同机器上时依赖两边的时钟同步
+    static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1000;
+    }
+
+    // 写出一帧, 调用方负责flush
+    void write(DataOutputStream out, BinaryWriter buffer) throws IOException {
+        buffer.reset();
+        encode(buffer);
+        out.writeInt(buffer.size());
+        out.write(buffer.array(), 0, buffer.size());
+    }
+
+    private void encode(BinaryWriter out) throws IOException {
+        out.writeByte(type);
+        switch (type) {
+            case SUBSCRIBE:
+                out.writeVarInt(VERSION);
+                out.writeString(boardId);
+                break;
+            case SNAPSHOT:
+                out.writeString(boardId);
+                out.writeLong(leaderMicros);
+                out.writeSignedVarLong(snapshot.getBaseSequence());
+                writeActions(out, snapshot.getCommitted());
+                out.writeVarInt(snapshot.getEditors().size());
+                for (int i = 0; i < snapshot.getEditors().size(); i++) {
+                    out.writeString(snapshot.getEditors().get(i));
+                    writeActions(out, snapshot.getPending().get(i));
+                    writeActions(out, snapshot.getRedo().get(i));
+                }
+                break;
+            case EDITS:
+                out.writeString(boardId);
+                out.writeString(username);
+                out.writeLong(leaderMicros);
+                writeActions(out, actions);
+                break;
+            case COMMIT:
+                out.writeString(boardId);
+                out.writeString(username);
+                out.writeSignedVarLong(fromSequence);
+                out.writeLong(leaderMicros);
+                writeActions(out, actions);
+                break;
+            case RELEASE:
+                out.writeString(boardId);
+                out.writeString(username);
+                out.writeLong(leaderMicros);
+                break;
+            case HEARTBEAT:
+                out.writeLong(leaderMicros);
+                out.writeVarInt(sequences.size());
+                for (Map.Entry<String, Long> entry : sequences.entrySet()) {
+                    out.writeString(entry.getKey());
+                    out.writeSignedVarLong(entry.getValue());
+                }
+                break;
+            default:
+                throw new IOException("Unknown replication record " + type);
+        }
+    }
+
+    // 读取一帧, 连接正常关闭时抛出EOFException
+    static ReplicationRecord read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_RECORD_BYTES) {
+            throw new IOException("Invalid replication record length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return decode(new BinaryReader(payload, 0, length));
+    }
+
+    private static ReplicationRecord decode(BinaryReader in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case SUBSCRIBE: {
+                int version = in.readVarInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported replication version " + version);
+                }
+                return subscribe(in.readString());
+            }
+            case SNAPSHOT: {
+                String boardId = in.readString();
+                long micros = in.readLong();
+                long base = in.readSignedVarLong();
+                List<Action> committed = readActions(in);
+                int count = in.readLength();
+                List<String> editors = new ArrayList<>();
+                List<List<Action>> pending = new ArrayList<>();
+                List<List<Action>> redo = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    editors.add(in.readString());
+                    pending.add(readActions(in));
+                    redo.add(readActions(in));
+                }
+                return new ReplicationRecord(SNAPSHOT, boardId, null, 0, micros, null,
+                        new ReplicaSnapshot(base, committed, editors, pending, redo), null);
+            }
+            case EDITS: {
+                String boardId = in.readString();
+                String username = in.readString();
+                long micros = in.readLong();
+                return new ReplicationRecord(EDITS, boardId, username, 0, micros, readActions(in), null, null);
+            }
+            case COMMIT: {
+                String boardId = in.readString();
+                String username = in.readString();
+                long from = in.readSignedVarLong();
+                long micros = in.readLong();
+                return new ReplicationRecord(COMMIT, boardId, username, from, micros, readActions(in), null, null);
+            }
+            case RELEASE: {
+                String boardId = in.readString();
+                String username = in.readString();
+                return new ReplicationRecord(RELEASE, boardId, username, 0, in.readLong(), null, null, null);
+            }
+            case HEARTBEAT: {
+                long micros = in.readLong();
+                int count = in.readLength();
+                Map<String, Long> sequences = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    sequences.put(in.readString(), in.readSignedVarLong());
+                }
+                return new ReplicationRecord(HEARTBEAT, null, null, 0, micros, null, null, sequences);
+            }
+            default:
+                throw new IOException("Unknown replication record " + type);
+        }
+    }
+
+    private static void writeActions(BinaryWriter out, List<Action> actions) throws IOException {
+        out.writeVarInt(actions.size());
+        for (Action action : actions) {
+            BinaryCodec.writeAction(out, action);
+        }
+    }
+
+    private static List<Action> readActions(BinaryReader in) throws IOException {
+        int count = in.readLength();
+        List<Action> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            actions.add(BinaryCodec.readAction(in));
+        }
+        return actions;
+    }
+}
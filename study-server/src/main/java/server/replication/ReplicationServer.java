@@ -0,0 +1,79 @@
+package server.replication;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 主服务器一侧: 在replication.bindAddress:replication.port上接受副本连接, 每个副本一个FollowerLink.
+// 复制协议没有认证, 默认只监听本机; 对外开放时应只对副本所在的网络可达
+class ReplicationServer {
+    private final String bindAddress;
+    private final int port;
+    private final int queueRecords;
+    private final long heartbeatMillis;
+    private final Set<FollowerLink> links = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running = true;
+
+    ReplicationServer(String bindAddress, int port, int queueRecords, long heartbeatMillis) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.queueRecords = queueRecords;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    // 绑定端口后在后台线程中接受连接, 端口被占用时抛出IOException
+    void start() throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(bindAddress));
+        Thread thread = new Thread(this::acceptLoop, "replication-accept");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Replication leader listening on " + bindAddress + ":" + port);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                FollowerLink link = new FollowerLink(socket, this, queueRecords, heartbeatMillis);
+                links.add(link);
+                System.out.println("Follower connected from " + socket.getRemoteSocketAddress());
+                link.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Replication accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    void remove(FollowerLink link) {
+        links.remove(link);
+    }
+
+    void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+        }
+        for (FollowerLink link : new ArrayList<>(links)) {
+            link.close();
+        }
+    }
+
+    String getStats() {
+        List<FollowerLink> current = new ArrayList<>(links);
+        StringBuilder stats = new StringBuilder("leader on port " + port + ", " + current.size() + " followers");
+        for (FollowerLink link : current) {
+            stats.append("; ").append(link.getStats());
+        }
+        return stats.toString();
+    }
+}
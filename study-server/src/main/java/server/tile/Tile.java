@@ -0,0 +1,109 @@
+package server.tile;
+
+import server.models.MainAction.Action;
+import server.models.TileData;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Objects;
+import javax.imageio.ImageIO;
+
+// 缓存中的一块瓦片, 只由渲染线程访问
+class Tile {
+    final Key key;
+    // 区域内还没有内容时为null
+    private BufferedImage image;
+    // 已画上的最后一个已提交动作的序号
+    private long version;
+    // PNG编码结果, 图像变化后置空, 下次发送时重新编码
+    private byte[] encoded;
+    // 上次计入缓存占用的字节数
+    long accountedBytes;
+
+    Tile(Key key, long version) {
+        this.key = key;
+        this.version = version;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    // 画上序号为sequence的动作, 已包含的动作跳过
+    void apply(long sequence, Action action) {
+        if (sequence <= version) {
+            return;
+        }
+        if (image == null) {
+            image = new BufferedImage(TileService.TILE_SIZE, TileService.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        }
+        TileRenderer.draw(image, key.level, key.x, key.y, action);
+        version = sequence;
+        encoded = null;
+    }
+
+    // 清空画板: 之前的内容全部作废
+    void clear(long sequence) {
+        if (sequence <= version) {
+            return;
+        }
+        image = null;
+        version = sequence;
+        encoded = null;
+    }
+
+    // 没有新内容但已确认到sequence为止
+    void advanceTo(long sequence) {
+        version = Math.max(version, sequence);
+    }
+
+    long bytes() {
+        long bytes = 64;
+        if (image != null) {
+            bytes += 4L * image.getWidth() * image.getHeight();
+        }
+        if (encoded != null) {
+            bytes += encoded.length;
+        }
+        return bytes;
+    }
+
+    TileData toData() throws IOException {
+        if (image != null && encoded == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024);
+            ImageIO.write(image, "png", out);
+            encoded = out.toByteArray();
+        }
+        return new TileData(key.level, key.x, key.y, TileService.TILE_SIZE, version, encoded);
+    }
+
+    // 瓦片在缓存中的键: 画板, 层级, 列号, 行号
+    static final class Key {
+        final String boardId;
+        final int level;
+        final int x;
+        final int y;
+
+        Key(String boardId, int level, int x, int y) {
+            this.boardId = boardId;
+            this.level = level;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return level == other.level && x == other.x && y == other.y && boardId.equals(other.boardId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(boardId, level, x, y);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package server.tile;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 按占用字节数限制的瓦片缓存, 超过上限时淘汰最久没访问的(LRU).
+ * 只由渲染线程读写; 统计字段由其他线程读取, 用volatile保证可见.
+ */
+class TileCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Tile.Key, Tile> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private volatile int count = 0;
+    private volatile long bytes = 0;
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+    private volatile long evictions = 0;
+
+    TileCache(long maxBytes) {
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    // 命中时同时更新访问顺序
+    Tile get(Tile.Key key) {
+        Tile tile = tiles.get(key);
+        if (tile != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return tile;
+    }
+
+    // 只查找, 不计入命中统计
+    Tile find(Tile.Key key) {
+        return tiles.get(key);
+    }
+
+    int size() {
+        return tiles.size();
+    }
+
+    void put(Tile tile) {
+        Tile old = tiles.put(tile.key, tile);
+        if (old != null) {
+            bytes -= old.accountedBytes;
+        }
+        tile.accountedBytes = 0;
+        count = tiles.size();
+        resized(tile);
+    }
+
+    // 瓦片内容或编码结果变化后调用, 重新计算占用并按需淘汰; 已被淘汰的瓦片不再计入
+    void resized(Tile tile) {
+        if (!tiles.containsKey(tile.key)) {
+            return;
+        }
+        long current = tile.bytes();
+        bytes += current - tile.accountedBytes;
+        tile.accountedBytes = current;
+        Iterator<Tile> eldest = tiles.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Tile victim = eldest.next();
+            if (victim == tile) {
+                continue;
+            }
+            eldest.remove();
+            bytes -= victim.accountedBytes;
+            evictions++;
+        }
+        count = tiles.size();
+    }
+
+    // 某个画板的所有瓦片, 按访问顺序
+    List<Tile> tilesOf(String boardId) {
+        List<Tile> result = new ArrayList<>();
+        for (Tile tile : tiles.values()) {
+            if (tile.key.boardId.equals(boardId)) {
+                result.add(tile);
+            }
+        }
+        return result;
+    }
+
+    void removeBoard(String boardId) {
+        Iterator<Tile> it = tiles.values().iterator();
+        while (it.hasNext()) {
+            Tile tile = it.next();
+            if (tile.key.boardId.equals(boardId)) {
+                it.remove();
+                bytes -= tile.accountedBytes;
+            }
+        }
+        count = tiles.size();
+    }
+
+    String stats() {
+        long total = hits + misses;
+        double hitRate = total == 0 ? 0 : 100.0 * hits / total;
+        return String.format("tiles=%d bytes=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d",
+                count, bytes, maxBytes, hits, misses, hitRate, evictions);
+    }
+}
@@ -0,0 +1,98 @@
+package server.tile;
+
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Ellipse;
+import javafx.scene.shape.Rectangle;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * 用Java2D把动作画到瓦片上, 只依赖BufferedImage, 在headless模式下运行.
+ * 与客户端的画法对应: 矩形/圆/椭圆在起止点围成的框内填充, 其他图形按线段画, 文字以(x, y)为基线.
+ */
+class TileRenderer {
+    private static final double MIN_FONT_SIZE = 12;
+
+    // 在瓦片图像上画一个动作, 坐标按层级缩放并平移到瓦片原点
+    static void draw(BufferedImage image, int level, int tileX, int tileY, Action action) {
+        Graphics2D g = image.createGraphics();
+        try {
+            int span = image.getWidth() << level;
+            double scale = 1.0 / (1 << level);
+            g.scale(scale, scale);
+            g.translate(-(double) tileX * span, -(double) tileY * span);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            if (action instanceof MainAction.DrawAction) {
+                drawShape(g, (MainAction.DrawAction) action);
+            } else if (action instanceof MainAction.TextAction) {
+                drawText(g, (MainAction.TextAction) action);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private static void drawShape(Graphics2D g, MainAction.DrawAction draw) {
+        g.setColor(parseColor(draw.getColor()));
+        double x = Math.min(draw.getStartX(), draw.getEndX());
+        double y = Math.min(draw.getStartY(), draw.getEndY());
+        double w = Math.abs(draw.getEndX() - draw.getStartX());
+        double h = Math.abs(draw.getEndY() - draw.getStartY());
+        Class<?> shape = draw.getShapeClass();
+        if (shape == Rectangle.class) {
+            g.fill(new Rectangle2D.Double(x, y, w, h));
+        } else if (shape == Ellipse.class || shape == Circle.class) {
+            g.fill(new Ellipse2D.Double(x, y, w, h));
+        } else {
+            float width = (float) Math.max(0.5, draw.getLineWidth());
+            g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.draw(new Line2D.Double(draw.getStartX(), draw.getStartY(), draw.getEndX(), draw.getEndY()));
+        }
+    }
+
+    private static void drawText(Graphics2D g, MainAction.TextAction text) {
+        if (text.getText() == null || text.getText().isEmpty()) {
+            return;
+        }
+        g.setColor(parseColor(text.getColor()));
+        float size = (float) Math.max(MIN_FONT_SIZE, text.getLineWidth());
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont(size));
+        try {
+            g.drawString(text.getText(), (float) text.getX(), (float) text.getY());
+        } catch (RuntimeException | InternalError e) {
+            // 没有安装字体的服务器上跳过文字, 客户端仍会从历史中重放
+            System.err.println("Cannot render text on tile: " + e.getMessage());
+        }
+    }
+
+    // 客户端发来的颜色为JavaFX Color.toString()格式(0xRRGGBBAA), 也接受#RRGGBB
+    static Color parseColor(String color) {
+        if (color == null) {
+            return Color.BLACK;
+        }
+        try {
+            if (color.startsWith("0x") && color.length() == 10) {
+                long rgba = Long.parseLong(color.substring(2), 16);
+                return new Color((int) (rgba >>> 24) & 0xff, (int) (rgba >>> 16) & 0xff,
+                        (int) (rgba >>> 8) & 0xff, (int) rgba & 0xff);
+            }
+            if (color.startsWith("#") && color.length() == 7) {
+                return new Color(Integer.parseInt(color.substring(1), 16));
+            }
+        } catch (NumberFormatException e) {
+            // 按默认颜色处理
+        }
+        return Color.BLACK;
+    }
+}
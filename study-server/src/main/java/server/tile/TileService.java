@@ -0,0 +1,178 @@
+package server.tile;
+
+import server.board.Board;
+import server.handler.ClientHandler;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.models.Message;
+import server.models.TileRequest;
+import server.models.Viewport;
+import server.models.ViewportState;
+import server.util.DraftManager;
+import server.util.ServerConfig;
+import server.util.SpatialIndex;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 已提交历史的瓦片金字塔, 在服务端用Java2D软件渲染, 不需要显示器或GPU.
+ * 第0层1个像素对应1个画布单位, 每升一层缩小一半; 瓦片按需渲染, 放入按字节数限制的LRU缓存.
+ * 提交通过DraftManager.DraftListener按序号顺序进入渲染线程, 只画到已缓存的瓦片上.
+ * 所有渲染、编码和缓存访问都在同一个渲染线程中进行, 瓦片本身不需要加锁.
+ */
+public class TileService {
+    static final int TILE_SIZE = 256;
+
+    private static ExecutorService renderer;
+    private static volatile TileCache cache;
+
+    static {
+        // 必须在首次使用AWT之前设置
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+    }
+
+    public static boolean isEnabled() {
+        return ServerConfig.getBoolean("tile.enabled", true);
+    }
+
+    // 画板创建时注册, 提交和清空只入队, 不在DraftManager的锁内渲染
+    public static DraftManager.DraftListener listenerFor(String boardId) {
+        return new DraftManager.DraftListener() {
+            @Override
+            public void committed(String username, long fromSequence, List<Action> actions) {
+                renderer().execute(() -> applyCommit(boardId, fromSequence, actions));
+            }
+
+            @Override
+            public void reset() {
+                renderer().execute(() -> cache().removeBoard(boardId));
+            }
+        };
+    }
+
+    /**
+     * 回复覆盖请求区域的瓦片, 每块一条TILE_DATA. 超过tile.maxPerRequest的部分不回复,
+     * 客户端应在更高的层级请求大区域.
+     */
+    public static void request(ClientHandler client, Board board, TileRequest request) {
+        Viewport viewport = request.getViewport();
+        int level = request.getLevel();
+        if (viewport == null || level < 0 || level >= levels()) {
+            return;
+        }
+        renderer().execute(() -> {
+            long span = (long) TILE_SIZE << level;
+            int minX = (int) Math.floorDiv((long) Math.floor(viewport.getMinX()), span);
+            int minY = (int) Math.floorDiv((long) Math.floor(viewport.getMinY()), span);
+            int maxX = (int) Math.floorDiv((long) Math.ceil(viewport.getMaxX()) - 1, span);
+            int maxY = (int) Math.floorDiv((long) Math.ceil(viewport.getMaxY()) - 1, span);
+            int remaining = ServerConfig.getInt("tile.maxPerRequest", 64);
+            for (int y = minY; y <= maxY && remaining > 0; y++) {
+                for (int x = minX; x <= maxX && remaining > 0; x++, remaining--) {
+                    Tile tile = getOrRender(board, level, x, y);
+                    try {
+                        Message message = new Message(Message.Type.TILE_DATA, tile.toData(), null);
+                        cache().resized(tile);
+                        client.sendMessage(message);
+                    } catch (IOException e) {
+                        System.err.println("Failed to encode tile: " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    public static String getStats() {
+        TileCache current = cache;
+        return current == null ? "not started" : current.stats();
+    }
+
+    private static Tile getOrRender(Board board, int level, int x, int y) {
+        Tile.Key key = new Tile.Key(board.getId(), level, x, y);
+        Tile tile = cache().get(key);
+        if (tile != null) {
+            return tile;
+        }
+        long span = (long) TILE_SIZE << level;
+        ViewportState state = board.getDraft().getActionsInViewport(
+                new Viewport(x * span, y * span, (x + 1) * span, (y + 1) * span));
+        tile = new Tile(key, 0);
+        long[] sequences = state.getSequences();
+        List<Action> actions = state.getActions();
+        for (int i = 0; i < sequences.length; i++) {
+            applyTo(tile, sequences[i], actions.get(i));
+        }
+        tile.advanceTo(state.getToSequence());
+        cache().put(tile);
+        return tile;
+    }
+
+    // 在渲染线程中把一次提交画到受影响的已缓存瓦片上
+    private static void applyCommit(String boardId, long fromSequence, List<Action> actions) {
+        TileCache tiles = cache();
+        if (tiles.size() == 0) {
+            return;
+        }
+        List<Tile> boardTiles = tiles.tilesOf(boardId);
+        if (boardTiles.isEmpty()) {
+            return;
+        }
+        long sequence = fromSequence;
+        for (Action action : actions) {
+            sequence++;
+            double[] box = SpatialIndex.bounds(action);
+            for (Tile tile : boardTiles) {
+                if (box == null || intersects(tile.key, box)) {
+                    applyTo(tile, sequence, action);
+                }
+            }
+        }
+        for (Tile tile : boardTiles) {
+            tile.advanceTo(sequence);
+            tiles.resized(tile);
+        }
+    }
+
+    private static void applyTo(Tile tile, long sequence, Action action) {
+        if (action instanceof MainAction.UndoAllAction) {
+            tile.clear(sequence);
+        } else if (SpatialIndex.bounds(action) != null) {
+            tile.apply(sequence, action);
+        }
+    }
+
+    private static boolean intersects(Tile.Key key, double[] box) {
+        double span = (double) TILE_SIZE * (1L << key.level);
+        double minX = key.x * span;
+        double minY = key.y * span;
+        return box[0] <= minX + span && box[2] >= minX && box[1] <= minY + span && box[3] >= minY;
+    }
+
+    private static int levels() {
+        return Math.max(1, Math.min(20, ServerConfig.getInt("tile.levels", 5)));
+    }
+
+    private static synchronized ExecutorService renderer() {
+        if (renderer == null) {
+            renderer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "tile-renderer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return renderer;
+    }
+
+    // 只在渲染线程中调用
+    private static TileCache cache() {
+        if (cache == null) {
+            cache = new TileCache(ServerConfig.getLong("tile.cacheMB", 64) * 1024 * 1024);
+        }
+        return cache;
+    }
+}
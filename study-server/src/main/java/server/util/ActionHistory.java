@@ -0,0 +1,173 @@
+package server.util;
+
+import server.models.MainAction.Action;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 已提交历史: 只在末尾追加的分块向量. 写满CHUNK_SIZE个动作的块封存后不再修改
+ * (columnar模式下封存为ColumnarActionList), 未满的尾块也只会在已有元素之后写入.
+ * 因此snapshot()只需记下块数组、尾块和当前长度, O(1)得到一个不可变视图,
+ * 之后的追加和清空都不影响它, 可以在锁外遍历和编码. 只有持有者(DraftManager, 在其锁内)调用add/clear.
+ */
+public final class ActionHistory extends AbstractList<Action> implements RandomAccess {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final boolean columnar;
+    // 已封存的块, 下标不小于chunkCount的位置未使用; 扩容时换新数组, 旧快照仍引用旧数组
+    private List<Action>[] chunks;
+    private int chunkCount;
+    private Action[] tail;
+    private int tailSize;
+
+    public ActionHistory(boolean columnar) {
+        this.columnar = columnar;
+        reset();
+    }
+
+    public ActionHistory(boolean columnar, Collection<? extends Action> actions) {
+        this(columnar);
+        addAll(actions);
+    }
+
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    @Override
+    public int size() {
+        return (chunkCount << CHUNK_BITS) + tailSize;
+    }
+
+    @Override
+    public Action get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return read(chunks, chunkCount, tail, index);
+    }
+
+    @Override
+    public boolean add(Action action) {
+        if (tailSize == CHUNK_SIZE) {
+            seal();
+        }
+        tail[tailSize++] = action;
+        modCount++;
+        return true;
+    }
+
+    // 清空时换新数组, 不覆盖已发出的快照引用的数据
+    @Override
+    public void clear() {
+        reset();
+        modCount++;
+    }
+
+    // 当前内容的不可变视图, O(1)
+    public List<Action> snapshot() {
+        return new Snapshot(chunks, chunkCount, tail, 0, size());
+    }
+
+    // 已封存的块中的动作数
+    public int getSealedSize() {
+        return chunkCount << CHUNK_BITS;
+    }
+
+    // columnar模式下已封存块的估计占用, 用于启动时输出内存对比
+    public long[] estimateColumnarBytes() {
+        long columnarBytes = 0;
+        long objectBytes = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (chunks[i] instanceof ColumnarActionList) {
+                ColumnarActionList chunk = (ColumnarActionList) chunks[i];
+                columnarBytes += chunk.estimateBytes();
+                objectBytes += chunk.estimateObjectLayoutBytes();
+            }
+        }
+        return new long[]{columnarBytes, objectBytes};
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reset() {
+        chunks = (List<Action>[]) new List<?>[16];
+        chunkCount = 0;
+        tail = new Action[CHUNK_SIZE];
+        tailSize = 0;
+    }
+
+    // 封存写满的尾块, 之后写入新的尾块
+    private void seal() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        List<Action> full = Arrays.asList(tail);
+        chunks[chunkCount++] = columnar ? new ColumnarActionList(full) : Collections.unmodifiableList(full);
+        tail = new Action[CHUNK_SIZE];
+        tailSize = 0;
+    }
+
+    private static Action read(List<Action>[] chunks, int chunkCount, Action[] tail, int index) {
+        int chunk = index >>> CHUNK_BITS;
+        if (chunk < chunkCount) {
+            return chunks[chunk].get(index & CHUNK_MASK);
+        }
+        return tail[index - (chunkCount << CHUNK_BITS)];
+    }
+
+    /**
+     * 某一时刻的历史(或其中一段). 序列化时替换为ArrayList, 客户端不需要这个类.
+     */
+    private static class Snapshot extends AbstractList<Action> implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 0x5fed443e2b2e11d2L;
+        // 由writeReplace换成ArrayList写出, 块数组本身不序列化
+        private final transient List<Action>[] chunks;
+        private final int chunkCount;
+        private final transient Action[] tail;
+        private final int offset;
+        private final int size;
+
+        Snapshot(List<Action>[] chunks, int chunkCount, Action[] tail, int offset, int size) {
+            this.chunks = chunks;
+            this.chunkCount = chunkCount;
+            this.tail = tail;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Action get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return read(chunks, chunkCount, tail, offset + index);
+        }
+
+        // 子区间仍是快照, 不复制
+        @Override
+        public List<Action> subList(int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex);
+            }
+            return new Snapshot(chunks, chunkCount, tail, offset + fromIndex, toIndex - fromIndex);
+        }
+
+        private Object writeReplace() {
+            return new ArrayList<>(this);
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package server.util;
+
+import server.codec.BinaryCodec;
+import server.codec.BinaryReader;
+import server.codec.BinaryWriter;
+import server.metrics.ServerMetrics;
+import server.models.MainAction.Action;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的草图动作日志.
+ * 每次提交写一条记录: [4字节长度][4字节CRC32][动作数varint][BinaryCodec编码的动作...],
+ * 清空和压缩写一条重置记录: 动作数为0, 之后是新的起始序号和替换后的全部历史, 重放时丢弃之前的动作.
+ * 记录按段文件存放, 由后台写线程批量写入并按策略fsync, 调用方不等待磁盘.
+ */
+public class ActionLog {
+    public enum FsyncPolicy {
+        ALWAYS,    // 每批写入后fsync
+        INTERVAL,  // 最多每fsyncIntervalMs一次
+        NEVER      // 交给操作系统, 只在换段和关闭时fsync
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_HEADER = 8;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMs;
+
+    // lock保护待写队列和计数, ioLock保护文件操作
+    private final Object lock = new Object();
+    private final Object ioLock = new Object();
+    // 元素为一次提交的List<Action>, 重置Reset, 或者换段请求Rollover
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private long appendedBatches = 0;
+    private long writtenBatches = 0;
+    private boolean closed = false;
+
+    private FileChannel segment;
+    private long segmentIndex = 0;
+    private long segmentSize = 0;
+    private volatile boolean dirty = false;
+    private long lastSync = System.currentTimeMillis();
+    private Thread writer;
+    // 重放时丢弃过损坏的段, 需要马上写检查点
+    private boolean repaired = false;
+    // 重放到的最后一条重置记录的起始序号, 没有重置记录时为-1
+    private long resetBase = -1;
+    // 只由持有ioLock的线程使用
+    private final BinaryWriter out = new BinaryWriter(4096);
+    private final CRC32 crc = new CRC32();
+
+    public ActionLog(Path directory, long segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMs) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMs = Math.max(1, fsyncIntervalMs);
+    }
+
+    public static ActionLog fromConfig(String projectRoot) {
+        FsyncPolicy policy;
+        try {
+            policy = FsyncPolicy.valueOf(ServerConfig.getString("draft.log.fsync", "INTERVAL").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            policy = FsyncPolicy.INTERVAL;
+        }
+        return new ActionLog(
+                Paths.get(projectRoot, ServerConfig.getString("draft.log.dir", "draft-log")),
+                ServerConfig.getLong("draft.log.segmentBytes", 8L * 1024 * 1024),
+                policy,
+                ServerConfig.getLong("draft.log.fsyncIntervalMs", 200));
+    }
+
+    /**
+     * 按顺序重放段号大于afterSegment的段(更早的已包含在快照中), 需在start()之前调用.
+     * 遇到重置记录时返回的动作从该记录的历史开始, 起始序号由getResetBase()给出.
+     * 最后一段末尾的残缺记录(写到一半崩溃)会被截掉. 中间某段损坏时只重放损坏处之前的记录,
+     * 该段及之后的段改名为*.corrupt留作人工恢复, 此后isRepaired()返回true.
+     */
+    public List<Action> replay(long afterSegment) throws IOException {
+        List<Action> actions = new ArrayList<>();
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            segmentIndex = Math.max(segmentIndex, indexOf(path));
+            if (indexOf(path) <= afterSegment) {
+                continue;
+            }
+            // 上次启动后没有任何提交留下的空段
+            if (Files.size(path) == 0) {
+                Files.delete(path);
+                continue;
+            }
+            long validLength = replaySegment(path, actions);
+            if (validLength < Files.size(path)) {
+                if (i == segments.size() - 1) {
+                    System.err.println("Truncating torn tail of " + path.getFileName()
+                            + " at offset " + validLength);
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                        channel.truncate(validLength);
+                    }
+                } else {
+                    System.err.println("Corrupted record in " + path.getFileName()
+                            + ", moving it and later segments aside");
+                    for (Path corrupt : segments.subList(i, segments.size())) {
+                        Files.move(corrupt, corrupt.resolveSibling(corrupt.getFileName() + ".corrupt"),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    repaired = true;
+                    break;
+                }
+            }
+        }
+        return actions;
+    }
+
+    // 返回该段中有效记录的结束位置
+    private long replaySegment(Path path, List<Action> actions) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        int position = 0;
+        while (bytes.length - position >= RECORD_HEADER) {
+            int length = buffer.getInt(position);
+            int checksum = buffer.getInt(position + 4);
+            int start = position + RECORD_HEADER;
+            if (length < 0 || length > bytes.length - start) {
+                break;
+            }
+            crc.reset();
+            crc.update(bytes, start, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            // 校验和正确但内容无法解码的记录同样视为损坏, 整条记录都不重放
+            List<Action> record = new ArrayList<>();
+            long base = -1;
+            try {
+                BinaryReader in = new BinaryReader(bytes, start, length);
+                int count = in.readLength();
+                if (count == 0) {
+                    base = in.readSignedVarLong();
+                    count = in.readLength();
+                }
+                for (int i = 0; i < count; i++) {
+                    record.add(BinaryCodec.readAction(in));
+                }
+            } catch (IOException e) {
+                break;
+            }
+            if (base >= 0) {
+                actions.clear();
+                resetBase = base;
+            }
+            actions.addAll(record);
+            position = start + length;
+        }
+        return position;
+    }
+
+    // 打开新的段并启动写线程
+    public void start(long afterSegment) throws IOException {
+        segmentIndex = Math.max(segmentIndex, afterSegment);
+        synchronized (ioLock) {
+            openNextSegment();
+        }
+        writer = new Thread(this::writeLoop, "draft-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // 只入队, 不做磁盘I/O
+    public void append(List<Action> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            pending.add(actions);
+            appendedBatches++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 清空或压缩后调用(持有草图锁): 记下新的起始序号和替换后的全部历史, 与提交一样只入队.
+     * 重放到这条记录时丢弃之前的动作, 检查点没写成或写之前崩溃都不会恢复出旧的历史.
+     */
+    public void appendReset(long baseSequence, List<Action> actions) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            pending.add(new Reset(baseSequence, actions));
+            appendedBatches++;
+            lock.notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        if (dirty && fsyncPolicy == FsyncPolicy.INTERVAL) {
+                            lock.wait(fsyncIntervalMs);
+                            break;
+                        }
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed && pending.isEmpty()) {
+                    return;
+                }
+            }
+            synchronized (ioLock) {
+                try {
+                    long start = System.nanoTime();
+                    writePending();
+                    maybeSync();
+                    ServerMetrics.recordDraftLogWrite(System.nanoTime() - start);
+                } catch (IOException e) {
+                    System.err.println("Failed to append draft log: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // 持有ioLock时调用: 取出所有待写批次并写入当前段, 遇到换段请求时换段
+    private void writePending() throws IOException {
+        List<Object> entries;
+        synchronized (lock) {
+            entries = new ArrayList<>(pending);
+            pending.clear();
+        }
+        List<Object> batches = new ArrayList<>();
+        int written = 0;
+        try {
+            for (Object entry : entries) {
+                if (entry instanceof Rollover) {
+                    writeBatches(batches);
+                    written += batches.size();
+                    batches.clear();
+                    ((Rollover) entry).done.complete(rollSegment());
+                } else {
+                    batches.add(entry);
+                }
+            }
+            writeBatches(batches);
+            written += batches.size();
+        } catch (IOException e) {
+            for (Object entry : entries) {
+                if (entry instanceof Rollover) {
+                    ((Rollover) entry).done.completeExceptionally(e);
+                }
+            }
+            throw e;
+        } finally {
+            synchronized (lock) {
+                writtenBatches += entries.size() - countRollovers(entries);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private static int countRollovers(List<Object> entries) {
+        int count = 0;
+        for (Object entry : entries) {
+            if (entry instanceof Rollover) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // 落盘并关闭当前段, 返回其段号
+    private long rollSegment() throws IOException {
+        if (segment != null) {
+            segment.force(false);
+            segment.close();
+            dirty = false;
+        }
+        long covered = segmentIndex;
+        openNextSegment();
+        return covered;
+    }
+
+    // 一组提交和重置编码到同一个缓冲区, 一次write写出
+    @SuppressWarnings("unchecked")
+    private void writeBatches(List<Object> batches) throws IOException {
+        if (batches.isEmpty() || segment == null) {
+            return;
+        }
+        if (segmentSize >= segmentBytes) {
+            segment.force(false);
+            segment.close();
+            openNextSegment();
+        }
+        out.reset();
+        for (Object entry : batches) {
+            int recordStart = out.size();
+            out.writeInt(0);
+            out.writeInt(0);
+            List<Action> batch;
+            if (entry instanceof Reset) {
+                Reset reset = (Reset) entry;
+                out.writeVarInt(0);
+                out.writeSignedVarLong(reset.baseSequence);
+                batch = reset.actions;
+            } else {
+                batch = (List<Action>) entry;
+            }
+            out.writeVarInt(batch.size());
+            for (Action action : batch) {
+                BinaryCodec.writeAction(out, action);
+            }
+            int payloadStart = recordStart + RECORD_HEADER;
+            int length = out.size() - payloadStart;
+            crc.reset();
+            crc.update(out.array(), payloadStart, length);
+            out.setInt(recordStart, length);
+            out.setInt(recordStart + 4, (int) crc.getValue());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(out.array(), 0, out.size());
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segmentSize += out.size();
+        dirty = true;
+    }
+
+    private void maybeSync() throws IOException {
+        if (!dirty || segment == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (fsyncPolicy == FsyncPolicy.ALWAYS
+                || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastSync >= fsyncIntervalMs)) {
+            segment.force(false);
+            dirty = false;
+            lastSync = now;
+        }
+    }
+
+    // 等待已入队的提交全部写入并落盘
+    public void flush() {
+        synchronized (lock) {
+            long target = appendedBatches;
+            while (writtenBatches < target && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        synchronized (ioLock) {
+            try {
+                if (segment != null && dirty) {
+                    segment.force(false);
+                    dirty = false;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to sync draft log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 写全量快照之前调用: 把待写批次写完并落盘, 然后换到新段.
+     * 返回被关闭的段号, 快照写好后可用deleteSegmentsUpTo删除这些段.
+     */
+    public long rollover() throws IOException {
+        synchronized (ioLock) {
+            writePending();
+            return rollSegment();
+        }
+    }
+
+    /**
+     * 异步换段: 排在已入队的提交之后, 由写线程完成, 调用方不做磁盘I/O.
+     * 在持有草图锁时调用, 可保证返回的段号恰好包含调用前的所有提交.
+     */
+    public CompletableFuture<Long> requestRollover() {
+        Rollover rollover = new Rollover();
+        synchronized (lock) {
+            if (closed) {
+                rollover.done.completeExceptionally(new IOException("Draft log closed"));
+                return rollover.done;
+            }
+            pending.add(rollover);
+            lock.notifyAll();
+        }
+        return rollover.done;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public boolean isRepaired() {
+        return repaired;
+    }
+
+    public long getResetBase() {
+        return resetBase;
+    }
+
+    // 删除已被快照包含的段
+    public void deleteSegmentsUpTo(long index) throws IOException {
+        synchronized (ioLock) {
+            for (Path path : listSegments()) {
+                if (indexOf(path) <= index) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    public void close() {
+        flush();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        synchronized (ioLock) {
+            try {
+                if (segment != null) {
+                    segment.force(false);
+                    segment.close();
+                    segment = null;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to close draft log: " + e.getMessage());
+            }
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        Files.createDirectories(directory);
+        segmentIndex++;
+        Path path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segmentSize = segment.size();
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort(Comparator.comparingLong(ActionLog::indexOf));
+        return segments;
+    }
+
+    private static long indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Rollover {
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+    }
+
+    private static class Reset {
+        private final long baseSequence;
+        private final List<Action> actions;
+
+        Reset(long baseSequence, List<Action> actions) {
+            this.baseSequence = baseSequence;
+            this.actions = actions;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package server.util;
+
+import server.models.MainAction.Action;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 不可变的动作栈(单链表), push/pop返回新栈, 旧栈不变.
+ * 编辑者未提交的动作和重做栈都用它表示, 取快照只需保存引用.
+ */
+final class ActionStack {
+    static final ActionStack EMPTY = new ActionStack(null, null, 0);
+
+    private final Action top;
+    private final ActionStack rest;
+    private final int size;
+
+    private ActionStack(Action top, ActionStack rest, int size) {
+        this.top = top;
+        this.rest = rest;
+        this.size = size;
+    }
+
+    ActionStack push(Action action) {
+        return new ActionStack(action, this, size + 1);
+    }
+
+    // 去掉栈顶后的栈, 空栈返回自身
+    ActionStack pop() {
+        return size == 0 ? this : rest;
+    }
+
+    Action peek() {
+        return top;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // 从栈底到栈顶(即动作发生的先后)写入into[offset..offset+size)
+    void copyInto(Action[] into, int offset) {
+        ActionStack node = this;
+        for (int i = offset + size - 1; i >= offset; i--) {
+            into[i] = node.top;
+            node = node.rest;
+        }
+    }
+
+    // 从栈底到栈顶的新列表
+    List<Action> toList() {
+        Action[] actions = new Action[size];
+        copyInto(actions, 0);
+        return Arrays.asList(actions);
+    }
+}
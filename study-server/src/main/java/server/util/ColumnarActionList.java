@@ -0,0 +1,268 @@
+package server.util;
+
+import javafx.scene.shape.Shape;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * 按列存放的已提交历史: 每个字段一个基本类型数组, 颜色和图形类型存为编码.
+ * get()时才按列重新构造Action, 调用方拿到的是副本, 修改它不会影响历史.
+ * 只支持在末尾追加和整体清空, 与DraftManager对globalActions的用法一致.
+ */
+public final class ColumnarActionList extends AbstractList<Action> implements RandomAccess {
+    private static final byte KIND_DRAW = 1;
+    private static final byte KIND_TEXT = 2;
+    private static final byte KIND_UNDO = 3;
+    private static final byte KIND_UNDO_ALL = 4;
+    private static final byte KIND_REDO = 5;
+    // 其他类型的动作原样保存在outOfLine中
+    private static final byte KIND_OTHER = 6;
+
+    private byte[] kinds;
+    // 颜色编码, 0表示null
+    private int[] colors;
+    // 绘制动作为图形编码(0表示null), 文字和其他动作为outOfLine下标
+    private int[] refs;
+    private double[] x0s;
+    private double[] y0s;
+    private double[] x1s;
+    private double[] y1s;
+    private double[] widths;
+    private int size = 0;
+
+    private final List<String> colorTable = new ArrayList<>();
+    private final Map<String, Integer> colorCodes = new HashMap<>();
+    private final List<Class<? extends Shape>> shapeTable = new ArrayList<>();
+    private final Map<Class<? extends Shape>, Integer> shapeCodes = new HashMap<>();
+    // 文字内容和无法按列存放的动作
+    private final List<Object> outOfLine = new ArrayList<>();
+
+    public ColumnarActionList() {
+        this(1024);
+    }
+
+    public ColumnarActionList(int capacity) {
+        allocate(Math.max(16, capacity));
+    }
+
+    public ColumnarActionList(Collection<? extends Action> actions) {
+        this(actions.size());
+        addAll(actions);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Action get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        switch (kinds[index]) {
+            case KIND_DRAW:
+                return new MainAction.DrawAction(x0s[index], y0s[index], x1s[index], y1s[index],
+                        color(colors[index]), widths[index], shape(refs[index]));
+            case KIND_TEXT:
+                return new MainAction.TextAction(x0s[index], y0s[index], (String) outOfLine.get(refs[index]),
+                        color(colors[index]), widths[index]);
+            case KIND_UNDO:
+                return new MainAction.UndoAction();
+            case KIND_UNDO_ALL:
+                return new MainAction.UndoAllAction();
+            case KIND_REDO:
+                return new MainAction.RedoAction();
+            default:
+                return (Action) outOfLine.get(refs[index]);
+        }
+    }
+
+    @Override
+    public boolean add(Action action) {
+        ensureCapacity(size + 1);
+        int index = size;
+        if (action instanceof MainAction.DrawAction) {
+            MainAction.DrawAction draw = (MainAction.DrawAction) action;
+            kinds[index] = KIND_DRAW;
+            colors[index] = colorCode(draw.getColor());
+            refs[index] = shapeCode(draw.getShapeClass());
+            x0s[index] = draw.getStartX();
+            y0s[index] = draw.getStartY();
+            x1s[index] = draw.getEndX();
+            y1s[index] = draw.getEndY();
+            widths[index] = draw.getLineWidth();
+        } else if (action instanceof MainAction.TextAction) {
+            MainAction.TextAction text = (MainAction.TextAction) action;
+            kinds[index] = KIND_TEXT;
+            colors[index] = colorCode(text.getColor());
+            refs[index] = outOfLine.size();
+            outOfLine.add(text.getText());
+            x0s[index] = text.getX();
+            y0s[index] = text.getY();
+            widths[index] = text.getLineWidth();
+        } else if (action instanceof MainAction.UndoAction) {
+            kinds[index] = KIND_UNDO;
+        } else if (action instanceof MainAction.UndoAllAction) {
+            kinds[index] = KIND_UNDO_ALL;
+        } else if (action instanceof MainAction.RedoAction) {
+            kinds[index] = KIND_REDO;
+        } else {
+            kinds[index] = KIND_OTHER;
+            refs[index] = outOfLine.size();
+            outOfLine.add(action);
+        }
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, Action action) {
+        if (index != size) {
+            throw new UnsupportedOperationException("ColumnarActionList only supports appending");
+        }
+        add(action);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Action> actions) {
+        ensureCapacity(size + actions.size());
+        for (Action action : actions) {
+            add(action);
+        }
+        return !actions.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        outOfLine.clear();
+        // 编码表保留, 清空后的笔画通常仍用相同的颜色
+        allocate(16);
+        modCount++;
+    }
+
+    /**
+     * 估算本列表占用的堆内存(字节): 各列数组按容量计算, 加上编码表和文字.
+     */
+    public long estimateBytes() {
+        long bytes = arrayBytes(kinds.length, 1)
+                + 2 * arrayBytes(colors.length, 4)
+                + 5 * arrayBytes(x0s.length, 8);
+        for (String color : colorTable) {
+            bytes += stringBytes(color);
+        }
+        bytes += arrayBytes(outOfLine.size(), 4);
+        for (Object value : outOfLine) {
+            bytes += value instanceof String ? stringBytes((String) value) : 32;
+        }
+        return bytes;
+    }
+
+    /**
+     * 估算同样内容放在ArrayList<Action>中的堆内存(字节), 假设每个动作的颜色字符串都是独立对象
+     * (从Java序列化或网络解码得到的动作就是这样). 按64位JVM开启压缩指针计算.
+     */
+    public long estimateObjectLayoutBytes() {
+        long bytes = arrayBytes(size, 4);
+        for (int i = 0; i < size; i++) {
+            switch (kinds[i]) {
+                case KIND_DRAW:
+                    // 对象头12 + 5个double + 2个引用, 对齐到8
+                    bytes += align(12 + 5 * 8 + 2 * 4) + stringBytes(color(colors[i]));
+                    break;
+                case KIND_TEXT:
+                    bytes += align(12 + 3 * 8 + 2 * 4) + stringBytes(color(colors[i]))
+                            + stringBytes((String) outOfLine.get(refs[i]));
+                    break;
+                default:
+                    bytes += 16;
+                    break;
+            }
+        }
+        return bytes;
+    }
+
+    private String color(int code) {
+        return code == 0 ? null : colorTable.get(code - 1);
+    }
+
+    private Class<? extends Shape> shape(int code) {
+        return code == 0 ? null : shapeTable.get(code - 1);
+    }
+
+    private int colorCode(String color) {
+        if (color == null) {
+            return 0;
+        }
+        Integer code = colorCodes.get(color);
+        if (code == null) {
+            colorTable.add(color);
+            code = colorTable.size();
+            colorCodes.put(color, code);
+        }
+        return code;
+    }
+
+    private int shapeCode(Class<? extends Shape> shape) {
+        if (shape == null) {
+            return 0;
+        }
+        Integer code = shapeCodes.get(shape);
+        if (code == null) {
+            shapeTable.add(shape);
+            code = shapeTable.size();
+            shapeCodes.put(shape, code);
+        }
+        return code;
+    }
+
+    private void allocate(int capacity) {
+        kinds = new byte[capacity];
+        colors = new int[capacity];
+        refs = new int[capacity];
+        x0s = new double[capacity];
+        y0s = new double[capacity];
+        x1s = new double[capacity];
+        y1s = new double[capacity];
+        widths = new double[capacity];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= kinds.length) {
+            return;
+        }
+        int newLength = Math.max(capacity, kinds.length + (kinds.length >> 1));
+        kinds = Arrays.copyOf(kinds, newLength);
+        colors = Arrays.copyOf(colors, newLength);
+        refs = Arrays.copyOf(refs, newLength);
+        x0s = Arrays.copyOf(x0s, newLength);
+        y0s = Arrays.copyOf(y0s, newLength);
+        x1s = Arrays.copyOf(x1s, newLength);
+        y1s = Arrays.copyOf(y1s, newLength);
+        widths = Arrays.copyOf(widths, newLength);
+    }
+
+    private static long arrayBytes(long length, int elementBytes) {
+        return align(16 + length * elementBytes);
+    }
+
+    // String对象24字节加上Latin-1的byte[]
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 24 + arrayBytes(value.length(), 1);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,328 @@
+package server.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有上限的JDBC连接池. 同时借出的连接数不超过poolSize, 借不到时最多等待borrowTimeoutMillis.
+ * 借出的是代理连接, close()时归还到池中而不是断开, 所以调用方可以直接用try-with-resources.
+ * 后台线程定期检查空闲连接: 超过空闲时间或最长寿命的关闭, 失效的丢弃, 不足minIdle时补足.
+ */
+public final class ConnectionPool {
+    /** 创建一条新的物理连接 */
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private final String name;
+    private final ConnectionFactory factory;
+    private final int poolSize;
+    private final int minIdle;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    // 空闲超过这么久的连接在借出前先验证一次
+    private final long validateAfterIdleMillis;
+
+    // 每借出一条连接(或后台检查占用一条)持有一个许可, 物理连接总数因此不超过poolSize
+    private final Semaphore permits;
+    // 最近归还的在队首, 借出时优先取它; 队尾是最久没用的, 空闲回收从队尾看起
+    private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed = false;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+
+    public ConnectionPool(String name, ConnectionFactory factory, int poolSize, int minIdle,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long maxLifetimeMillis,
+                          long validateAfterIdleMillis, long maintenanceIntervalMillis) {
+        this.name = name;
+        this.factory = factory;
+        this.poolSize = Math.max(1, poolSize);
+        this.minIdle = Math.max(0, Math.min(minIdle, this.poolSize));
+        this.borrowTimeoutMillis = Math.max(0, borrowTimeoutMillis);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.validateAfterIdleMillis = validateAfterIdleMillis;
+        this.permits = new Semaphore(this.poolSize, true);
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name + "-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1000, maintenanceIntervalMillis);
+        maintenance.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** 预先建立minIdle条连接, 失败时抛出异常(此时池仍可用, 之后按需建立) */
+    public void fill() throws SQLException {
+        while (!closed && idle.size() < minIdle) {
+            if (!permits.tryAcquire()) {
+                return;
+            }
+            try {
+                idle.offerLast(newEntry());
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * 借一条连接, 用完后close()即归还. 池满时等待, 超过borrowTimeoutMillis抛出SQLTimeoutException.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool " + name + " is closed");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis
+                    + " ms waiting for a connection from " + name + " (" + stats() + ")");
+        }
+        borrows.increment();
+        borrowWaitNanos.add(waited);
+        maxBorrowWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            return wrap(takeIdleOrCreate());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Entry takeIdleOrCreate() throws SQLException {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (isExpired(entry, now)) {
+                destroy(entry);
+            } else if (now - entry.lastUsed >= validateAfterIdleMillis && !isValid(entry)) {
+                invalid.increment();
+                destroy(entry);
+            } else {
+                return entry;
+            }
+        }
+        return newEntry();
+    }
+
+    // 代理连接close()时调用, 每条代理只会调用一次
+    private void release(Entry entry, boolean broken) {
+        try {
+            if (closed || broken || isExpired(entry, System.currentTimeMillis()) || !reset(entry)) {
+                destroy(entry);
+            } else {
+                entry.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(entry);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // 还原调用方可能改过的事务状态, 失败说明连接已不可用
+    private boolean reset(Entry entry) {
+        try {
+            if (entry.raw.isClosed()) {
+                return false;
+            }
+            if (!entry.raw.getAutoCommit()) {
+                entry.raw.rollback();
+                entry.raw.setAutoCommit(true);
+            }
+            entry.raw.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // 后台检查: 回收过期和多余的空闲连接, 验证其余的, 再补足minIdle
+    private void maintain() {
+        try {
+            long now = System.currentTimeMillis();
+            // 从最久没用的开始看
+            List<Entry> snapshot = new ArrayList<>(idle);
+            for (int i = snapshot.size() - 1; i >= 0 && !closed; i--) {
+                Entry entry = snapshot.get(i);
+                // 占用一个许可再检查, 检查期间借用方会另建连接, 总数仍受poolSize限制
+                if (!permits.tryAcquire()) {
+                    break;
+                }
+                try {
+                    if (!idle.remove(entry)) {
+                        continue;
+                    }
+                    boolean surplus = idle.size() >= minIdle && now - entry.lastUsed >= idleTimeoutMillis;
+                    if (isExpired(entry, now) || surplus) {
+                        destroy(entry);
+                    } else if (!isValid(entry)) {
+                        invalid.increment();
+                        destroy(entry);
+                    } else {
+                        idle.offerLast(entry);
+                    }
+                } finally {
+                    permits.release();
+                }
+            }
+            fill();
+        } catch (SQLException e) {
+            System.err.println("Connection pool " + name + " refill failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return maxLifetimeMillis > 0 && now - entry.createdAt >= maxLifetimeMillis;
+    }
+
+    private static boolean isValid(Entry entry) {
+        try {
+            return !entry.raw.isClosed() && entry.raw.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Entry newEntry() throws SQLException {
+        Entry entry = new Entry(factory.create());
+        created.increment();
+        return entry;
+    }
+
+    private void destroy(Entry entry) {
+        destroyed.increment();
+        try {
+            entry.raw.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    /** 关闭所有空闲连接; 借出中的连接在归还时关闭 */
+    public void shutdown() {
+        closed = true;
+        maintenance.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry);
+        }
+    }
+
+    public int getActiveCount() {
+        return poolSize - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public String stats() {
+        long count = borrows.sum();
+        double avgWaitMillis = count == 0 ? 0 : borrowWaitNanos.sum() / 1e6 / count;
+        return String.format("active=%d idle=%d size=%d waiting=%d borrows=%d avgWait=%.3fms maxWait=%.3fms"
+                        + " timeouts=%d created=%d closed=%d invalid=%d",
+                getActiveCount(), getIdleCount(), poolSize, permits.getQueueLength(), count, avgWaitMillis,
+                maxBorrowWaitNanos.get() / 1e6, timeouts.sum(), created.sum(), destroyed.sum(), invalid.sum());
+    }
+
+    private Connection wrap(Entry entry) {
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PooledConnection(entry));
+    }
+
+    private static class Entry {
+        final Connection raw;
+        final long createdAt;
+        volatile long lastUsed;
+
+        Entry(Connection raw) {
+            this.raw = raw;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+        }
+    }
+
+    // 借出的连接: close()归还到池中, 归还后再调用其他方法会抛出异常
+    private class PooledConnection implements InvocationHandler {
+        private final Entry entry;
+        private final AtomicBoolean returned = new AtomicBoolean();
+        // 出现连接级错误(SQLState 08xxx)后不再放回池中
+        private volatile boolean broken = false;
+
+        PooledConnection(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        release(entry, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || entry.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + entry.raw;
+                default:
+                    break;
+            }
+            if (returned.get()) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            try {
+                return method.invoke(entry.raw, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) {
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+}
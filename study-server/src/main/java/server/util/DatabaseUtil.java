@@ -3,37 +3,92 @@ package server.util;
 import java.io.*;
 import java.sql.*;
 import java.util.Properties;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class DatabaseUtil {
     private static final String DB_NAME = "study_server";
     private static String username;
     private static String password;
-    private static final int MAX_POOL_SIZE = 10;
-    private static final List<Connection> connectionPool = new ArrayList<>();
-    private static boolean initialized = false;
+    private static Properties props;
+    private static volatile ConnectionPool connectionPool;
+    // 建库建表和连接池都完成后才为true, 之前getConnection()直接失败
+    private static volatile boolean ready = false;
     
     public static void initialize() {
         try {
-            // 加载数据库配置
-            loadDatabaseProperties();
-            // 加载驱动
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            // 创建数据库（如果不存在）
-            createDatabaseIfNotExists();
-            
-            // 初始化连接池
-            initializeConnectionPool();
-            
-            initialized = true;
-            System.out.println("Database initialized successfully");
+            connect();
         } catch (Exception e) {
             System.err.println("Database initialization failed: " + e.getMessage());
             throw new RuntimeException("Database initialization failed", e);
         }
     }
 
+    /**
+     * 在后台线程中初始化数据库, 失败时每隔retryMillis重试, 直到成功后调用onReady.
+     * 调用方不等待, 期间isReady()为false.
+     */
+    public static void initializeInBackground(long retryMillis, Runnable onReady) {
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            while (true) {
+                try {
+                    connect();
+                    StartupTimer.background("database", start);
+                    onReady.run();
+                    return;
+                } catch (Exception e) {
+                    System.err.println("Database not available, retrying in " + retryMillis + " ms: "
+                            + e.getMessage());
+                }
+                try {
+                    Thread.sleep(Math.max(100, retryMillis));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "db-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    // 检查库表的同时预热连接池; 库是刚创建的时预热会失败, 建库后再补一次
+    private static void connect() throws Exception {
+        // 加载数据库配置
+        loadDatabaseProperties();
+        // 加载驱动
+        Class.forName("com.mysql.cj.jdbc.Driver");
+
+        ConnectionPool pool = createConnectionPool();
+        CompletableFuture<Void> warmUp = CompletableFuture.runAsync(() -> {
+            try {
+                pool.fill();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        });
+        try {
+            // 创建数据库（如果不存在）
+            createDatabaseIfNotExists();
+            try {
+                warmUp.join();
+            } catch (CompletionException e) {
+                pool.fill();
+            }
+        } catch (Exception e) {
+            pool.shutdown();
+            throw e;
+        }
+
+        connectionPool = pool;
+        ready = true;
+        System.out.println("Database initialized successfully (pool: " + pool.stats() + ")");
+    }
+
     private static void createDatabaseIfNotExists() throws SQLException {
         try (Connection conn = DriverManager.getConnection(
                 "jdbc:mysql://localhost:3306?useSSL=false",
@@ -82,7 +137,7 @@ public class DatabaseUtil {
     }
 
     private static void loadDatabaseProperties() throws IOException {
-        Properties props = new Properties();
+        props = new Properties();
         try (InputStream input = new FileInputStream("src/main/resources/database.properties")) {
             props.load(input);
             username = props.getProperty("db.username");
@@ -94,9 +149,28 @@ public class DatabaseUtil {
         }
     }
 
-    private static void initializeConnectionPool() throws SQLException {
-        for (int i = 0; i < MAX_POOL_SIZE; i++) {
-            connectionPool.add(createNewConnection());
+    private static ConnectionPool createConnectionPool() {
+        int poolSize = getInt("db.poolSize", 10);
+        return new ConnectionPool("db-pool", DatabaseUtil::createNewConnection,
+                poolSize,
+                getInt("db.minIdle", 2),
+                getInt("db.borrowTimeoutMillis", 3000),
+                getInt("db.idleTimeoutMillis", 600_000),
+                getInt("db.maxLifetimeMillis", 1_800_000),
+                getInt("db.validateAfterIdleMillis", 5000),
+                getInt("db.maintenanceIntervalMillis", 30_000));
+    }
+
+    private static int getInt(String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value);
+            return defaultValue;
         }
     }
 
@@ -108,47 +182,51 @@ public class DatabaseUtil {
         );
     }
 
-    public static synchronized Connection getConnection() throws SQLException {
-        if (!initialized) {
+    // 借出的连接close()即归还到池中; 池满时最多等待db.borrowTimeoutMillis
+    public static Connection getConnection() throws SQLException {
+        ConnectionPool pool = connectionPool;
+        if (!ready || pool == null) {
             throw new SQLException("Database not initialized");
         }
+        return pool.getConnection();
+    }
 
-        // 获取可用连接
-        if (!connectionPool.isEmpty()) {
-            Connection conn = connectionPool.remove(0);
-            if (conn != null && !conn.isClosed() && conn.isValid(1)) {
-                return conn;
-            }
+    // 与conn.close()等价, 保留给旧代码使用
+    public static void releaseConnection(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
         }
-        
-        // Create new connection if none available
-        return createNewConnection();
     }
 
-    public static synchronized void releaseConnection(Connection conn) {
-        if (conn != null && connectionPool.size() < MAX_POOL_SIZE) {
-            connectionPool.add(conn);
-        } else {
-            try {
-                conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing connection: " + e.getMessage());
-            }
-        }
+    public static String getPoolStats() {
+        ConnectionPool pool = connectionPool;
+        return pool == null ? "not initialized" : pool.stats();
+    }
+
+    public static int getActiveConnections() {
+        ConnectionPool pool = connectionPool;
+        return pool == null ? 0 : pool.getActiveCount();
+    }
+
+    public static int getIdleConnections() {
+        ConnectionPool pool = connectionPool;
+        return pool == null ? 0 : pool.getIdleCount();
     }
 
     public static void shutdown() {
         System.out.println("Shutting down database connections...");
-        for (Connection conn : connectionPool) {
-            try {
-                if (conn != null && !conn.isClosed()) {
-                    conn.close();
-                }
-            } catch (SQLException e) {
-                System.err.println("Error closing connection: " + e.getMessage());
-            }
+        ConnectionPool pool = connectionPool;
+        ready = false;
+        if (pool != null) {
+            System.out.println("Connection pool: " + pool.stats());
+            pool.shutdown();
+            connectionPool = null;
         }
-        connectionPool.clear();
         System.out.println("Database connections closed");
     }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package server.util;
+
+import server.codec.BinaryCodec;
+import server.codec.BinaryReader;
+import server.codec.BinaryWriter;
+import server.models.MainAction.Action;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * 已提交草图的紧凑检查点文件, 与ActionLog放在同一目录.
+ * 格式: [MAGIC][版本][已包含的日志段号][起始序号][动作数varint][动作...][CRC32]
+ * 文件名中的编号即已包含的日志段号, 启动时读取最新的有效检查点再重放其后的日志段.
+ */
+public class DraftCheckpoint {
+    private static final int MAGIC = 0x44534E50; // "DSNP"
+    private static final int VERSION = 2;
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".snap";
+
+    private final long coveredSegment;
+    private final long baseSequence;
+    private final List<Action> actions;
+
+    private DraftCheckpoint(long coveredSegment, long baseSequence, List<Action> actions) {
+        this.coveredSegment = coveredSegment;
+        this.baseSequence = baseSequence;
+        this.actions = actions;
+    }
+
+    public long getCoveredSegment() {
+        return coveredSegment;
+    }
+
+    // 第一个动作之前的序号
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    public List<Action> getActions() {
+        return actions;
+    }
+
+    // 先写临时文件再原子改名, 崩溃时不会留下半个检查点
+    public static void write(Path directory, long coveredSegment, long baseSequence, List<Action> actions)
+            throws IOException {
+        BinaryWriter out = new BinaryWriter(64 + actions.size() * 24);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(coveredSegment);
+        out.writeLong(baseSequence);
+        out.writeVarInt(actions.size());
+        for (Action action : actions) {
+            BinaryCodec.writeAction(out, action);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.size());
+        out.writeInt((int) crc.getValue());
+
+        Files.createDirectories(directory);
+        Path target = directory.resolve(String.format("%s%08d%s", PREFIX, coveredSegment, SUFFIX));
+        Path tmp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(out.array(), 0, out.size());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // 读取最新的有效检查点, 损坏的跳过; 没有则返回null
+    public static DraftCheckpoint loadLatest(Path directory) {
+        List<Path> checkpoints = list(directory);
+        Collections.reverse(checkpoints);
+        for (Path path : checkpoints) {
+            try {
+                return read(path);
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable checkpoint " + path.getFileName()
+                        + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private static DraftCheckpoint read(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < 4) {
+            throw new IOException("Truncated checkpoint");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes).getInt(bytes.length - 4)) {
+            throw new IOException("Checksum mismatch");
+        }
+        BinaryReader in = new BinaryReader(bytes, 0, bytes.length - 4);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a draft checkpoint");
+        }
+        int version = in.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        long covered = in.readLong();
+        long baseSequence = version >= 2 ? in.readLong() : 0;
+        int count = in.readVarInt();
+        List<Action> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            actions.add(BinaryCodec.readAction(in));
+        }
+        return new DraftCheckpoint(covered, baseSequence, actions);
+    }
+
+    /**
+     * 只保留最新的retain个检查点.
+     * @return 仍需保留的最早检查点所包含的段号, 不大于它的日志段可以删除; 没有检查点时返回0
+     */
+    public static long prune(Path directory, int retain) throws IOException {
+        List<Path> checkpoints = list(directory);
+        int excess = checkpoints.size() - Math.max(1, retain);
+        for (int i = 0; i < excess; i++) {
+            Files.deleteIfExists(checkpoints.get(i));
+        }
+        if (checkpoints.isEmpty()) {
+            return 0;
+        }
+        return indexOf(checkpoints.get(Math.max(0, excess)));
+    }
+
+    // 按段号升序
+    private static List<Path> list(Path directory) {
+        List<Path> checkpoints = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return checkpoints;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                if (indexOf(path) >= 0) {
+                    checkpoints.add(path);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list checkpoints: " + e.getMessage());
+        }
+        checkpoints.sort(Comparator.comparingLong(DraftCheckpoint::indexOf));
+        return checkpoints;
+    }
+
+    private static long indexOf(Path checkpoint) {
+        String name = checkpoint.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -1,37 +1,96 @@
 package server.util;
 
+import server.metrics.ServerMetrics;
+import server.models.DraftSync;
+import server.models.MainAction;
 import server.models.MainAction.Action;
+import server.models.Viewport;
+import server.models.ViewportState;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * 一个画板的草图状态: 已提交历史、当前编辑者的未提交动作、撤销/重做栈以及提交日志.
+ * 每个画板一个实例, 所有状态由实例锁保护, 不同画板之间互不争用.
+ */
 public class DraftManager {
-    private static final String DRAFT_FILE;
-    private static boolean isBeingEdited = false;
-    private static String currentEditor = null;
-    
-    // 全局操作历史
-    private static List<Action> globalActions = new ArrayList<>();
-    // 当前编辑用户的操作历史
-    private static List<Action> currentEditActions = new ArrayList<>();
-    // 当前编辑用户的撤销栈
-    private static Stack<Action> undoStack = new Stack<>();
-    // 当前编辑用户的重做栈
-    private static Stack<Action> redoStack = new Stack<>();
-
-    static {
-        // 获取项目根目录
-        String projectRoot = new File("").getAbsolutePath();
+    /**
+     * 草图状态的变化通知, 在DraftManager的锁内按发生顺序调用, 实现中只能入队不能阻塞.
+     */
+    public interface DraftListener {
+        // username新提交的动作(非空), 第一个动作的序号为fromSequence + 1; 提交后其租约已释放
+        void committed(String username, long fromSequence, List<Action> actions);
+
+        // 历史被清空或压缩, 之前的内容和序号全部作废
+        void reset();
+
+        // username的一批动作生效(撤销/重做/绘制, 即applyEditActions转发的动作)
+        default void edited(String username, List<Action> actions) {
+        }
+
+        // username的租约被释放且没有提交动作, 其未提交的动作被丢弃
+        default void released(String username) {
+        }
+    }
+
+    // 所有画板共用一个后台检查点线程
+    private static ScheduledExecutorService snapshotter;
+
+    private final String boardId;
+    private final Path directory;
+    private final String draftFile;
+    // 持有编辑租约的用户, 按获得租约的先后排列
+    private final Map<String, EditSession> editors = new LinkedHashMap<>();
+
+    // 全局操作历史, 可O(1)取快照; draft.history.store=columnar时封存的块按列存放
+    private ActionHistory globalActions = newHistory(Collections.emptyList());
+    // globalActions第一个动作之前的序号, 第i个动作的序号为baseSequence + i + 1
+    private long baseSequence = 0;
+    // globalActions的空间索引, 条目编号与列表下标一致
+    private SpatialIndex spatialIndex = new SpatialIndex();
+    // 只追加的提交日志, 定期由后台线程写检查点并删除旧段
+    private ActionLog actionLog;
+    // 每次提交/清空递增, 用于判断是否需要写新的检查点
+    private long committedVersion = 0;
+    private long checkpointedVersion = 0;
+    // 串行化检查点文件的写入与清理
+    private final Object checkpointLock = new Object();
+    private ScheduledFuture<?> snapshotTask;
+    private ScheduledFuture<?> squashTask;
+    private final List<DraftListener> listeners = new ArrayList<>();
+
+    /**
+     * @param boardId   画板名, 只用于日志输出
+     * @param directory 画板的数据目录, 存放local_draft.ser和提交日志
+     */
+    public DraftManager(String boardId, Path directory) {
+        this.boardId = boardId;
+        this.directory = directory;
+        if (directory == null) {
+            draftFile = null;
+            return;
+        }
         // 设置草图文件路径
-        DRAFT_FILE = Paths.get(projectRoot, "local_draft.ser").toString();
-        
+        draftFile = directory.resolve("local_draft.ser").toString();
+
         // 确保文件存在并初始化
         try {
-            File draftFile = new File(DRAFT_FILE);
-            if (!draftFile.exists() || draftFile.length() == 0) {
+            Files.createDirectories(directory);
+            File file = new File(draftFile);
+            if (!file.exists() || file.length() == 0) {
                 // 如果文件不存在或为空，创建文件并写入初始状态
-                try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(draftFile))) {
-                    DraftState initialState = new DraftState(new ArrayList<>());
+                try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+                    DraftState initialState = new DraftState(new ArrayList<>(), 0);
                     oos.writeObject(initialState);
                 }
             }
@@ -40,138 +99,704 @@ public class DraftManager {
         }
     }
 
-    // 保存草图历史
-    public static void saveDraftHistory() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DRAFT_FILE))) {
-            DraftState state = new DraftState(globalActions);
-            oos.writeObject(state);
+    public String getBoardId() {
+        return boardId;
+    }
+
+    // 不读写磁盘的实例, 用于只读副本: 状态全部来自主服务器
+    public static DraftManager inMemory(String boardId) {
+        return new DraftManager(boardId, null);
+    }
+
+    public synchronized void addListener(DraftListener listener) {
+        listeners.add(listener);
+    }
+
+    // 保存草图历史: 同步写一个检查点, 之后删除已包含在内的日志段
+    public synchronized void saveDraftHistory() {
+        if (directory == null) {
+            return;
+        }
+        if (actionLog == null) {
+            saveLegacySnapshot();
+            return;
+        }
+        try {
+            long coveredSegment = actionLog.rollover();
+            writeCheckpoint(coveredSegment, baseSequence, globalActions);
+            checkpointedVersion = committedVersion;
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // 从文件加载历史记录
+    // 未启用日志时(如未调用loadDraftHistory)退回全量写local_draft.ser
+    private void saveLegacySnapshot() {
+        long start = System.nanoTime();
+        try {
+            File tmp = new File(draftFile + ".tmp");
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tmp))) {
+                DraftState state = new DraftState(new ArrayList<>(globalActions), 0);
+                oos.writeObject(state);
+            }
+            Files.move(tmp.toPath(), Paths.get(draftFile),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ServerMetrics.recordDraftCheckpoint(System.nanoTime() - start);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 后台检查点: 持锁时只取历史快照并请求日志换段, 编码和写盘都在锁外完成.
+     * 写好后只保留draft.snapshot.retain个检查点, 并删除最早保留的检查点之前的日志段.
+     */
+    public void checkpoint() {
+        PendingCheckpoint pending;
+        synchronized (this) {
+            if (actionLog == null || committedVersion == checkpointedVersion) {
+                return;
+            }
+            pending = prepareCheckpoint();
+        }
+        completeCheckpoint(pending);
+    }
+
+    // 锁内取得的检查点内容, 由completeCheckpoint在锁外写盘
+    private static final class PendingCheckpoint {
+        final List<Action> snapshot;
+        final CompletableFuture<Long> rollover;
+        final long version;
+        final long base;
+
+        PendingCheckpoint(List<Action> snapshot, CompletableFuture<Long> rollover, long version, long base) {
+            this.snapshot = snapshot;
+            this.rollover = rollover;
+            this.version = version;
+            this.base = base;
+        }
+    }
+
+    // 持锁时调用, 需已启用日志
+    private PendingCheckpoint prepareCheckpoint() {
+        return new PendingCheckpoint(globalActions.snapshot(), actionLog.requestRollover(), committedVersion, baseSequence);
+    }
+
+    /**
+     * 持锁时调用, 在替换历史之后、通知监听器之前: 把新的起始序号和历史作为重置记录写入日志,
+     * 排在之后的提交前面. 锁外的检查点失败或写之前崩溃时, 重放日志仍得到替换后的状态.
+     */
+    private void logReset() {
+        if (actionLog != null) {
+            actionLog.appendReset(baseSequence, globalActions.snapshot());
+        }
+    }
+
+    // 持锁时调用: 启用日志时返回待写的检查点, 否则直接保存并返回null
+    private PendingCheckpoint persistAfterReset() {
+        if (actionLog == null) {
+            saveDraftHistory();
+            return null;
+        }
+        return prepareCheckpoint();
+    }
+
+    // 不持锁调用
+    private void completeCheckpoint(PendingCheckpoint pending) {
+        try {
+            long start = System.currentTimeMillis();
+            writeCheckpoint(pending.rollover.get(), pending.base, pending.snapshot);
+            synchronized (this) {
+                checkpointedVersion = Math.max(checkpointedVersion, pending.version);
+            }
+            System.out.println("Draft checkpoint written for board " + boardId + ": " + pending.snapshot.size()
+                    + " actions in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Draft checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    private void writeCheckpoint(long coveredSegment, long base, List<Action> actions)
+            throws IOException {
+        synchronized (checkpointLock) {
+            Path directory = actionLog.getDirectory();
+            long start = System.nanoTime();
+            DraftCheckpoint.write(directory, coveredSegment, base, actions);
+            ServerMetrics.recordDraftCheckpoint(System.nanoTime() - start);
+            long keepFrom = DraftCheckpoint.prune(directory, ServerConfig.getInt("draft.snapshot.retain", 2));
+            actionLog.deleteSegmentsUpTo(keepFrom);
+        }
+    }
+
+    private void startSnapshotter() {
+        long interval = ServerConfig.getLong("draft.snapshot.intervalSeconds", 300);
+        if (interval <= 0 || snapshotTask != null) {
+            return;
+        }
+        snapshotTask = snapshotter().scheduleWithFixedDelay(this::checkpoint, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private void startSquasher() {
+        long interval = ServerConfig.getLong("draft.squash.intervalSeconds", 0);
+        if (interval <= 0 || squashTask != null) {
+            return;
+        }
+        squashTask = snapshotter().scheduleWithFixedDelay(this::squashInBackground, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService snapshotter() {
+        if (snapshotter == null) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "draft-snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return snapshotter;
+    }
+
+    // 从文件加载历史记录: 先读最新检查点(没有则读local_draft.ser), 再重放之后的日志段
     // @SuppressWarnings("unchecked")
-    public static void loadDraftHistory() {
-        File file = new File(DRAFT_FILE);
+    public synchronized void loadDraftHistory() {
+        long start = System.currentTimeMillis();
+        actionLog = ActionLog.fromConfig(directory.toString());
+        long coveredSegment;
+        DraftCheckpoint checkpoint = DraftCheckpoint.loadLatest(actionLog.getDirectory());
+        if (checkpoint != null) {
+            globalActions = newHistory(checkpoint.getActions());
+            baseSequence = checkpoint.getBaseSequence();
+            coveredSegment = checkpoint.getCoveredSegment();
+        } else {
+            coveredSegment = loadSnapshot();
+        }
+        List<Action> logged = Collections.emptyList();
+        try {
+            logged = actionLog.replay(coveredSegment);
+            // 检查点之后清空或压缩过: 以日志中的重置记录为准
+            if (actionLog.getResetBase() >= 0) {
+                globalActions = newHistory(Collections.emptyList());
+                baseSequence = actionLog.getResetBase();
+            }
+            globalActions.addAll(logged);
+            actionLog.start(coveredSegment);
+            // 丢弃过损坏的段: 马上写检查点, 下次启动不再依赖这些段
+            if (actionLog.isRepaired()) {
+                saveDraftHistory();
+            }
+        } catch (IOException e) {
+            System.err.println("Error replaying draft log: " + e.getMessage());
+            try {
+                startFreshLog();
+            } catch (IOException ex) {
+                System.err.println("Cannot start a new draft log, saving to " + draftFile + ": " + ex.getMessage());
+                actionLog = null;
+                rebuildSpatialIndex();
+                return;
+            }
+        }
+        rebuildSpatialIndex();
+        System.out.println("Draft history loaded for board " + boardId + ": " + globalActions.size() + " actions ("
+                + logged.size() + " from log) in " + (System.currentTimeMillis() - start) + " ms");
+        printHistoryFootprint();
+        startSnapshotter();
+        startSquasher();
+    }
+
+    /**
+     * 日志无法重放时: 日志目录改名留作人工恢复, 以已加载的内容写新检查点并开始新日志.
+     * 之后的提交照常写日志, 不会退回只写local_draft.ser(下次启动时不会读它).
+     */
+    private void startFreshLog() throws IOException {
+        Path logDirectory = actionLog.getDirectory();
+        if (Files.exists(logDirectory)) {
+            Path aside = logDirectory.resolveSibling(logDirectory.getFileName() + ".corrupt-" + System.currentTimeMillis());
+            Files.move(logDirectory, aside);
+            System.err.println("Moved unreadable draft log to " + aside);
+        }
+        actionLog = ActionLog.fromConfig(directory.toString());
+        actionLog.start(0);
+        saveDraftHistory();
+    }
+
+    // 按draft.history.store创建历史: list为对象数组分块, columnar为按列存放的ColumnarActionList分块
+    private static ActionHistory newHistory(Collection<? extends Action> actions) {
+        boolean columnar = "columnar".equalsIgnoreCase(ServerConfig.getString("draft.history.store", "list"));
+        return new ActionHistory(columnar, actions);
+    }
+
+    // 只统计已封存的块, 未写满的尾块仍是对象
+    private void printHistoryFootprint() {
+        int sealed = globalActions.getSealedSize();
+        if (globalActions.isColumnar() && sealed > 0) {
+            long[] bytes = globalActions.estimateColumnarBytes();
+            System.out.printf("Columnar history: %d bytes/action (object layout would be %d bytes/action)%n",
+                    bytes[0] / sealed, bytes[1] / sealed);
+        }
+    }
+
+    // 读取local_draft.ser, 返回其已包含的日志段号
+    private long loadSnapshot() {
+        File file = new File(draftFile);
         if (!file.exists() || file.length() == 0) {
-            globalActions = new ArrayList<>();
-            return;
+            globalActions = newHistory(Collections.emptyList());
+            return 0;
         }
 
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
             DraftState state = (DraftState) ois.readObject();
             if (state != null) {
-                globalActions = state.getGlobalActions();
+                globalActions = newHistory(state.getGlobalActions());
+                return state.getCoveredLogSegment();
             } else {
-                globalActions = new ArrayList<>();
+                globalActions = newHistory(Collections.emptyList());
             }
         } catch (IOException | ClassNotFoundException e) {
             System.err.println("Error loading draft history: " + e.getMessage());
             // 如果读取失败，初始化为空列表
-            globalActions = new ArrayList<>();
+            globalActions = newHistory(Collections.emptyList());
             // 重新创建文件
             try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-                DraftState newState = new DraftState(globalActions);
+                DraftState newState = new DraftState(new ArrayList<>(), 0);
                 oos.writeObject(newState);
             } catch (IOException ex) {
                 System.err.println("Error creating new draft file: " + ex.getMessage());
             }
         }
+        return 0;
+    }
+
+    /**
+     * 申请编辑租约. region为null表示整个画板(原来的独占编辑), 否则为一个矩形区域.
+     * 与其他用户的租约不重叠时授予(已持有租约的用户改为新区域, 未提交的动作保留),
+     * 返回null; 冲突时返回冲突租约的持有者.
+     */
+    public String acquireLease(String username, Viewport region) {
+        return acquireLease(username, region, null);
     }
 
-    // 添加新的编辑动作
-    public static synchronized void addEditAction(Action action, String username) {
-        if (isBeingEdited && username.equals(currentEditor)) {
-            currentEditActions.add(action);
-            // 清空重做栈，因为新操作会使重做历史失效
-            redoStack.clear();
+    /**
+     * 同acquireLease(username, region), 并记下申请的连接owner. 同一用户从新连接申请时租约转给新连接,
+     * 之后旧连接离开不会释放它.
+     */
+    public synchronized String acquireLease(String username, Viewport region, Object owner) {
+        for (EditSession session : editors.values()) {
+            if (!session.username.equals(username) && session.conflictsWith(region)) {
+                return session.username;
+            }
+        }
+        EditSession session = editors.get(username);
+        if (session == null) {
+            editors.put(username, new EditSession(username, region, owner));
+        } else {
+            session.region = region;
+            session.owner = owner;
+        }
+        return null;
+    }
+
+    /**
+     * 释放租约并丢弃未提交的动作(断线或离开画板时调用).
+     * 返回是否丢弃了动作, 调用方据此通知其他用户重新同步.
+     */
+    public boolean releaseLease(String username) {
+        return releaseLease(username, null);
+    }
+
+    // owner不为null时只释放该连接持有的租约, 同名的其他连接持有时返回false
+    public synchronized boolean releaseLease(String username, Object owner) {
+        EditSession session = editors.get(username);
+        if (session == null || (owner != null && session.owner != owner)) {
+            return false;
+        }
+        editors.remove(username);
+        for (DraftListener listener : listeners) {
+            listener.released(username);
+        }
+        return !session.actions.isEmpty();
+    }
+
+    // 添加新的编辑动作, 返回是否被接受(持有租约且在租约区域内)
+    public synchronized boolean addEditAction(Action action, String username) {
+        EditSession session = editors.get(username);
+        if (session == null || !session.accepts(action)) {
+            return false;
         }
+        session.actions = session.actions.push(action);
+        // 清空重做栈，因为新操作会使重做历史失效
+        session.redoStack = ActionStack.EMPTY;
+        return true;
     }
 
+    /**
+     * 在一次加锁内依次处理一批动作(撤销/重做/绘制), 返回需要转发给其他用户的动作.
+     * 只转发生效的动作: 没有租约或超出租约区域的绘制被忽略, 撤销和重做只在有可撤销/重做的动作时转发.
+     */
+    public List<Action> applyEditActions(List<Action> actions, String username) {
+        long waitStart = System.nanoTime();
+        synchronized (this) {
+            ServerMetrics.recordDraftLockWait(System.nanoTime() - waitStart);
+            List<Action> forwarded = new ArrayList<>(actions.size());
+            for (Action action : actions) {
+                boolean applied;
+                if (action instanceof MainAction.UndoAction) {
+                    applied = undoAction(username) != null;
+                } else if (action instanceof MainAction.RedoAction) {
+                    applied = redoAction(username) != null;
+                } else {
+                    applied = addEditAction(action, username);
+                }
+                if (applied) {
+                    forwarded.add(action);
+                }
+            }
+            if (!forwarded.isEmpty()) {
+                for (DraftListener listener : listeners) {
+                    listener.edited(username, forwarded);
+                }
+            }
+            return forwarded;
+        }
+    }
 
-    // 撤销操作
-    public static synchronized Action undoAction(String username) {
-        if (!isBeingEdited || !username.equals(currentEditor) || 
-            currentEditActions.isEmpty()) {
+    // 撤销该编辑者最后一个未提交的动作
+    public synchronized Action undoAction(String username) {
+        EditSession session = editors.get(username);
+        if (session == null || session.actions.isEmpty()) {
             return null;
         }
         // 从当前操作列表中移除最后一个动作
-        Action undoneAction = currentEditActions.remove(currentEditActions.size() - 1);
-        // 将撤销的动作压入撤销栈
-        undoStack.push(undoneAction);
+        Action undoneAction = session.actions.peek();
+        session.actions = session.actions.pop();
+        // 将撤销的动作压入重做栈
+        session.redoStack = session.redoStack.push(undoneAction);
         return undoneAction;
     }
 
-    // 重做操作
-    public static synchronized Action redoAction(String username) {
-        if (!isBeingEdited || !username.equals(currentEditor) || 
-            redoStack.isEmpty()) {
+    // 重做该编辑者最近撤销的动作
+    public synchronized Action redoAction(String username) {
+        EditSession session = editors.get(username);
+        if (session == null || session.redoStack.isEmpty()) {
             return null;
         }
         // 从重做栈中弹出动作
-        Action redoAction = redoStack.pop();
+        Action redoAction = session.redoStack.peek();
+        session.redoStack = session.redoStack.pop();
         // 将重做的动作添加回当前操作列表
-        currentEditActions.add(redoAction);
+        session.actions = session.actions.push(redoAction);
         return redoAction;
     }
 
-    // 提交编辑
-    public static synchronized void commitEdit() {
-        if (!isBeingEdited || currentEditor == null) {
-            return;
+    /**
+     * 提交该编辑者的动作并释放其租约. 提交在锁内整体追加到历史末尾,
+     * 多个编辑者的提交按提交先后获得连续的序号. 没有租约时返回false.
+     */
+    public boolean commitEdit(String username) {
+        long waitStart = System.nanoTime();
+        synchronized (this) {
+            ServerMetrics.recordDraftLockWait(System.nanoTime() - waitStart);
+            EditSession session = editors.remove(username);
+            if (session == null) {
+                return false;
+            }
+            List<Action> committed = session.actions.toList();
+            long fromSequence = getLastSequence();
+            appendCommitted(committed);
+            for (DraftListener listener : listeners) {
+                if (committed.isEmpty()) {
+                    listener.released(username);
+                } else {
+                    listener.committed(username, fromSequence, committed);
+                }
+            }
+            return true;
         }
-        // 更新全局历史
-        globalActions.addAll(currentEditActions);
-        // 保存到文件
-        saveDraftHistory();
-        // 清空所有临时状态
-        currentEditActions.clear();
-        undoStack.clear();
-        redoStack.clear();
     }
 
-    // 获取当前完整状态
-    public static List<Action> getCurrentState() {
-        List<Action> currentState = new ArrayList<>(globalActions);
-        currentState.addAll(currentEditActions);
-        return currentState;
+    // 更新全局历史
+    private void appendCommitted(List<Action> committed) {
+        globalActions.addAll(committed);
+        for (Action action : committed) {
+            spatialIndex.add(action);
+        }
+        committedVersion++;
+        // 只把本次提交追加到日志, 由日志线程写盘
+        if (actionLog != null) {
+            actionLog.append(committed);
+        } else {
+            saveDraftHistory();
+        }
     }
 
-    // 清空所有历史记录
-    public static synchronized void clear() {
-        globalActions.clear();
-        currentEditActions.clear();
-        saveDraftHistory();
+    /**
+     * 压缩已提交历史(见HistorySquasher): 持锁时只取快照, 在锁外计算, 再持锁替换;
+     * 计算期间的新提交原样接在压缩结果后面. 去掉的动作少于minRemoved时不替换.
+     * 替换后序号同清空一样整体后移, 持有旧序号的客户端下次同步时收到完整快照, 瓦片缓存作废.
+     * 计算期间画板被清空或再次压缩时放弃并返回null. 替换后的检查点在锁外写盘.
+     */
+    public HistorySquasher.Result squashHistory(int minRemoved) {
+        List<Action> snapshot;
+        long base;
+        synchronized (this) {
+            snapshot = globalActions.snapshot();
+            base = baseSequence;
+        }
+        HistorySquasher.Result result = HistorySquasher.squash(snapshot);
+        PendingCheckpoint pending;
+        synchronized (this) {
+            if (baseSequence != base) {
+                return null;
+            }
+            if (result.getRemoved() == 0 || result.getRemoved() < minRemoved) {
+                return result;
+            }
+            List<Action> actions = new ArrayList<>(result.getActions());
+            actions.addAll(globalActions.snapshot().subList(snapshot.size(), globalActions.size()));
+            baseSequence = getLastSequence() + 1;
+            globalActions = newHistory(actions);
+            rebuildSpatialIndex();
+            committedVersion++;
+            logReset();
+            for (DraftListener listener : listeners) {
+                listener.reset();
+            }
+            pending = persistAfterReset();
+        }
+        if (pending != null) {
+            completeCheckpoint(pending);
+        }
+        return result;
     }
 
-    // Getter和Setter
-    public static boolean isBeingEdited() {
-        return isBeingEdited;
+    // 后台压缩, 去掉的动作不够draft.squash.minRemoved时保持原样, 避免客户端频繁重新下载完整历史
+    private void squashInBackground() {
+        int minRemoved = ServerConfig.getInt("draft.squash.minRemoved", 1000);
+        HistorySquasher.Result result = squashHistory(minRemoved);
+        if (result != null && result.getRemoved() > 0 && result.getRemoved() >= minRemoved) {
+            System.out.println("Draft history squashed for board " + boardId + ": " + result);
+        }
+    }
+
+    // 所有编辑者尚未提交的动作, 按获得租约的先后拼接
+    private List<Action> pendingActions() {
+        return new StateSnapshot(Collections.emptyList(), pendingStacks());
+    }
+
+    private ActionStack[] pendingStacks() {
+        ActionStack[] stacks = new ActionStack[editors.size()];
+        int i = 0;
+        for (EditSession session : editors.values()) {
+            stacks[i++] = session.actions;
+        }
+        return stacks;
+    }
+
+    /**
+     * 获取当前完整状态: 已提交历史的快照加上未提交的动作, 持锁时间与历史长度无关.
+     * 返回的列表不可修改, 之后的编辑不会改变它, 可以在锁外遍历和发送.
+     */
+    public synchronized List<Action> getCurrentState() {
+        return new StateSnapshot(globalActions.snapshot(), pendingStacks());
+    }
+
+    /**
+     * 增量同步: 返回序号lastSequence之后的已提交动作.
+     * 客户端序号早于当前历史起点(被清空)或大于最新序号(服务端数据已变)时返回完整快照.
+     */
+    public synchronized DraftSync getStateSince(long lastSequence) {
+        long latest = getLastSequence();
+        List<Action> pending = pendingActions();
+        if (lastSequence < baseSequence || lastSequence > latest) {
+            return new DraftSync(true, baseSequence, latest, globalActions.snapshot(), pending);
+        }
+        int from = (int) (lastSequence - baseSequence);
+        return new DraftSync(false, lastSequence, latest,
+                globalActions.snapshot().subList(from, globalActions.size()), pending);
     }
 
-    public static void setBeingEdited(boolean edited) {
-        isBeingEdited = edited;
+    /**
+     * 序号在(afterSequence, min(afterSequence + max, toSequence)]之间的已提交动作(不可变快照).
+     * afterSequence早于当前历史起点(已被清空)时返回null.
+     */
+    public synchronized List<Action> getCommittedRange(long afterSequence, int max, long toSequence) {
+        if (afterSequence < baseSequence) {
+            return null;
+        }
+        int from = (int) Math.min(afterSequence - baseSequence, globalActions.size());
+        int to = (int) Math.min(Math.min(toSequence, afterSequence + max) - baseSequence, globalActions.size());
+        return globalActions.snapshot().subList(from, Math.max(from, to));
+    }
+
+    /**
+     * 区域查询: 返回外接矩形与viewport相交的已提交动作(以及没有几何范围的动作), 保持提交顺序.
+     * 远离视口的笔画不会影响视口内的绘制结果, 客户端据此只渲染可见区域.
+     */
+    public synchronized ViewportState getActionsInViewport(Viewport viewport) {
+        int[] ids = spatialIndex.query(viewport.getMinX(), viewport.getMinY(),
+                viewport.getMaxX(), viewport.getMaxY());
+        List<Action> actions = new ArrayList<>(ids.length);
+        long[] sequences = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            actions.add(globalActions.get(ids[i]));
+            sequences[i] = baseSequence + ids[i] + 1;
+        }
+        return new ViewportState(viewport, getLastSequence(), sequences, actions);
+    }
+
+    private void rebuildSpatialIndex() {
+        long start = System.currentTimeMillis();
+        spatialIndex = new SpatialIndex();
+        for (Action action : globalActions) {
+            spatialIndex.add(action);
+        }
+        System.out.println("Spatial index built: " + spatialIndex.size() + " actions in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // 所有编辑者尚未提交的动作
+    public synchronized List<Action> getPendingActions() {
+        return pendingActions();
+    }
+
+    public synchronized long getBaseSequence() {
+        return baseSequence;
+    }
+
+    // 最后一个已提交动作的序号
+    public synchronized long getLastSequence() {
+        return baseSequence + globalActions.size();
+    }
+
+    // 已提交历史中的动作数
+    public synchronized int getHistorySize() {
+        return globalActions.size();
+    }
+
+    // 清空所有历史记录, 清空后的检查点在锁外写盘
+    public void clear() {
+        PendingCheckpoint pending;
+        synchronized (this) {
+            // 清空也占用一个序号, 让持有旧序号的客户端都收到完整快照
+            baseSequence = getLastSequence() + 1;
+            globalActions.clear();
+            spatialIndex.clear();
+            committedVersion++;
+            for (EditSession session : editors.values()) {
+                session.actions = ActionStack.EMPTY;
+                session.redoStack = ActionStack.EMPTY;
+            }
+            logReset();
+            for (DraftListener listener : listeners) {
+                listener.reset();
+            }
+            pending = persistAfterReset();
+        }
+        if (pending != null) {
+            completeCheckpoint(pending);
+        }
     }
 
-    public static String getCurrentEditor() {
-        return currentEditor;
+    /**
+     * 复制用: 持锁取得完整状态, 并在同一次加锁内交给consumer. 之后的变化都在这之后通知监听器,
+     * consumer中登记的接收方既不会漏掉也不会重复收到快照之后的变化.
+     */
+    public synchronized void exportReplica(Consumer<ReplicaSnapshot> consumer) {
+        List<String> names = new ArrayList<>(editors.size());
+        List<List<Action>> pending = new ArrayList<>(editors.size());
+        List<List<Action>> redo = new ArrayList<>(editors.size());
+        for (EditSession session : editors.values()) {
+            names.add(session.username);
+            pending.add(session.actions.toList());
+            redo.add(session.redoStack.toList());
+        }
+        consumer.accept(new ReplicaSnapshot(baseSequence, globalActions.snapshot(), names, pending, redo));
+    }
+
+    // 只读副本: 用主服务器的快照替换全部状态
+    public synchronized void resetReplica(ReplicaSnapshot snapshot) {
+        baseSequence = snapshot.getBaseSequence();
+        globalActions = newHistory(snapshot.getCommitted());
+        rebuildSpatialIndex();
+        committedVersion++;
+        editors.clear();
+        for (int i = 0; i < snapshot.getEditors().size(); i++) {
+            EditSession session = new EditSession(snapshot.getEditors().get(i), null, null);
+            session.actions = stackOf(snapshot.getPending().get(i));
+            session.redoStack = stackOf(snapshot.getRedo().get(i));
+            editors.put(session.username, session);
+        }
+        for (DraftListener listener : listeners) {
+            listener.reset();
+        }
+    }
+
+    private static ActionStack stackOf(List<Action> actions) {
+        ActionStack stack = ActionStack.EMPTY;
+        for (Action action : actions) {
+            stack = stack.push(action);
+        }
+        return stack;
+    }
+
+    // 只读副本: 重放主服务器上已生效的一批动作, 副本上没有租约, 编辑者第一次出现时创建
+    public synchronized void applyReplicaEdits(String username, List<Action> actions) {
+        EditSession session = editors.computeIfAbsent(username, name -> new EditSession(name, null, null));
+        for (Action action : actions) {
+            if (action instanceof MainAction.UndoAction) {
+                undoAction(username);
+            } else if (action instanceof MainAction.RedoAction) {
+                redoAction(username);
+            } else {
+                session.actions = session.actions.push(action);
+                session.redoStack = ActionStack.EMPTY;
+            }
+        }
     }
 
-    public static void setCurrentEditor(String editor) {
-        currentEditor = editor;
+    /**
+     * 只读副本: 追加主服务器上的一次提交并删除该编辑者的未提交状态.
+     * fromSequence与本地最新序号不一致(漏掉了记录)时不做修改并返回false, 调用方应重新取快照.
+     */
+    public synchronized boolean commitReplica(String username, long fromSequence, List<Action> actions) {
+        if (fromSequence != getLastSequence()) {
+            return false;
+        }
+        editors.remove(username);
+        appendCommitted(actions);
+        for (DraftListener listener : listeners) {
+            listener.committed(username, fromSequence, actions);
+        }
+        return true;
+    }
+
+    // Getter和Setter
+    public synchronized boolean isBeingEdited() {
+        return !editors.isEmpty();
+    }
+
+    // 持有编辑租约的用户名
+    public synchronized List<String> getEditors() {
+        return new ArrayList<>(editors.keySet());
     }
 
     // 序列化状态的内部类
     private static class DraftState implements Serializable {
+        // 与旧版本local_draft.ser保持兼容
+        private static final long serialVersionUID = 0x3d3458ca76eae60aL;
         private final List<Action> globalActions;
+        // 该快照已包含的最后一个日志段, 旧文件中为0
+        private long coveredLogSegment;
 
-        public DraftState(List<Action> globalActions) {
+        public DraftState(List<Action> globalActions, long coveredLogSegment) {
             this.globalActions = globalActions;
+            this.coveredLogSegment = coveredLogSegment;
         }
 
         public List<Action> getGlobalActions() {
             return globalActions;
         }
+
+        public long getCoveredLogSegment() {
+            return coveredLogSegment;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package server.util;
+
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.models.Viewport;
+
+// 一个编辑者的租约和未提交状态, 由所属DraftManager的锁保护
+class EditSession {
+    final String username;
+    // 租约区域, null表示整个画板
+    Viewport region;
+    // 申请租约的连接, 同一用户名的旧连接离开时据此判断租约是否属于它; null表示不区分连接
+    Object owner;
+    // 未提交的动作, 栈顶为最后一个; 不可变, 取状态快照时直接引用
+    ActionStack actions = ActionStack.EMPTY;
+    // 被撤销的动作, 重做时按后进先出放回
+    ActionStack redoStack = ActionStack.EMPTY;
+
+    EditSession(String username, Viewport region, Object owner) {
+        this.username = username;
+        this.region = region;
+        this.owner = owner;
+    }
+
+    // 两个租约是否冲突: 整个画板的租约与任何租约冲突, 区域只在边上相接不算冲突
+    boolean conflictsWith(Viewport other) {
+        if (region == null || other == null) {
+            return true;
+        }
+        return region.getMinX() < other.getMaxX() && other.getMinX() < region.getMaxX()
+                && region.getMinY() < other.getMaxY() && other.getMinY() < region.getMaxY();
+    }
+
+    // 区域租约只接受外接矩形与区域相交的动作, 清空画板只允许整个画板的租约
+    boolean accepts(Action action) {
+        if (region == null) {
+            return true;
+        }
+        if (action instanceof MainAction.UndoAllAction) {
+            return false;
+        }
+        double[] box = SpatialIndex.bounds(action);
+        return box != null && box[0] <= region.getMaxX() && box[2] >= region.getMinX()
+                && box[1] <= region.getMaxY() && box[3] >= region.getMinY();
+    }
+}
@@ -0,0 +1,306 @@
+package server.util;
+
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Ellipse;
+import javafx.scene.shape.Rectangle;
+import server.codec.BinaryCodec;
+import server.codec.BinaryWriter;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把已提交历史压缩成画出来结果相同的更短序列:
+ * 丢弃最后一次清空(UndoAllAction)及其之前的动作; 丢弃被之后的不透明矩形完全盖住的动作;
+ * 把首尾相接、方向相同、颜色和线宽相同的不透明线段合并成一段.
+ * 画法与客户端一致: 矩形在起止点围成的框内填充, 线段为圆头, 不透明颜色重叠处结果不变.
+ */
+public class HistorySquasher {
+    // 覆盖判断留出的边距(画布单位), 抗锯齿的矩形边缘不能完全盖住底下的像素
+    private static final double COVER_MARGIN = 1.0;
+    // 覆盖矩形按网格登记, 只和所在格子里的矩形比较
+    private static final double CELL_SIZE = 256;
+    // 跨越格子数超过此值的大矩形不登记到格子, 每次都比较
+    private static final int MAX_CELLS_PER_COVER = 4096;
+    private static final double COLLINEAR_EPSILON = 1e-9;
+
+    public static Result squash(List<Action> actions) {
+        int start = 0;
+        for (int i = actions.size() - 1; i >= 0; i--) {
+            if (actions.get(i) instanceof MainAction.UndoAllAction) {
+                // 压缩后的历史作为完整快照下发, 客户端会先清空画布, 清空动作本身也不需要保留
+                start = i + 1;
+                break;
+            }
+        }
+        List<Action> visible = dropCovered(actions.subList(start, actions.size()));
+        int covered = actions.size() - start - visible.size();
+        List<Action> merged = mergeSegments(visible);
+        return new Result(actions, merged, start, covered, visible.size() - merged.size());
+    }
+
+    // 从后往前扫描, 登记已经扫过的不透明矩形, 被其中一个完全包含的动作丢弃
+    private static List<Action> dropCovered(List<Action> actions) {
+        Map<Long, List<double[]>> cells = new HashMap<>();
+        List<double[]> large = new ArrayList<>();
+        boolean[] dropped = new boolean[actions.size()];
+        int kept = 0;
+        for (int i = actions.size() - 1; i >= 0; i--) {
+            Action action = actions.get(i);
+            double[] box = SpatialIndex.bounds(action);
+            if (box != null && isCovered(box, cells, large)) {
+                dropped[i] = true;
+                continue;
+            }
+            kept++;
+            double[] cover = coverOf(action);
+            if (cover != null) {
+                addCover(cover, cells, large);
+            }
+        }
+        List<Action> result = new ArrayList<>(kept);
+        for (int i = 0; i < actions.size(); i++) {
+            if (!dropped[i]) {
+                result.add(actions.get(i));
+            }
+        }
+        return result;
+    }
+
+    // 不透明矩形的可靠覆盖范围(已向内缩进边距), 其他动作返回null
+    private static double[] coverOf(Action action) {
+        if (!(action instanceof MainAction.DrawAction)) {
+            return null;
+        }
+        MainAction.DrawAction draw = (MainAction.DrawAction) action;
+        if (draw.getShapeClass() != Rectangle.class || !isOpaque(draw.getColor())) {
+            return null;
+        }
+        double[] cover = {
+                Math.min(draw.getStartX(), draw.getEndX()) + COVER_MARGIN,
+                Math.min(draw.getStartY(), draw.getEndY()) + COVER_MARGIN,
+                Math.max(draw.getStartX(), draw.getEndX()) - COVER_MARGIN,
+                Math.max(draw.getStartY(), draw.getEndY()) - COVER_MARGIN};
+        if (!(cover[0] < cover[2] && cover[1] < cover[3])) {
+            return null;
+        }
+        return cover;
+    }
+
+    private static void addCover(double[] cover, Map<Long, List<double[]>> cells, List<double[]> large) {
+        long minCellX = cell(cover[0]);
+        long minCellY = cell(cover[1]);
+        long maxCellX = cell(cover[2]);
+        long maxCellY = cell(cover[3]);
+        if ((maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > MAX_CELLS_PER_COVER) {
+            large.add(cover);
+            return;
+        }
+        for (long y = minCellY; y <= maxCellY; y++) {
+            for (long x = minCellX; x <= maxCellX; x++) {
+                cells.computeIfAbsent(cellKey(x, y), k -> new ArrayList<>()).add(cover);
+            }
+        }
+    }
+
+    // 能包含box的矩形一定覆盖box左上角所在的格子
+    private static boolean isCovered(double[] box, Map<Long, List<double[]>> cells, List<double[]> large) {
+        List<double[]> candidates = cells.get(cellKey(cell(box[0]), cell(box[1])));
+        return contains(candidates, box) || contains(large, box);
+    }
+
+    private static boolean contains(List<double[]> covers, double[] box) {
+        if (covers == null) {
+            return false;
+        }
+        for (double[] cover : covers) {
+            if (box[0] >= cover[0] && box[1] >= cover[1] && box[2] <= cover[2] && box[3] <= cover[3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long cell(double value) {
+        return (long) Math.floor(value / CELL_SIZE);
+    }
+
+    private static long cellKey(long x, long y) {
+        return (x << 32) ^ (y & 0xffffffffL);
+    }
+
+    // 合并相邻的共线线段, 合并后的线段继续与下一段比较
+    private static List<Action> mergeSegments(List<Action> actions) {
+        List<Action> result = new ArrayList<>(actions.size());
+        MainAction.DrawAction previous = null;
+        for (Action action : actions) {
+            if (previous != null && action instanceof MainAction.DrawAction
+                    && canMerge(previous, (MainAction.DrawAction) action)) {
+                MainAction.DrawAction next = (MainAction.DrawAction) action;
+                previous = new MainAction.DrawAction(previous.getStartX(), previous.getStartY(),
+                        next.getEndX(), next.getEndY(), previous.getColor(), previous.getLineWidth(),
+                        previous.getShapeClass());
+                result.set(result.size() - 1, previous);
+                continue;
+            }
+            result.add(action);
+            previous = action instanceof MainAction.DrawAction && isSegment((MainAction.DrawAction) action)
+                    ? (MainAction.DrawAction) action : null;
+        }
+        return result;
+    }
+
+    private static boolean canMerge(MainAction.DrawAction a, MainAction.DrawAction b) {
+        if (!isSegment(b) || a.getShapeClass() != b.getShapeClass()
+                || a.getLineWidth() != b.getLineWidth() || !a.getColor().equals(b.getColor())) {
+            return false;
+        }
+        if (a.getEndX() != b.getStartX() || a.getEndY() != b.getStartY()) {
+            return false;
+        }
+        double ax = a.getEndX() - a.getStartX();
+        double ay = a.getEndY() - a.getStartY();
+        double bx = b.getEndX() - b.getStartX();
+        double by = b.getEndY() - b.getStartY();
+        double lengths = Math.hypot(ax, ay) * Math.hypot(bx, by);
+        if (lengths == 0) {
+            return false;
+        }
+        double cross = ax * by - ay * bx;
+        double dot = ax * bx + ay * by;
+        return dot > 0 && Math.abs(cross) <= COLLINEAR_EPSILON * lengths;
+    }
+
+    // 按线段画的图形(矩形/圆/椭圆以外), 颜色不透明时才能合并而不改变重叠处的颜色
+    private static boolean isSegment(MainAction.DrawAction draw) {
+        Class<?> shape = draw.getShapeClass();
+        return shape != Rectangle.class && shape != Ellipse.class && shape != Circle.class
+                && isOpaque(draw.getColor());
+    }
+
+    // 颜色为JavaFX Color.toString()格式(0xRRGGBBAA)或#RRGGBB
+    private static boolean isOpaque(String color) {
+        if (color == null) {
+            return false;
+        }
+        if (color.startsWith("0x") && color.length() == 10) {
+            return color.regionMatches(true, 8, "ff", 0, 2);
+        }
+        return color.startsWith("#") && color.length() == 7;
+    }
+
+    // 按二进制编码计算历史的大小, 即新加入者下载完整历史的字节数
+    static long encodedBytes(List<Action> actions) {
+        BinaryWriter out = new BinaryWriter(256);
+        long total = 0;
+        for (Action action : actions) {
+            out.reset();
+            try {
+                BinaryCodec.writeAction(out, action);
+            } catch (IOException e) {
+                // 没有二进制编码的动作不计入
+                continue;
+            }
+            total += out.size();
+        }
+        return total;
+    }
+
+    // 重放耗时: 与加载历史时一样把动作逐个建入空间索引
+    static long replayNanos(List<Action> actions) {
+        long start = System.nanoTime();
+        SpatialIndex index = new SpatialIndex();
+        for (Action action : actions) {
+            index.add(action);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 一次压缩的结果: 压缩后的动作以及各规则去掉的动作数、编码大小和重放耗时的前后对比.
+     */
+    public static class Result {
+        private final List<Action> actions;
+        private final int originalSize;
+        private final int cleared;
+        private final int covered;
+        private final int merged;
+        private final long originalBytes;
+        private final long squashedBytes;
+        private final long originalReplayNanos;
+        private final long squashedReplayNanos;
+
+        Result(List<Action> original, List<Action> actions, int cleared, int covered, int merged) {
+            this.actions = actions;
+            this.originalSize = original.size();
+            this.cleared = cleared;
+            this.covered = covered;
+            this.merged = merged;
+            this.originalBytes = encodedBytes(original);
+            this.squashedBytes = encodedBytes(actions);
+            this.originalReplayNanos = replayNanos(original);
+            this.squashedReplayNanos = replayNanos(actions);
+        }
+
+        public List<Action> getActions() {
+            return actions;
+        }
+
+        public int getOriginalSize() {
+            return originalSize;
+        }
+
+        public int getSquashedSize() {
+            return actions.size();
+        }
+
+        // 清空之前的动作数(含清空动作本身)
+        public int getCleared() {
+            return cleared;
+        }
+
+        public int getCovered() {
+            return covered;
+        }
+
+        // 合并掉的线段数
+        public int getMerged() {
+            return merged;
+        }
+
+        public int getRemoved() {
+            return originalSize - actions.size();
+        }
+
+        public long getOriginalBytes() {
+            return originalBytes;
+        }
+
+        public long getSquashedBytes() {
+            return squashedBytes;
+        }
+
+        public long getOriginalReplayNanos() {
+            return originalReplayNanos;
+        }
+
+        public long getSquashedReplayNanos() {
+            return squashedReplayNanos;
+        }
+
+        @Override
+        public String toString() {
+            double removed = originalSize == 0 ? 0 : 100.0 * getRemoved() / originalSize;
+            double speedup = squashedReplayNanos == 0 ? 1 : (double) originalReplayNanos / squashedReplayNanos;
+            return String.format("%d -> %d actions (-%.1f%%: %d cleared, %d covered, %d merged), "
+                            + "%d -> %d bytes, replay %.2f -> %.2f ms (%.1fx)",
+                    originalSize, actions.size(), removed, cleared, covered, merged,
+                    originalBytes, squashedBytes, originalReplayNanos / 1e6, squashedReplayNanos / 1e6, speedup);
+        }
+    }
+}
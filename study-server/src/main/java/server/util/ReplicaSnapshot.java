@@ -0,0 +1,51 @@
+package server.util;
+
+import server.models.MainAction.Action;
+
+import java.util.List;
+
+/**
+ * 一个画板的完整草图状态, 由主服务器发给只读副本: 已提交历史及其起点序号,
+ * 以及按获得租约的先后排列的编辑者和他们的未提交动作、重做栈(都从栈底到栈顶).
+ */
+public class ReplicaSnapshot {
+    private final long baseSequence;
+    private final List<Action> committed;
+    private final List<String> editors;
+    private final List<List<Action>> pending;
+    private final List<List<Action>> redo;
+
+    public ReplicaSnapshot(long baseSequence, List<Action> committed, List<String> editors,
+            List<List<Action>> pending, List<List<Action>> redo) {
+        this.baseSequence = baseSequence;
+        this.committed = committed;
+        this.editors = editors;
+        this.pending = pending;
+        this.redo = redo;
+    }
+
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    public List<Action> getCommitted() {
+        return committed;
+    }
+
+    public List<String> getEditors() {
+        return editors;
+    }
+
+    public List<List<Action>> getPending() {
+        return pending;
+    }
+
+    public List<List<Action>> getRedo() {
+        return redo;
+    }
+
+    // 最后一个已提交动作的序号
+    public long getLastSequence() {
+        return baseSequence + committed.size();
+    }
+}
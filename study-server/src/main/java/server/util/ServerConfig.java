@@ -0,0 +1,73 @@
+package server.util;
+
+import java.io.*;
+import java.util.Properties;
+
+public class ServerConfig {
+    private static final String CONFIG_FILE = "src/main/resources/server-config.properties";
+    private static final Properties props = new Properties();
+    private static boolean loaded = false;
+
+    // 加载服务端配置文件
+    public static synchronized void load() throws IOException {
+        try (InputStream input = new FileInputStream(CONFIG_FILE)) {
+            props.load(input);
+            loaded = true;
+        }
+    }
+
+    private static synchronized void ensureLoaded() {
+        if (!loaded) {
+            try {
+                load();
+            } catch (IOException e) {
+                // 配置文件缺失时全部使用默认值
+                loaded = true;
+            }
+        }
+    }
+
+    // 同名的系统属性(-Dkey=value)优先于配置文件, 供压测工具等在同一进程内启动服务时覆盖
+    public static String getString(String key, String defaultValue) {
+        ensureLoaded();
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = props.getProperty(key);
+        }
+        return value == null ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+}
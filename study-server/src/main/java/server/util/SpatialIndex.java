@@ -0,0 +1,273 @@
+package server.util;
+
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.util.Arrays;
+
+/**
+ * 已提交动作的四叉树索引, 条目编号为动作在globalActions中的下标.
+ * 每个条目存放在能完整包含其外接矩形的最深节点; 根节点在条目落到范围外时按倍数向外扩展.
+ * 没有几何范围的动作(如UndoAllAction)单独记录, 每次查询都会返回.
+ */
+public class SpatialIndex {
+    private static final int MAX_NODE_ITEMS = 16;
+    private static final double MIN_NODE_SIZE = 1.0;
+    private static final double INITIAL_ROOT_SIZE = 1024;
+    // 文字没有精确外接矩形, 按字号估算
+    private static final double MIN_FONT_SIZE = 12;
+
+    // 条目外接矩形, 下标为条目编号; 用float并向外取整以减少内存
+    private float[] minXs = new float[1024];
+    private float[] minYs = new float[1024];
+    private float[] maxXs = new float[1024];
+    private float[] maxYs = new float[1024];
+    private int size = 0;
+
+    private Node root;
+    private int[] globalIds = new int[8];
+    private int globalCount = 0;
+
+    private static class Node {
+        final double minX;
+        final double minY;
+        final double size;
+        Node[] children;
+        int[] ids;
+        int count;
+
+        Node(double minX, double minY, double size) {
+            this.minX = minX;
+            this.minY = minY;
+            this.size = size;
+        }
+
+        boolean contains(double x0, double y0, double x1, double y1) {
+            return x0 >= minX && y0 >= minY && x1 <= minX + size && y1 <= minY + size;
+        }
+
+        boolean intersects(double x0, double y0, double x1, double y1) {
+            return x0 <= minX + size && x1 >= minX && y0 <= minY + size && y1 >= minY;
+        }
+
+        void add(int id) {
+            if (ids == null) {
+                ids = new int[4];
+            } else if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+    }
+
+    // 条目按提交顺序追加, id须等于当前size()
+    public void add(Action action) {
+        int id = size;
+        ensureCapacity(id + 1);
+        size++;
+        double[] box = bounds(action);
+        if (box == null || !isFinite(box)) {
+            if (globalCount == globalIds.length) {
+                globalIds = Arrays.copyOf(globalIds, globalCount * 2);
+            }
+            globalIds[globalCount++] = id;
+            minXs[id] = Float.NaN;
+            return;
+        }
+        minXs[id] = Math.nextDown((float) box[0]);
+        minYs[id] = Math.nextDown((float) box[1]);
+        maxXs[id] = Math.nextUp((float) box[2]);
+        maxYs[id] = Math.nextUp((float) box[3]);
+        insert(id, minXs[id], minYs[id], maxXs[id], maxYs[id]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        root = null;
+        globalCount = 0;
+    }
+
+    /**
+     * 查询与矩形相交的条目, 结果按编号(即提交顺序)升序, 包含所有无几何范围的条目.
+     */
+    public int[] query(double x0, double y0, double x1, double y1) {
+        IntList hits = new IntList();
+        if (root != null) {
+            query(root, x0, y0, x1, y1, hits);
+        }
+        for (int i = 0; i < globalCount; i++) {
+            hits.add(globalIds[i]);
+        }
+        int[] result = hits.toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void query(Node node, double x0, double y0, double x1, double y1, IntList hits) {
+        if (!node.intersects(x0, y0, x1, y1)) {
+            return;
+        }
+        for (int i = 0; i < node.count; i++) {
+            int id = node.ids[i];
+            if (minXs[id] <= x1 && maxXs[id] >= x0 && minYs[id] <= y1 && maxYs[id] >= y0) {
+                hits.add(id);
+            }
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child != null) {
+                    query(child, x0, y0, x1, y1, hits);
+                }
+            }
+        }
+    }
+
+    private void insert(int id, double x0, double y0, double x1, double y1) {
+        if (root == null) {
+            double size = INITIAL_ROOT_SIZE;
+            while (size < x1 - x0 || size < y1 - y0) {
+                size *= 2;
+            }
+            root = new Node(Math.floor(x0 / size) * size, Math.floor(y0 / size) * size, size);
+        }
+        while (!root.contains(x0, y0, x1, y1)) {
+            grow(x0, y0);
+        }
+        Node node = root;
+        while (true) {
+            if (node.children == null) {
+                node.add(id);
+                if (node.count > MAX_NODE_ITEMS && node.size / 2 >= MIN_NODE_SIZE) {
+                    split(node);
+                }
+                return;
+            }
+            Node child = childFor(node, x0, y0, x1, y1, true);
+            if (child == null) {
+                node.add(id);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    // 根节点扩大一倍, 原根成为新根的一个象限
+    private void grow(double towardX, double towardY) {
+        double size = root.size;
+        double minX = towardX < root.minX ? root.minX - size : root.minX;
+        double minY = towardY < root.minY ? root.minY - size : root.minY;
+        Node newRoot = new Node(minX, minY, size * 2);
+        newRoot.children = new Node[4];
+        newRoot.children[quadrant(newRoot, root.minX, root.minY)] = root;
+        root = newRoot;
+    }
+
+    private static int quadrant(Node node, double x, double y) {
+        double half = node.size / 2;
+        return (x >= node.minX + half ? 1 : 0) + (y >= node.minY + half ? 2 : 0);
+    }
+
+    // 返回能完整包含矩形的子节点, 没有则返回null
+    private static Node childFor(Node node, double x0, double y0, double x1, double y1, boolean create) {
+        double half = node.size / 2;
+        double midX = node.minX + half;
+        double midY = node.minY + half;
+        int quadrant;
+        if (x1 <= midX) {
+            quadrant = 0;
+        } else if (x0 >= midX) {
+            quadrant = 1;
+        } else {
+            return null;
+        }
+        if (y1 <= midY) {
+            // 上半部分
+        } else if (y0 >= midY) {
+            quadrant += 2;
+        } else {
+            return null;
+        }
+        Node child = node.children[quadrant];
+        if (child == null && create) {
+            child = new Node(node.minX + (quadrant & 1) * half, node.minY + (quadrant >> 1) * half, half);
+            node.children[quadrant] = child;
+        }
+        return child;
+    }
+
+    private void split(Node node) {
+        node.children = new Node[4];
+        int[] ids = node.ids;
+        int count = node.count;
+        node.ids = null;
+        node.count = 0;
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            Node child = childFor(node, minXs[id], minYs[id], maxXs[id], maxYs[id], true);
+            (child != null ? child : node).add(id);
+        }
+    }
+
+    private static boolean isFinite(double[] box) {
+        for (double value : box) {
+            if (!Double.isFinite(value) || Math.abs(value) > Float.MAX_VALUE / 4) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > minXs.length) {
+            int newLength = Math.max(capacity, minXs.length * 2);
+            minXs = Arrays.copyOf(minXs, newLength);
+            minYs = Arrays.copyOf(minYs, newLength);
+            maxXs = Arrays.copyOf(maxXs, newLength);
+            maxYs = Arrays.copyOf(maxYs, newLength);
+        }
+    }
+
+    // 动作的外接矩形 {minX, minY, maxX, maxY}, 无几何范围时返回null
+    public static double[] bounds(Action action) {
+        if (action instanceof MainAction.DrawAction) {
+            MainAction.DrawAction draw = (MainAction.DrawAction) action;
+            double pad = Math.max(0, draw.getLineWidth()) / 2;
+            return new double[]{
+                    Math.min(draw.getStartX(), draw.getEndX()) - pad,
+                    Math.min(draw.getStartY(), draw.getEndY()) - pad,
+                    Math.max(draw.getStartX(), draw.getEndX()) + pad,
+                    Math.max(draw.getStartY(), draw.getEndY()) + pad};
+        }
+        if (action instanceof MainAction.TextAction) {
+            MainAction.TextAction text = (MainAction.TextAction) action;
+            double fontSize = Math.max(MIN_FONT_SIZE, text.getLineWidth());
+            int length = text.getText() == null ? 0 : text.getText().length();
+            return new double[]{
+                    text.getX(),
+                    text.getY() - fontSize * 1.2,
+                    text.getX() + Math.max(1, length) * fontSize,
+                    text.getY() + fontSize * 0.3};
+        }
+        return null;
+    }
+
+    private static class IntList {
+        private int[] values = new int[64];
+        private int count = 0;
+
+        void add(int value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, count);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package server.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 启动各阶段计时: phase()打印上一阶段结束到现在的耗时, ready()打印从JVM启动到可以接受连接的总时间.
+ */
+public class StartupTimer {
+    private static long phaseStart = System.nanoTime();
+    private static boolean readyReported = false;
+
+    // main()开始时调用, 打印JVM自身启动的耗时并开始计第一个阶段
+    public static synchronized void begin() {
+        phaseStart = System.nanoTime();
+        long sinceJvmStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.printf("[startup] %-16s %8d ms%n", "jvm", sinceJvmStart);
+    }
+
+    public static synchronized void phase(String name) {
+        long now = System.nanoTime();
+        System.out.printf("[startup] %-16s %8.1f ms%n", name, (now - phaseStart) / 1e6);
+        phaseStart = now;
+    }
+
+    // 后台阶段单独计时, 不影响主线程的阶段划分
+    public static void background(String name, long startNanos) {
+        System.out.printf("[startup] %-16s %8.1f ms (background)%n", name, (System.nanoTime() - startNanos) / 1e6);
+    }
+
+    // 监听端口绑定后调用, 只打印第一次
+    public static synchronized void ready() {
+        if (readyReported) {
+            return;
+        }
+        readyReported = true;
+        phase("listen");
+        long sinceJvmStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println("[startup] ready to accept connections " + sinceJvmStart + " ms after JVM start");
+    }
+}
@@ -0,0 +1,69 @@
+package server.util;
+
+import server.models.MainAction.Action;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 画板完整状态的不可变视图: 已提交历史的快照加上各编辑者未提交的动作(按获得租约的先后).
+ * 在DraftManager锁内构造只需O(编辑者数), 未提交部分在锁外第一次读取时才展开.
+ * 序列化时替换为ArrayList, 客户端不需要这个类.
+ */
+class StateSnapshot extends AbstractList<Action> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 0x55b513b4afd7ea5dL;
+    // 序列化时整体换成ArrayList, 这两个字段不会写出
+    private final transient List<Action> committed;
+    private final transient ActionStack[] pending;
+    private final int size;
+    private transient volatile Action[] flattened;
+
+    StateSnapshot(List<Action> committed, ActionStack[] pending) {
+        this.committed = committed;
+        this.pending = pending;
+        int total = committed.size();
+        for (ActionStack stack : pending) {
+            total += stack.size();
+        }
+        this.size = total;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Action get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int committedSize = committed.size();
+        if (index < committedSize) {
+            return committed.get(index);
+        }
+        return flattened()[index - committedSize];
+    }
+
+    // 多个线程同时展开时结果相同, 不需要加锁
+    private Action[] flattened() {
+        Action[] actions = flattened;
+        if (actions == null) {
+            actions = new Action[size - committed.size()];
+            int offset = 0;
+            for (ActionStack stack : pending) {
+                stack.copyInto(actions, offset);
+                offset += stack.size();
+            }
+            flattened = actions;
+        }
+        return actions;
+    }
+
+    private Object writeReplace() {
+        return new ArrayList<>(this);
+    }
+}
@@ -0,0 +1,108 @@
+package server.util;
+
+import server.models.UserSession;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按学号缓存用户表的查询结果, 超过容量时淘汰最久没访问的(LRU).
+ * 也缓存"查无此人", 新学生注册时第二次查询不必再访问数据库.
+ */
+class UserCache {
+    /** 未命中时按学号读取一行, 没有这个学号时返回null */
+    interface Loader {
+        UserSession load(String studentId) throws SQLException;
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, UserSession> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    // 写入和作废的次数, get()据此判断读库期间缓存是否被改过
+    private long writes = 0;
+
+    UserCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserSession> eldest) {
+                if (size() > UserCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 查缓存, 未命中时由loader读取并缓存结果(包括查无此人).
+     * 读库时不持有缓存的锁; 期间该学号已被写入或作废的, 以写入的为准, 读到的结果不放入缓存.
+     */
+    UserSession get(String studentId, Loader loader) throws SQLException {
+        long generation;
+        synchronized (this) {
+            if (entries.containsKey(studentId)) {
+                hits++;
+                return entries.get(studentId);
+            }
+            misses++;
+            generation = writes;
+        }
+        UserSession user = loader.load(studentId);
+        synchronized (this) {
+            if (writes == generation) {
+                entries.put(studentId, user);
+            }
+        }
+        return user;
+    }
+
+    // user为null表示数据库中没有这个学号
+    synchronized void put(String studentId, UserSession user) {
+        writes++;
+        entries.put(studentId, user);
+    }
+
+    // 只更新已缓存的用户, 不因为写操作把冷数据挤进缓存; 缓存里记为不存在的条目作废
+    synchronized void updateIpAddress(String studentId, String ipAddress) {
+        writes++;
+        UserSession user = entries.get(studentId);
+        if (user != null) {
+            entries.put(studentId, new UserSession(user.getUsername(), studentId, ipAddress));
+        } else {
+            entries.remove(studentId);
+        }
+    }
+
+    synchronized void invalidate(String studentId) {
+        writes++;
+        entries.remove(studentId);
+    }
+
+    synchronized void clear() {
+        writes++;
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d",
+                entries.size(), capacity, hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions);
+    }
+}
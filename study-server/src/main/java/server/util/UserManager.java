@@ -3,11 +3,38 @@ package server.util;
 import server.models.UserSession;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UserManager {
-    
+    // 按学号缓存的用户, 查询和登录时先查缓存; 启动时由warmCache()预先装入
+    private static final UserCache cache = new UserCache(ServerConfig.getInt("user.cacheSize", 10000));
+    // 注册时的写库交给后台批量完成, 不占用处理连接的线程
+    private static final UserWriteBehind writer = new UserWriteBehind(
+            ServerConfig.getInt("user.writeBatchSize", 200),
+            ServerConfig.getLong("user.writeFlushMillis", 200),
+            ServerConfig.getLong("user.writeRetryMaxMillis", 30000));
+    // server.userStore=memory时只用内存中的用户表, 不连数据库
+    private static final boolean memoryOnly =
+            "memory".equalsIgnoreCase(ServerConfig.getString("server.userStore", "mysql"));
+    // 数据库就绪前(或memory模式下)登录的用户, 供查询使用; 写库仍由writer在就绪后补上
+    private static final Map<String, UserSession> localUsers = new ConcurrentHashMap<>();
+
+    public static boolean isMemoryOnly() {
+        return memoryOnly;
+    }
+
+    // 后台初始化数据库成功后调用: 立即补写排队的登录记录, 再从数据库预热缓存
+    public static void onDatabaseReady() {
+        writer.retryNow();
+        warmCache();
+    }
+
     public static Set<UserSession> loadUsers() {
         Set<UserSession> users = new HashSet<>();
+        if (!DatabaseUtil.isReady()) {
+            users.addAll(localUsers.values());
+            return users;
+        }
         Connection conn = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
@@ -32,63 +59,153 @@ public class UserManager {
         }
         return users;
     }
-    
-    private static void closeResources(ResultSet rs, Statement stmt, Connection conn) {
-        try {
-            if (rs != null) rs.close();
-            if (stmt != null) stmt.close();
-            if (conn != null) DatabaseUtil.releaseConnection(conn);
-        } catch (SQLException e) {
-            e.printStackTrace();
+
+    // 用整张用户表填充缓存(超出容量的部分按LRU淘汰), 上课开始时的集中注册就不用逐个查库
+    public static void warmCache() {
+        long start = System.nanoTime();
+        Set<UserSession> users = loadUsers();
+        for (UserSession user : users) {
+            cache.put(user.getStudentId(), user);
         }
+        System.out.printf("User cache warmed with %d users in %.1f ms%n",
+                cache.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    public static String getCacheStats() {
+        return cache.stats();
+    }
+
+    /**
+     * 记录一次登录, 返回库中保存的用户: 新学号插入, 已有学号更新IP, 用户名以库里的为准.
+     * 先按学号查缓存(未命中时查库), 同一地址再次登录不写库; 写库由后台线程批量进行.
+     */
+    public static UserSession recordLogin(String username, String studentId, String ipAddress) {
+        if (memoryOnly || !DatabaseUtil.isReady()) {
+            UserSession user = rememberLocally(username, studentId, ipAddress);
+            if (!memoryOnly) {
+                writer.enqueue(user);
+            }
+            return user;
+        }
+        UserSession stored = getUserByStudentId(studentId);
+        if (stored != null && ipAddress.equals(stored.getIpAddress())) {
+            return stored;
+        }
+        UserSession user = new UserSession(stored != null ? stored.getUsername() : username, studentId, ipAddress);
+        // 缓存先于数据库更新, 写入完成前的查询也能看到
+        cache.put(studentId, user);
+        writer.enqueue(user);
+        return user;
+    }
+
+    // 已有的学号保留原用户名, 只更新IP
+    private static UserSession rememberLocally(String username, String studentId, String ipAddress) {
+        return localUsers.merge(studentId, new UserSession(username, studentId, ipAddress),
+                (old, latest) -> new UserSession(old.getUsername(), studentId, ipAddress));
     }
 
     public static void addUser(String username, String studentId, String ipAddress) {
+        if (memoryOnly || !DatabaseUtil.isReady()) {
+            localUsers.put(studentId, new UserSession(username, studentId, ipAddress));
+            if (!memoryOnly) {
+                writer.enqueue(new UserSession(username, studentId, ipAddress));
+            }
+            return;
+        }
         String sql = "INSERT INTO users (username, student_id, ip_address) VALUES (?, ?, ?)";
-        
+
         try (Connection conn = DatabaseUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
+
             pstmt.setString(1, username);
             pstmt.setString(2, studentId);
             pstmt.setString(3, ipAddress);
             pstmt.executeUpdate();
+            cache.put(studentId, new UserSession(username, studentId, ipAddress));
         } catch (SQLException e) {
+            // 写入结果不确定, 下次从数据库重新读取
+            cache.invalidate(studentId);
             e.printStackTrace();
         }
     }
 
     public static void updateUser(String studentId, String ipAddress) {
+        if (memoryOnly || !DatabaseUtil.isReady()) {
+            UserSession user = localUsers.computeIfPresent(studentId,
+                    (id, old) -> new UserSession(old.getUsername(), id, ipAddress));
+            if (user != null && !memoryOnly) {
+                writer.enqueue(user);
+            }
+            return;
+        }
         String sql = "UPDATE users SET ip_address = ? WHERE student_id = ?";
-        
+
         try (Connection conn = DatabaseUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
+
             pstmt.setString(1, ipAddress);
             pstmt.setString(2, studentId);
             pstmt.executeUpdate();
+            cache.updateIpAddress(studentId, ipAddress);
         } catch (SQLException e) {
+            cache.invalidate(studentId);
             e.printStackTrace();
         }
     }
 
+    // 先查缓存, 未命中时按学号(唯一索引)查一行并缓存结果, 包括查无此人
     public static UserSession getUserByStudentId(String studentId) {
-        String sql = "SELECT username, student_id, ip_address FROM users";
-        UserSession user = null;
+        if (memoryOnly || !DatabaseUtil.isReady()) {
+            return localUsers.get(studentId);
+        }
+        try {
+            return cache.get(studentId, UserManager::selectUser);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static UserSession selectUser(String studentId) throws SQLException {
+        String sql = "SELECT username, student_id, ip_address FROM users WHERE student_id = ?";
         try (Connection conn = DatabaseUtil.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql);
-             ResultSet rs = pstmt.executeQuery()) {
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            if(rs.getFetchSize() == 1){
-                user = new UserSession(
-                    rs.getString("username"),
-                    rs.getString("student_id"),
-                    rs.getString("ip_address")
-                );
+            pstmt.setString(1, studentId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return new UserSession(
+                        rs.getString("username"),
+                        rs.getString("student_id"),
+                        rs.getString("ip_address")
+                    );
+                }
             }
+        }
+        // 数据库就绪前登录的用户可能还在写入队列中
+        return localUsers.get(studentId);
+    }
+
+    public static String getWriteStats() {
+        return writer.stats();
+    }
+
+    // 关闭服务前调用: 写完队列中的登录记录, 最多等待timeoutMillis
+    public static void flushWrites(long timeoutMillis) {
+        int unsaved = writer.close(timeoutMillis);
+        if (unsaved > 0) {
+            System.err.println(unsaved + " user updates were not saved");
+        }
+        System.out.println("User writes: " + writer.stats());
+    }
+    
+    private static void closeResources(ResultSet rs, Statement stmt, Connection conn) {
+        try {
+            if (rs != null) rs.close();
+            if (stmt != null) stmt.close();
+            if (conn != null) DatabaseUtil.releaseConnection(conn);
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        return user;
     }
 }
\ No newline at end of file
@@ -0,0 +1,209 @@
+package server.util;
+
+import server.models.UserSession;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 注册信息的异步写入队列: 同一学号只保留最新一条, 攒够batchSize条或最早一条等了flushMillis后
+ * 由后台线程合并成一条INSERT ... ON DUPLICATE KEY UPDATE写入.
+ * 写入失败时整批放回队列(不覆盖期间的新记录), 按指数退避重试, 数据库恢复后自动补写.
+ */
+class UserWriteBehind {
+    /** 写入一批记录, 默认为upsert到users表 */
+    interface Sink {
+        void write(List<UserSession> batch) throws SQLException;
+    }
+
+    private final Sink sink;
+    private final int batchSize;
+    private final long flushMillis;
+    private final long maxBackoffMillis;
+
+    private final LinkedHashMap<String, UserSession> pending = new LinkedHashMap<>();
+    // 队列中最早一条的入队时间
+    private long firstPendingAt = 0;
+    private Thread thread;
+    private boolean stopping = false;
+    // 写库失败后的退避时间和下次重试的时刻, 0表示没有在退避
+    private long backoffMillis = 0;
+    private long retryAt = 0;
+
+    private long written = 0;
+    private long batches = 0;
+    private long failures = 0;
+
+    UserWriteBehind(int batchSize, long flushMillis, long maxBackoffMillis) {
+        this(UserWriteBehind::upsert, batchSize, flushMillis, maxBackoffMillis);
+    }
+
+    UserWriteBehind(Sink sink, int batchSize, long flushMillis, long maxBackoffMillis) {
+        this.sink = sink;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushMillis = Math.max(0, flushMillis);
+        this.maxBackoffMillis = Math.max(100, maxBackoffMillis);
+    }
+
+    synchronized void enqueue(UserSession user) {
+        if (stopping) {
+            System.err.println("User write queue is closed, dropping update for " + user.getStudentId());
+            return;
+        }
+        if (pending.isEmpty()) {
+            firstPendingAt = System.currentTimeMillis();
+        }
+        // 先删再放, 重复登录的学号排到队尾
+        pending.remove(user.getStudentId());
+        pending.put(user.getStudentId(), user);
+        if (thread == null) {
+            thread = new Thread(this::run, "user-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        if (pending.size() >= batchSize) {
+            notifyAll();
+        }
+    }
+
+    /** 停止接收新记录, 在timeoutMillis内写完队列中剩余的部分, 返回未能写入的条数 */
+    int close(long timeoutMillis) {
+        Thread writer;
+        synchronized (this) {
+            stopping = true;
+            writer = thread;
+            notifyAll();
+        }
+        if (writer != null) {
+            try {
+                writer.join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            return pending.size();
+        }
+    }
+
+    // 数据库刚变为可用时调用, 跳过剩余的退避时间立即重试
+    synchronized void retryNow() {
+        backoffMillis = 0;
+        retryAt = 0;
+        notifyAll();
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    synchronized String stats() {
+        return String.format("pending=%d written=%d batches=%d failures=%d",
+                pending.size(), written, batches, failures);
+    }
+
+    private void run() {
+        while (true) {
+            List<UserSession> batch;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !stopping) {
+                        wait();
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    // 退避期间等到retryAt, 否则攒够一批或等到最早一条到期; 关闭时不再等待
+                    while (!stopping) {
+                        if (retryAt == 0 && pending.size() >= batchSize) {
+                            break;
+                        }
+                        long due = retryAt != 0 ? retryAt : firstPendingAt + flushMillis;
+                        long remaining = due - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch = takeBatch();
+            }
+
+            try {
+                sink.write(batch);
+                synchronized (this) {
+                    written += batch.size();
+                    batches++;
+                    backoffMillis = 0;
+                    retryAt = 0;
+                }
+            } catch (SQLException e) {
+                long backoff;
+                synchronized (this) {
+                    failures++;
+                    requeue(batch);
+                    if (stopping) {
+                        System.err.println("Failed to save " + pending.size()
+                                + " pending user updates on shutdown: " + e.getMessage());
+                        return;
+                    }
+                    backoffMillis = backoffMillis == 0 ? 500 : Math.min(backoffMillis * 2, maxBackoffMillis);
+                    retryAt = System.currentTimeMillis() + backoffMillis;
+                    backoff = backoffMillis;
+                }
+                System.err.println("User write of " + batch.size() + " records failed, retrying in "
+                        + backoff + " ms: " + e.getMessage());
+            }
+        }
+    }
+
+    private List<UserSession> takeBatch() {
+        List<UserSession> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+        Iterator<UserSession> it = pending.values().iterator();
+        while (it.hasNext() && batch.size() < batchSize) {
+            batch.add(it.next());
+            it.remove();
+        }
+        firstPendingAt = pending.isEmpty() ? 0 : System.currentTimeMillis();
+        return batch;
+    }
+
+    // 放回失败的一批, 期间同一学号已有新记录的以新记录为准
+    private void requeue(List<UserSession> batch) {
+        LinkedHashMap<String, UserSession> merged = new LinkedHashMap<>();
+        for (UserSession user : batch) {
+            merged.put(user.getStudentId(), user);
+        }
+        merged.putAll(pending);
+        pending.clear();
+        pending.putAll(merged);
+        firstPendingAt = System.currentTimeMillis();
+    }
+
+    // 已有的学号只更新IP, 与原来"存在则updateUser"的行为一致
+    private static void upsert(List<UserSession> batch) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO users (username, student_id, ip_address) VALUES ");
+        for (int i = 0; i < batch.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE ip_address = VALUES(ip_address)");
+
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (UserSession user : batch) {
+                pstmt.setString(index++, user.getUsername());
+                pstmt.setString(index++, user.getStudentId());
+                pstmt.setString(index++, user.getIpAddress());
+            }
+            pstmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package server;
+
+import javafx.scene.shape.Line;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// 测试共用的动作: 起点x依次为first, first+1, ...的竖直线段, 用x识别动作
+public final class TestActions {
+    private TestActions() {
+    }
+
+    public static List<Action> actions(int first, int count) {
+        List<Action> actions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            actions.add(new MainAction.DrawAction(first + i, 0, first + i, 1, "0x000000ff", 1, Line.class));
+        }
+        return actions;
+    }
+
+    public static List<Double> xs(List<Action> actions) {
+        List<Double> xs = new ArrayList<>();
+        for (Action action : actions) {
+            xs.add(((MainAction.DrawAction) action).getStartX());
+        }
+        return xs;
+    }
+
+    // actions依次为actions(first, count)生成的线段
+    public static void assertXs(List<Action> actions, int first, int count) {
+        assertEquals(count, actions.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(first + i, ((MainAction.DrawAction) actions.get(i)).getStartX(), 0);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package server.codec;
+
+import javafx.scene.shape.Line;
+import javafx.scene.shape.Rectangle;
+import org.junit.Test;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.models.Message;
+import server.models.UserSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BinaryCodecTest {
+
+    @Test
+    public void drawActionRoundTripKeepsEveryField() throws IOException {
+        // 整数、float可精确表示的小数和只能用double表示的小数各一种
+        Action draw = new MainAction.DrawAction(12, 34.5, 0.1, -7, "0x12345678", 2.25, Rectangle.class);
+        assertSameAction(draw, roundTrip(draw));
+    }
+
+    @Test
+    public void textAndControlActionsRoundTrip() throws IOException {
+        List<Action> actions = Arrays.asList(
+                new MainAction.TextAction(1.5, 2, "你好, board", "0x000000ff", 1),
+                new MainAction.UndoAction(),
+                new MainAction.RedoAction(),
+                new MainAction.UndoAllAction(),
+                new MainAction.BatchAction(Arrays.asList(
+                        new MainAction.DrawAction(0, 0, 1, 1, "0xff0000ff", 3, Line.class),
+                        new MainAction.BatchAction(new ArrayList<>()))));
+        for (Action action : actions) {
+            assertSameAction(action, roundTrip(action));
+        }
+    }
+
+    @Test
+    public void randomActionsRoundTrip() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            Action action = randomAction(random);
+            assertSameAction(action, roundTrip(action));
+        }
+    }
+
+    @Test
+    public void messageRoundTripKeepsTypeUsernameAndData() throws IOException {
+        Message register = new Message(Message.Type.REGISTER, new UserSession("alice", "2023001", "10.0.0.1"), null);
+        Message decoded = decode(BinaryCodec.encode(register));
+        assertEquals(Message.Type.REGISTER, decoded.getCommand());
+        assertNull(decoded.getUsername());
+        UserSession user = (UserSession) decoded.getData();
+        assertEquals("alice", user.getUsername());
+        assertEquals("2023001", user.getStudentId());
+        assertEquals("10.0.0.1", user.getIpAddress());
+
+        Action draw = new MainAction.DrawAction(1, 2, 3, 4, "0x000000ff", 1, Line.class);
+        decoded = decode(BinaryCodec.encode(new Message(Message.Type.EDIT_ACTION, draw, "bob")));
+        assertEquals(Message.Type.EDIT_ACTION, decoded.getCommand());
+        assertEquals("bob", decoded.getUsername());
+        assertSameAction(draw, (Action) decoded.getData());
+    }
+
+    @Test
+    public void everyTruncationIsRejectedWithIOException() throws IOException {
+        List<Action> history = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            history.add(randomAction(random));
+        }
+        byte[] encoded = BinaryCodec.encode(new Message(Message.Type.INITIAL_STATE, history, "carol"));
+        for (int length = 0; length < encoded.length; length++) {
+            try {
+                BinaryCodec.decode(encoded, 0, length);
+                fail("Decoded a message truncated to " + length + " of " + encoded.length + " bytes");
+            } catch (IOException expected) {
+                // 期望的结果
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedActionCountIsRejectedBeforeAllocating() throws IOException {
+        BinaryWriter out = new BinaryWriter();
+        BinaryCodec.writeAction(out, new MainAction.BatchAction(new ArrayList<>()));
+        byte[] empty = out.toByteArray();
+        // 把动作数从0改成Integer.MAX_VALUE, 后面没有任何数据
+        BinaryWriter corrupt = new BinaryWriter();
+        corrupt.writeByte(empty[0]);
+        corrupt.writeVarInt(Integer.MAX_VALUE);
+        byte[] bytes = corrupt.toByteArray();
+        BinaryCodec.readAction(new BinaryReader(bytes, 0, bytes.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedStringLengthIsRejected() throws IOException {
+        BinaryWriter out = new BinaryWriter();
+        BinaryCodec.writeAction(out, new MainAction.TextAction(0, 0, "x", "0x000000ff", 1));
+        byte[] bytes = out.toByteArray();
+        // 标签之后是文字的长度
+        bytes[1] = (byte) 0x7F;
+        BinaryCodec.readAction(new BinaryReader(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void shallowBatchNestingIsAccepted() throws IOException {
+        Action nested = nestedBatch(4);
+        assertSameAction(nested, roundTrip(nested));
+    }
+
+    @Test(expected = IOException.class)
+    public void deepBatchNestingIsRejected() throws IOException {
+        // 直接拼出100000层[BatchAction标签, 动作数1], 编码一侧不会产生这样的数据
+        BinaryWriter single = new BinaryWriter();
+        BinaryCodec.writeAction(single, nestedBatch(1));
+        byte[] one = single.toByteArray();
+        BinaryWriter out = new BinaryWriter();
+        for (int i = 0; i < 100_000; i++) {
+            out.writeBytes(one, 0, 2);
+        }
+        out.writeBytes(one, 2, one.length - 2);
+        byte[] bytes = out.toByteArray();
+        BinaryCodec.readAction(new BinaryReader(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void randomGarbageOnlyFailsWithIOException() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            byte[] bytes = new byte[1 + random.nextInt(64)];
+            random.nextBytes(bytes);
+            try {
+                BinaryCodec.readAction(new BinaryReader(bytes, 0, bytes.length));
+            } catch (IOException expected) {
+                // 期望的结果
+            } catch (RuntimeException e) {
+                fail("Unexpected " + e + " for " + Arrays.toString(bytes));
+            }
+        }
+    }
+
+    private static Action roundTrip(Action action) throws IOException {
+        BinaryWriter out = new BinaryWriter();
+        BinaryCodec.writeAction(out, action);
+        byte[] bytes = out.toByteArray();
+        BinaryReader in = new BinaryReader(bytes, 0, bytes.length);
+        Action decoded = BinaryCodec.readAction(in);
+        assertEquals("trailing bytes", 0, in.remaining());
+        return decoded;
+    }
+
+    private static Message decode(byte[] bytes) throws IOException {
+        return BinaryCodec.decode(bytes, 0, bytes.length);
+    }
+
+    private static Action nestedBatch(int depth) {
+        Action action = new MainAction.DrawAction(1, 1, 2, 2, "0x000000ff", 1, Line.class);
+        for (int i = 0; i < depth; i++) {
+            action = new MainAction.BatchAction(new ArrayList<>(Arrays.asList(action)));
+        }
+        return action;
+    }
+
+    private static Action randomAction(Random random) {
+        double x = random.nextInt(1920) + random.nextInt(4) * 0.25;
+        double y = random.nextInt(1080) + random.nextDouble();
+        if (random.nextInt(10) == 0) {
+            return new MainAction.TextAction(x, y, "note " + random.nextInt(100), "0x000000ff", 1);
+        }
+        String color = random.nextBoolean() ? "0x000000ff" : String.format("0x%08x", random.nextInt());
+        return new MainAction.DrawAction(x, y, x + random.nextDouble() * 6, y - random.nextInt(6),
+                color, 1 + random.nextInt(4), random.nextInt(5) == 0 ? Rectangle.class : Line.class);
+    }
+
+    static void assertSameAction(Action expected, Action actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getClass(), actual.getClass());
+        if (expected instanceof MainAction.DrawAction) {
+            MainAction.DrawAction e = (MainAction.DrawAction) expected;
+            MainAction.DrawAction a = (MainAction.DrawAction) actual;
+            assertEquals(e.getStartX(), a.getStartX(), 0);
+            assertEquals(e.getStartY(), a.getStartY(), 0);
+            assertEquals(e.getEndX(), a.getEndX(), 0);
+            assertEquals(e.getEndY(), a.getEndY(), 0);
+            assertEquals(e.getColor(), a.getColor());
+            assertEquals(e.getLineWidth(), a.getLineWidth(), 0);
+            assertEquals(e.getShapeClass(), a.getShapeClass());
+        } else if (expected instanceof MainAction.TextAction) {
+            MainAction.TextAction e = (MainAction.TextAction) expected;
+            MainAction.TextAction a = (MainAction.TextAction) actual;
+            assertEquals(e.getX(), a.getX(), 0);
+            assertEquals(e.getY(), a.getY(), 0);
+            assertEquals(e.getText(), a.getText());
+            assertEquals(e.getColor(), a.getColor());
+            assertEquals(e.getLineWidth(), a.getLineWidth(), 0);
+        } else if (expected instanceof MainAction.BatchAction) {
+            List<Action> e = ((MainAction.BatchAction) expected).getActions();
+            List<Action> a = ((MainAction.BatchAction) actual).getActions();
+            assertEquals(e.size(), a.size());
+            for (int i = 0; i < e.size(); i++) {
+                assertSameAction(e.get(i), a.get(i));
+            }
+        }
+    }
+}
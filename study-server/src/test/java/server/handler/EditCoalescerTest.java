@@ -0,0 +1,101 @@
+package server.handler;
+
+import org.junit.Test;
+import server.models.MainAction.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static server.TestActions.actions;
+import static server.TestActions.assertXs;
+
+public class EditCoalescerTest {
+    private final List<List<Action>> batches = new ArrayList<>();
+
+    @Test
+    public void explicitFlushKeepsOrderWithLaterBatches() throws InterruptedException {
+        EditCoalescer coalescer = new EditCoalescer(20, 256, this::record);
+        for (Action action : actions(0, 5)) {
+            coalescer.add(action);
+        }
+        // 读线程收到其他消息前提交
+        coalescer.flush();
+        assertEquals(1, batchCount());
+        for (Action action : actions(5, 5)) {
+            coalescer.add(action);
+        }
+        awaitBatches(2);
+
+        assertXs(batch(0), 0, 5);
+        assertXs(batch(1), 5, 5);
+        coalescer.flush();
+        assertEquals(2, batchCount());
+    }
+
+    @Test
+    public void fullBatchIsSubmittedImmediately() {
+        EditCoalescer coalescer = new EditCoalescer(60_000, 3, this::record);
+        for (Action action : actions(0, 7)) {
+            coalescer.add(action);
+        }
+        assertEquals(2, batchCount());
+        assertXs(batch(0), 0, 3);
+        assertXs(batch(1), 3, 3);
+        coalescer.flush();
+        assertXs(batch(2), 6, 1);
+    }
+
+    @Test
+    public void timerAndSizeFlushesPreserveOrder() throws InterruptedException {
+        EditCoalescer coalescer = new EditCoalescer(1, 7, this::record);
+        List<Action> actions = actions(0, 2000);
+        for (int i = 0; i < actions.size(); i++) {
+            coalescer.add(actions.get(i));
+            // 不时停一下, 让定时提交与按数量提交交替发生
+            if (i % 50 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        coalescer.flush();
+
+        List<Action> all = new ArrayList<>();
+        synchronized (batches) {
+            for (List<Action> batch : batches) {
+                assertTrue(batch.size() <= 7);
+                all.addAll(batch);
+            }
+        }
+        assertXs(all, 0, 2000);
+    }
+
+    private void record(List<Action> batch) {
+        synchronized (batches) {
+            batches.add(batch);
+            batches.notifyAll();
+        }
+    }
+
+    private int batchCount() {
+        synchronized (batches) {
+            return batches.size();
+        }
+    }
+
+    private List<Action> batch(int index) {
+        synchronized (batches) {
+            return batches.get(index);
+        }
+    }
+
+    private void awaitBatches(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (batches) {
+            while (batches.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("timed out", remaining > 0);
+                batches.wait(remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package server.handler;
+
+import org.junit.Test;
+import server.handler.OutboundQueue.OverflowPolicy;
+import server.models.MainAction.Action;
+import server.models.Message;
+import server.models.StateChunk;
+import server.util.DraftManager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static server.TestActions.actions;
+import static server.TestActions.assertXs;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void disconnectPolicyRejectsWhenFull() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(message(Message.Type.EDIT_ACTION, 1)));
+        assertTrue(queue.offer(message(Message.Type.EDIT_ACTION, 2)));
+        assertFalse(queue.offer(message(Message.Type.EDIT_ACTION, 3)));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void droppedEditActionIsFollowedByDraftResync() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST_EPHEMERAL);
+        queue.offer(message(Message.Type.EDIT_ACTION, 1));
+        queue.offer(message(Message.Type.EDIT_GRANTED, 2));
+        // 队满, 丢掉最早的实时笔画
+        assertTrue(queue.offer(message(Message.Type.EDIT_COMPLETE, 3)));
+        assertEquals(2, queue.size());
+
+        assertEquals(Message.Type.EDIT_GRANTED, queue.poll().getCommand());
+        assertEquals(Message.Type.EDIT_COMPLETE, queue.poll().getCommand());
+        assertFalse(queue.isEmpty());
+        // 队列清空后补发一次UPDATE_DRAFT
+        assertEquals(Message.Type.UPDATE_DRAFT, queue.poll().getCommand());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void draftResyncCarriesLastSequence() {
+        OutboundQueue[] holder = new OutboundQueue[1];
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DROP_OLDEST_EPHEMERAL, 32, () -> {
+            // 取序号时不能持有队列锁
+            assertFalse(Thread.holdsLock(holder[0]));
+            return 42L;
+        });
+        holder[0] = queue;
+        queue.offer(message(Message.Type.EDIT_ACTION, 1));
+        queue.offer(message(Message.Type.EDIT_COMPLETE, 2));
+
+        assertEquals(Message.Type.EDIT_COMPLETE, queue.poll().getCommand());
+        Message resync = queue.poll();
+        assertEquals(Message.Type.UPDATE_DRAFT, resync.getCommand());
+        assertEquals(42L, resync.getData());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void nonEphemeralMessagesAreNeverDropped() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST_EPHEMERAL);
+        queue.offer(message(Message.Type.EDIT_GRANTED, 1));
+        queue.offer(message(Message.Type.INITIAL_STATE, 2));
+        // 没有可丢弃的消息时只能断开
+        assertFalse(queue.offer(message(Message.Type.EDIT_ACTION, 3)));
+    }
+
+    @Test
+    public void droppedUserListIsResent() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST_EPHEMERAL);
+        Message users = message(Message.Type.UPDATE_USERS, 1);
+        queue.offer(users);
+        queue.offer(message(Message.Type.EDIT_GRANTED, 2));
+        queue.offer(message(Message.Type.EDIT_COMPLETE, 3));
+
+        assertEquals(Message.Type.EDIT_GRANTED, queue.poll().getCommand());
+        assertEquals(Message.Type.EDIT_COMPLETE, queue.poll().getCommand());
+        assertSame(users, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void newerUserListReplacesDroppedOne() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST_EPHEMERAL);
+        queue.offer(message(Message.Type.UPDATE_USERS, 1));
+        queue.offer(message(Message.Type.EDIT_GRANTED, 2));
+        Message newer = message(Message.Type.UPDATE_USERS, 3);
+        queue.offer(newer);
+
+        assertEquals(Message.Type.EDIT_GRANTED, queue.poll().getCommand());
+        assertSame(newer, queue.poll());
+        // 已经发过更新的列表, 不再补发旧的
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void coalescePolicyKeepsLatestState() {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.COALESCE);
+        queue.offer(message(Message.Type.UPDATE_USERS, 1));
+        queue.offer(message(Message.Type.EDIT_ACTION, 2));
+        queue.offer(message(Message.Type.EDIT_GRANTED, 3));
+        Message latest = message(Message.Type.UPDATE_USERS, 4);
+        assertTrue(queue.offer(latest));
+
+        // 合并掉旧的用户列表, 笔画保留, 也不需要补发
+        assertEquals(Message.Type.EDIT_ACTION, queue.poll().getCommand());
+        assertEquals(Message.Type.EDIT_GRANTED, queue.poll().getCommand());
+        assertSame(latest, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.getStats().contains("coalesced=1"));
+    }
+
+    @Test
+    public void closedQueueIgnoresOffersAndEndsTake() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DISCONNECT);
+        queue.offer(message(Message.Type.EDIT_GRANTED, 1));
+        queue.close();
+        assertTrue(queue.offer(message(Message.Type.EDIT_GRANTED, 2)));
+        assertEquals(0, queue.size());
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void pollWithoutDraftLeavesStateChunksToTheCaller() {
+        DraftManager draft = DraftManager.inMemory("test");
+        assertNull(draft.acquireLease("editor", null));
+        for (Action action : actions(0, 3)) {
+            draft.addEditAction(action, "editor");
+        }
+        assertTrue(draft.commitEdit("editor"));
+        OutboundQueue queue = new OutboundQueue(8, OverflowPolicy.DISCONNECT);
+        queue.startStream(new StateStream(draft, 0, 2));
+
+        // I/O线程不生成分块, 也不取出它
+        assertSame(OutboundQueue.DRAFT_WORK, queue.pollWithoutDraft());
+        assertSame(OutboundQueue.DRAFT_WORK, queue.pollWithoutDraft());
+        StateChunk first = (StateChunk) queue.poll().getData();
+        assertXs(first.getActions(), 0, 2);
+        assertFalse(first.isLast());
+
+        queue.offer(message(Message.Type.EDIT_GRANTED, 1));
+        assertEquals(Message.Type.EDIT_GRANTED, queue.pollWithoutDraft().getCommand());
+        assertSame(OutboundQueue.DRAFT_WORK, queue.pollWithoutDraft());
+        StateChunk last = (StateChunk) queue.poll().getData();
+        assertXs(last.getActions(), 2, 1);
+        assertTrue(last.isLast());
+        assertNull(queue.pollWithoutDraft());
+    }
+
+    @Test
+    public void pollWithoutDraftDoesNotReadTheResyncSequence() {
+        AtomicInteger reads = new AtomicInteger();
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DROP_OLDEST_EPHEMERAL, 32, () -> {
+            reads.incrementAndGet();
+            return 7L;
+        });
+        queue.offer(message(Message.Type.EDIT_ACTION, 1));
+        queue.offer(message(Message.Type.EDIT_COMPLETE, 2));
+
+        assertEquals(Message.Type.EDIT_COMPLETE, queue.pollWithoutDraft().getCommand());
+        assertSame(OutboundQueue.DRAFT_WORK, queue.pollWithoutDraft());
+        assertEquals(0, reads.get());
+        Message resync = queue.poll();
+        assertEquals(Message.Type.UPDATE_DRAFT, resync.getCommand());
+        assertEquals(7L, resync.getData());
+        assertNull(queue.pollWithoutDraft());
+        assertEquals(1, reads.get());
+    }
+
+    private static Message message(Message.Type type, int id) {
+        return new Message(type, id, "teacher");
+    }
+}
@@ -0,0 +1,118 @@
+package server.nio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameCompressorTest {
+    private static final int MAX = 4 * 1024 * 1024;
+
+    @Test
+    public void framesRoundTripThroughOneStream() throws IOException {
+        roundTrip(new FrameCompressor(6, MAX), new FrameCompressor(6, MAX));
+    }
+
+    @Test
+    public void framesRoundTripWithoutDictionary() throws IOException {
+        roundTrip(new FrameCompressor(1, null, MAX), new FrameCompressor(1, null, MAX));
+    }
+
+    @Test
+    public void repeatedFrameReferencesEarlierFrames() throws IOException {
+        FrameCompressor sender = new FrameCompressor(6, MAX);
+        FrameCompressor receiver = new FrameCompressor(6, MAX);
+        byte[] payload = randomBytes(new Random(7), 2000);
+        ByteBuffer first = sender.compress(frame(payload));
+        ByteBuffer second = sender.compress(frame(payload));
+        // 第二帧只需引用窗口中的第一帧
+        assertTrue(second.remaining() < first.remaining() / 10);
+        assertArrayEquals(payload, decompress(receiver, first));
+        assertArrayEquals(payload, decompress(receiver, second));
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedFrameIsRejected() throws IOException {
+        FrameCompressor sender = new FrameCompressor(6, MAX);
+        FrameCompressor receiver = new FrameCompressor(6, 16 * 1024);
+        decompress(receiver, sender.compress(frame(new byte[64 * 1024])));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptFrameIsRejected() throws IOException {
+        FrameCompressor sender = new FrameCompressor(6, MAX);
+        FrameCompressor receiver = new FrameCompressor(6, MAX);
+        ByteBuffer compressed = sender.compress(frame(text(100)));
+        byte[] bytes = Arrays.copyOf(compressed.array(), compressed.remaining());
+        // 第一个块头改成保留的块类型(11)
+        bytes[FrameCodec.HEADER_SIZE + 1] |= 0x06;
+        receiver.decompress(bytes, FrameCodec.HEADER_SIZE, bytes.length - FrameCodec.HEADER_SIZE);
+    }
+
+    @Test(expected = IOException.class)
+    public void closedCompressorRejectsFrames() throws IOException {
+        FrameCompressor sender = new FrameCompressor(6, MAX);
+        sender.close();
+        sender.compress(frame(text(10)));
+    }
+
+    // 小帧、空帧、不可压缩的帧和超过解压缓冲保留上限的大帧交替出现
+    private static void roundTrip(FrameCompressor sender, FrameCompressor receiver) throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            byte[] payload;
+            switch (i % 5) {
+                case 0:
+                    payload = new byte[0];
+                    break;
+                case 1:
+                    payload = randomBytes(random, random.nextInt(20000));
+                    break;
+                case 2:
+                    payload = text(i % 50 == 2 ? 300000 : random.nextInt(5000));
+                    break;
+                default:
+                    payload = text(random.nextInt(200));
+                    break;
+            }
+            ByteBuffer compressed = sender.compress(frame(payload));
+            assertTrue(FrameCompressor.isCompressed(compressed.get(FrameCodec.HEADER_SIZE)));
+            assertEquals(compressed.remaining() - FrameCodec.HEADER_SIZE, compressed.getInt(0));
+            assertArrayEquals("frame " + i, payload, decompress(receiver, compressed));
+        }
+        sender.close();
+        receiver.close();
+    }
+
+    private static ByteBuffer frame(byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + payload.length);
+        frame.putInt(payload.length).put(payload).flip();
+        return frame;
+    }
+
+    // 接收方从偏移处读取负载, 与FrameCodec解出的帧一致
+    private static byte[] decompress(FrameCompressor receiver, ByteBuffer compressed) throws IOException {
+        byte[] padded = new byte[compressed.remaining() + 3];
+        System.arraycopy(compressed.array(), compressed.arrayOffset() + compressed.position(), padded, 3, compressed.remaining());
+        return receiver.decompress(padded, 3 + FrameCodec.HEADER_SIZE, compressed.remaining() - FrameCodec.HEADER_SIZE);
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < length) {
+            builder.append("DrawAction startX=").append(builder.length() % 997).append(" color=0x000000ff;");
+        }
+        return builder.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
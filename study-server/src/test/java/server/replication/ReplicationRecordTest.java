@@ -0,0 +1,123 @@
+package server.replication;
+
+import org.junit.Test;
+import server.codec.BinaryWriter;
+import server.util.ReplicaSnapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static server.TestActions.actions;
+import static server.TestActions.assertXs;
+
+public class ReplicationRecordTest {
+
+    @Test
+    public void recordsRoundTripThroughOneStream() throws IOException {
+        Map<String, Long> sequences = new LinkedHashMap<>();
+        sequences.put("default", 42L);
+        sequences.put("math", -1L);
+        ReplicaSnapshot snapshot = new ReplicaSnapshot(7, actions(0, 3), Arrays.asList("alice", "bob"),
+                Arrays.asList(actions(10, 1), actions(20, 0)), Arrays.asList(actions(30, 0), actions(40, 2)));
+
+        DataInputStream in = stream(
+                ReplicationRecord.subscribe("default"),
+                ReplicationRecord.snapshot("default", snapshot),
+                ReplicationRecord.edits("default", "alice", actions(50, 2)),
+                ReplicationRecord.commit("default", "alice", 9, actions(50, 2)),
+                ReplicationRecord.release("default", "bob"),
+                ReplicationRecord.heartbeat(sequences));
+
+        ReplicationRecord subscribe = ReplicationRecord.read(in);
+        assertEquals(ReplicationRecord.SUBSCRIBE, subscribe.type);
+        assertEquals("default", subscribe.boardId);
+
+        ReplicationRecord snap = ReplicationRecord.read(in);
+        assertEquals(ReplicationRecord.SNAPSHOT, snap.type);
+        assertEquals(7, snap.snapshot.getBaseSequence());
+        assertXs(snap.snapshot.getCommitted(), 0, 3);
+        assertEquals(Arrays.asList("alice", "bob"), snap.snapshot.getEditors());
+        assertXs(snap.snapshot.getPending().get(0), 10, 1);
+        assertXs(snap.snapshot.getPending().get(1), 20, 0);
+        assertXs(snap.snapshot.getRedo().get(1), 40, 2);
+
+        ReplicationRecord edits = ReplicationRecord.read(in);
+        assertEquals(ReplicationRecord.EDITS, edits.type);
+        assertEquals("alice", edits.username);
+        assertXs(edits.actions, 50, 2);
+
+        ReplicationRecord commit = ReplicationRecord.read(in);
+        assertEquals(ReplicationRecord.COMMIT, commit.type);
+        assertEquals(9, commit.fromSequence);
+        assertXs(commit.actions, 50, 2);
+        assertTrue(commit.leaderMicros > 0);
+
+        ReplicationRecord release = ReplicationRecord.read(in);
+        assertEquals(ReplicationRecord.RELEASE, release.type);
+        assertEquals("bob", release.username);
+
+        ReplicationRecord heartbeat = ReplicationRecord.read(in);
+        assertEquals(ReplicationRecord.HEARTBEAT, heartbeat.type);
+        assertEquals(sequences, heartbeat.sequences);
+
+        try {
+            ReplicationRecord.read(in);
+            fail();
+        } catch (EOFException expected) {
+            // 对方正常关闭
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidLength() throws IOException {
+        ReplicationRecord.read(new DataInputStream(new ByteArrayInputStream(new byte[]{(byte) 0x80, 0, 0, 0})));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsHugeActionCount() throws IOException {
+        // EDITS记录声明了远超负载长度的动作数
+        BinaryWriter payload = new BinaryWriter(64);
+        payload.writeByte(ReplicationRecord.EDITS);
+        payload.writeString("default");
+        payload.writeString("alice");
+        payload.writeLong(0);
+        payload.writeVarInt(Integer.MAX_VALUE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(payload.size());
+        out.write(payload.array(), 0, payload.size());
+        ReplicationRecord.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersion() throws IOException {
+        BinaryWriter payload = new BinaryWriter(64);
+        payload.writeByte(ReplicationRecord.SUBSCRIBE);
+        payload.writeVarInt(ReplicationRecord.VERSION + 1);
+        payload.writeString("default");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(payload.size());
+        out.write(payload.array(), 0, payload.size());
+        ReplicationRecord.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static DataInputStream stream(ReplicationRecord... records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        BinaryWriter buffer = new BinaryWriter(256);
+        for (ReplicationRecord record : records) {
+            record.write(out, buffer);
+        }
+        out.flush();
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
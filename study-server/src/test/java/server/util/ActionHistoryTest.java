@@ -0,0 +1,83 @@
+package server.util;
+
+import org.junit.Test;
+import server.models.MainAction.Action;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static server.TestActions.actions;
+import static server.TestActions.assertXs;
+
+public class ActionHistoryTest {
+    // 大于一个块(1024), 快照同时引用封存块和尾块
+    private static final int COUNT = 2500;
+
+    @Test
+    public void snapshotIgnoresLaterAppends() {
+        for (boolean columnar : new boolean[]{false, true}) {
+            ActionHistory history = new ActionHistory(columnar, actions(0, COUNT));
+            List<Action> snapshot = history.snapshot();
+            // 继续写入当前尾块并封存它
+            history.addAll(actions(COUNT, 1000));
+
+            assertEquals(COUNT + 1000, history.size());
+            assertXs(snapshot, 0, COUNT);
+            assertXs(history, 0, COUNT + 1000);
+        }
+    }
+
+    @Test
+    public void snapshotIgnoresClearAndRewrite() {
+        for (boolean columnar : new boolean[]{false, true}) {
+            ActionHistory history = new ActionHistory(columnar, actions(0, COUNT));
+            List<Action> snapshot = history.snapshot();
+            history.clear();
+            assertEquals(0, history.size());
+            // 清空后写入的内容不能覆盖快照引用的块
+            history.addAll(actions(10000, COUNT));
+
+            assertXs(snapshot, 0, COUNT);
+            assertXs(history, 10000, COUNT);
+        }
+    }
+
+    @Test
+    public void subListOfSnapshotIsStable() {
+        ActionHistory history = new ActionHistory(true, actions(0, COUNT));
+        List<Action> part = history.snapshot().subList(1000, 1100);
+        history.clear();
+        history.addAll(actions(5000, COUNT));
+
+        assertXs(part, 1000, 100);
+        try {
+            part.get(100);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+            // 超出子区间
+        }
+    }
+
+    @Test
+    public void snapshotSerializesAsArrayList() throws IOException, ClassNotFoundException {
+        ActionHistory history = new ActionHistory(false, actions(0, COUNT));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(history.snapshot());
+        }
+        Object copy;
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = input.readObject();
+        }
+        assertEquals(ArrayList.class, copy.getClass());
+        @SuppressWarnings("unchecked")
+        List<Action> list = (List<Action>) copy;
+        assertXs(list, 0, COUNT);
+    }
+}
@@ -0,0 +1,262 @@
+package server.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static server.TestActions.actions;
+import static server.TestActions.xs;
+
+public class ActionLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayReturnsAppendedActionsInOrder() throws IOException {
+        Path directory = folder.newFolder("log").toPath();
+        ActionLog log = open(directory);
+        log.start(0);
+        log.append(actions(0, 3));
+        log.append(actions(3, 2));
+        log.close();
+
+        assertEquals(Arrays.asList(0.0, 1.0, 2.0, 3.0, 4.0), xs(open(directory).replay(0)));
+    }
+
+    @Test
+    public void tornTailIsTruncatedAndEarlierRecordsKept() throws IOException {
+        Path directory = folder.newFolder("log").toPath();
+        ActionLog log = open(directory);
+        log.start(0);
+        log.append(actions(0, 2));
+        log.append(actions(2, 2));
+        log.close();
+        Path segment = segments(directory).get(0);
+        long size = Files.size(segment);
+        // 最后一条记录写到一半
+        truncate(segment, size - 3);
+
+        ActionLog reopened = open(directory);
+        assertEquals(Arrays.asList(0.0, 1.0), xs(reopened.replay(0)));
+        assertFalse(reopened.isRepaired());
+        assertTrue(Files.size(segment) < size - 3);
+
+        // 截断后在新段继续追加, 再次重放得到两部分
+        reopened.start(0);
+        reopened.append(actions(10, 1));
+        reopened.close();
+        assertEquals(Arrays.asList(0.0, 1.0, 10.0), xs(open(directory).replay(0)));
+    }
+
+    @Test
+    public void corruptMiddleSegmentIsMovedAsideWithLaterSegments() throws IOException {
+        Path directory = folder.newFolder("log").toPath();
+        for (int i = 0; i < 3; i++) {
+            ActionLog log = open(directory);
+            log.replay(0);
+            log.start(0);
+            log.append(actions(i * 10, 2));
+            log.close();
+        }
+        List<Path> written = segments(directory);
+        assertEquals(3, written.size());
+        flipByte(written.get(1), 5);
+
+        ActionLog reopened = open(directory);
+        assertEquals(Arrays.asList(0.0, 1.0), xs(reopened.replay(0)));
+        assertTrue(reopened.isRepaired());
+        assertEquals(Collections.singletonList(written.get(0)), segments(directory));
+        assertTrue(Files.exists(directory.resolve(written.get(1).getFileName() + ".corrupt")));
+        assertTrue(Files.exists(directory.resolve(written.get(2).getFileName() + ".corrupt")));
+
+        // 新段排在移走的段之后, 下次重放不会再碰到损坏的记录
+        reopened.start(0);
+        reopened.append(actions(50, 1));
+        reopened.close();
+        ActionLog again = open(directory);
+        assertEquals(Arrays.asList(0.0, 1.0, 50.0), xs(again.replay(0)));
+        assertFalse(again.isRepaired());
+    }
+
+    @Test
+    public void replayAfterRolloverSkipsCoveredSegments() throws IOException {
+        Path directory = folder.newFolder("log").toPath();
+        ActionLog log = open(directory);
+        log.start(0);
+        log.append(actions(0, 2));
+        long covered = log.rollover();
+        log.append(actions(2, 1));
+        log.close();
+
+        assertEquals(Collections.singletonList(2.0), xs(open(directory).replay(covered)));
+        assertEquals(Arrays.asList(0.0, 1.0, 2.0), xs(open(directory).replay(0)));
+    }
+
+    @Test
+    public void resetRecordReplacesEarlierActions() throws IOException {
+        Path directory = folder.newFolder("log").toPath();
+        ActionLog log = open(directory);
+        log.start(0);
+        log.append(actions(0, 2));
+        log.appendReset(10, actions(20, 1));
+        log.append(actions(30, 1));
+        log.close();
+
+        ActionLog reopened = open(directory);
+        assertEquals(Arrays.asList(20.0, 30.0), xs(reopened.replay(0)));
+        assertEquals(10, reopened.getResetBase());
+    }
+
+    @Test
+    public void clearSurvivesLostCheckpoint() throws IOException {
+        Path board = folder.newFolder("board").toPath();
+        DraftManager draft = new DraftManager("test", board);
+        draft.loadDraftHistory();
+        commit(draft, actions(0, 2));
+        draft.saveDraftHistory();
+        draft.clear();
+        long lastSequence = draft.getLastSequence();
+        // 清空后的检查点没有写成
+        deleteNewestCheckpoint(board.resolve("draft-log"));
+
+        DraftManager reloaded = new DraftManager("test", board);
+        reloaded.loadDraftHistory();
+        assertEquals(0, reloaded.getHistorySize());
+        assertEquals(lastSequence, reloaded.getLastSequence());
+        commit(reloaded, actions(5, 1));
+        reloaded.saveDraftHistory();
+
+        DraftManager again = new DraftManager("test", board);
+        again.loadDraftHistory();
+        assertEquals(Collections.singletonList(5.0), xs(again.getCurrentState()));
+        assertEquals(lastSequence + 1, again.getLastSequence());
+    }
+
+    @Test
+    public void squashSurvivesLostCheckpoint() throws IOException {
+        Path board = folder.newFolder("board").toPath();
+        DraftManager draft = new DraftManager("test", board);
+        draft.loadDraftHistory();
+        commit(draft, actions(0, 2));
+        draft.saveDraftHistory();
+        // 清空之前的动作被压缩掉
+        assertNull(draft.acquireLease("editor", null));
+        draft.addEditAction(new MainAction.UndoAllAction(), "editor");
+        draft.addEditAction(actions(7, 1).get(0), "editor");
+        assertTrue(draft.commitEdit("editor"));
+        assertEquals(3, draft.squashHistory(1).getRemoved());
+        long lastSequence = draft.getLastSequence();
+        deleteNewestCheckpoint(board.resolve("draft-log"));
+
+        DraftManager reloaded = new DraftManager("test", board);
+        reloaded.loadDraftHistory();
+        assertEquals(Collections.singletonList(7.0), xs(reloaded.getCurrentState()));
+        assertEquals(lastSequence, reloaded.getLastSequence());
+    }
+
+    @Test
+    public void draftKeepsCommitsMadeAfterAFailedReplay() throws IOException {
+        Path board = folder.newFolder("board").toPath();
+        // 无法读取的段: 重放时抛出IOException
+        Files.createDirectories(board.resolve("draft-log").resolve("segment-00000001.log"));
+        DraftManager draft = new DraftManager("test", board);
+        draft.loadDraftHistory();
+        assertEquals(0, draft.getHistorySize());
+        commit(draft, actions(0, 2));
+        draft.saveDraftHistory();
+
+        DraftManager reloaded = new DraftManager("test", board);
+        reloaded.loadDraftHistory();
+        assertEquals(Arrays.asList(0.0, 1.0), xs(reloaded.getCurrentState()));
+        try (DirectoryStream<Path> aside = Files.newDirectoryStream(board, "draft-log.corrupt-*")) {
+            assertTrue(aside.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void draftRecoversFromCorruptMiddleSegment() throws IOException {
+        Path board = folder.newFolder("board").toPath();
+        Path directory = board.resolve("draft-log");
+        for (int i = 0; i < 3; i++) {
+            ActionLog log = open(directory);
+            log.replay(0);
+            log.start(0);
+            log.append(actions(i * 10, 1));
+            log.close();
+        }
+        flipByte(segments(directory).get(1), 5);
+
+        DraftManager draft = new DraftManager("test", board);
+        draft.loadDraftHistory();
+        assertEquals(Collections.singletonList(0.0), xs(draft.getCurrentState()));
+        commit(draft, actions(100, 1));
+        draft.saveDraftHistory();
+
+        DraftManager reloaded = new DraftManager("test", board);
+        reloaded.loadDraftHistory();
+        assertEquals(Arrays.asList(0.0, 100.0), xs(reloaded.getCurrentState()));
+    }
+
+    private static ActionLog open(Path directory) {
+        return new ActionLog(directory, 1 << 20, ActionLog.FsyncPolicy.ALWAYS, 10);
+    }
+
+    private static void commit(DraftManager draft, List<Action> actions) {
+        assertNull(draft.acquireLease("editor", null));
+        for (Action action : actions) {
+            draft.addEditAction(action, "editor");
+        }
+        assertTrue(draft.commitEdit("editor"));
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static void deleteNewestCheckpoint(Path directory) throws IOException {
+        List<Path> checkpoints = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "checkpoint-*.snap")) {
+            for (Path path : stream) {
+                checkpoints.add(path);
+            }
+        }
+        Collections.sort(checkpoints);
+        Files.delete(checkpoints.get(checkpoints.size() - 1));
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    // 记录头的第5字节属于CRC, 改掉后整条记录校验失败
+    private static void flipByte(Path file, int position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xFF);
+        }
+    }
+}
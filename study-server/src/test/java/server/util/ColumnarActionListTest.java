@@ -0,0 +1,109 @@
+package server.util;
+
+import javafx.scene.shape.Ellipse;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.Rectangle;
+import org.junit.Test;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static server.TestActions.actions;
+import static server.TestActions.assertXs;
+
+public class ColumnarActionListTest {
+
+    @Test
+    public void everyKindRoundTrips() {
+        List<Action> original = Arrays.asList(
+                new MainAction.DrawAction(1.5, -2.25, 300, 400.125, "0x112233ff", 2.5, Line.class),
+                new MainAction.TextAction(10, 20, "你好, columns", "0x445566ff", 14),
+                new MainAction.DrawAction(0, 0, 50, 60, null, 1, Rectangle.class),
+                new MainAction.UndoAction(),
+                new MainAction.DrawAction(5, 6, 7, 8, "0x112233ff", 3, null),
+                new MainAction.RedoAction(),
+                new MainAction.TextAction(-1, -1, "", null, 0),
+                new MainAction.UndoAllAction(),
+                new MainAction.DrawAction(9, 9, 19, 29, "0x778899ff", 4, Ellipse.class),
+                new MainAction.BatchAction(actions(0, 2)));
+
+        ColumnarActionList list = new ColumnarActionList(original);
+
+        assertEquals(original.size(), list.size());
+        for (int i = 0; i < original.size(); i++) {
+            assertSameAction(original.get(i), list.get(i));
+        }
+    }
+
+    @Test
+    public void appendAfterClearKeepsOrderAndCodes() {
+        ColumnarActionList list = new ColumnarActionList(4);
+        list.addAll(actions(0, 100));
+        assertXs(list, 0, 100);
+
+        list.clear();
+        assertTrue(list.isEmpty());
+        list.addAll(actions(500, 3));
+        list.add(new MainAction.TextAction(1, 2, "after", "0x000000ff", 1));
+        assertXs(list.subList(0, 3), 500, 3);
+        assertEquals("after", ((MainAction.TextAction) list.get(3)).getText());
+        assertEquals("0x000000ff", ((MainAction.DrawAction) list.get(0)).getColor());
+    }
+
+    @Test
+    public void listOperationsMatchArrayList() {
+        List<Action> expected = new ArrayList<>(actions(0, 50));
+        ColumnarActionList list = new ColumnarActionList(expected);
+
+        assertEquals(expected.size(), list.size());
+        List<Double> iterated = new ArrayList<>();
+        for (Action action : list) {
+            iterated.add(((MainAction.DrawAction) action).getStartX());
+        }
+        assertEquals(50, iterated.size());
+        assertEquals(10.0, iterated.get(10), 0);
+        assertXs(list.subList(20, 30), 20, 10);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void insertingInTheMiddleIsRejected() {
+        ColumnarActionList list = new ColumnarActionList(actions(0, 3));
+        list.add(1, actions(9, 1).get(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getPastTheEndIsRejected() {
+        new ColumnarActionList(actions(0, 3)).get(3);
+    }
+
+    // 按类型逐字段比较, Action没有实现equals
+    private static void assertSameAction(Action expected, Action actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        if (expected instanceof MainAction.DrawAction) {
+            MainAction.DrawAction a = (MainAction.DrawAction) expected;
+            MainAction.DrawAction b = (MainAction.DrawAction) actual;
+            assertEquals(a.getStartX(), b.getStartX(), 0);
+            assertEquals(a.getStartY(), b.getStartY(), 0);
+            assertEquals(a.getEndX(), b.getEndX(), 0);
+            assertEquals(a.getEndY(), b.getEndY(), 0);
+            assertEquals(a.getColor(), b.getColor());
+            assertEquals(a.getLineWidth(), b.getLineWidth(), 0);
+            assertEquals(a.getShapeClass(), b.getShapeClass());
+        } else if (expected instanceof MainAction.TextAction) {
+            MainAction.TextAction a = (MainAction.TextAction) expected;
+            MainAction.TextAction b = (MainAction.TextAction) actual;
+            assertEquals(a.getX(), b.getX(), 0);
+            assertEquals(a.getY(), b.getY(), 0);
+            assertEquals(a.getText(), b.getText());
+            assertEquals(a.getColor(), b.getColor());
+            assertEquals(a.getLineWidth(), b.getLineWidth(), 0);
+        } else if (expected instanceof MainAction.BatchAction) {
+            // 无法按列存放的动作原样保存
+            assertSame(expected, actual);
+        }
+    }
+}
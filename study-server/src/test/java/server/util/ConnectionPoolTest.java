@@ -0,0 +1,166 @@
+package server.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+    private final List<FakeConnection> physical = new ArrayList<>();
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void exhaustedPoolTimesOutUntilAConnectionIsReturned() throws SQLException {
+        pool = newPool(2);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        assertEquals(2, pool.getActiveCount());
+
+        long start = System.nanoTime();
+        try {
+            pool.getConnection();
+            fail("pool of 2 lent a third connection");
+        } catch (SQLTimeoutException e) {
+            assertTrue(System.nanoTime() - start >= 40_000_000L);
+        }
+        assertTrue(pool.stats().contains("timeouts=1"));
+
+        first.close();
+        assertEquals(1, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+        Connection third = pool.getConnection();
+        // 归还的物理连接被再次借出, 没有新建
+        assertEquals(2, physical.size());
+        third.close();
+        second.close();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void returnedConnectionIsResetAndNoLongerUsable() throws SQLException {
+        pool = newPool(1);
+        Connection connection = pool.getConnection();
+        connection.setAutoCommit(false);
+        connection.close();
+        // 重复close()只归还一次
+        connection.close();
+
+        FakeConnection raw = physical.get(0);
+        assertFalse(raw.closed);
+        assertTrue(raw.autoCommit);
+        assertEquals(1, raw.rollbacks);
+        assertTrue(connection.isClosed());
+        try {
+            connection.createStatement();
+            fail("returned connection is still usable");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("returned"));
+        }
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void brokenConnectionIsClosedInsteadOfReturned() throws SQLException {
+        pool = newPool(1);
+        Connection connection = pool.getConnection();
+        physical.get(0).broken = true;
+        try {
+            connection.createStatement();
+            fail("expected the link failure");
+        } catch (SQLException e) {
+            assertEquals("08S01", e.getSQLState());
+        }
+        connection.close();
+
+        assertTrue(physical.get(0).closed);
+        assertEquals(0, pool.getIdleCount());
+        pool.getConnection().close();
+        assertEquals(2, physical.size());
+    }
+
+    @Test
+    public void shutdownClosesIdleConnectionsAndRejectsBorrows() throws SQLException {
+        pool = newPool(2);
+        Connection lent = pool.getConnection();
+        pool.getConnection().close();
+        pool.shutdown();
+
+        assertTrue(physical.get(1).closed);
+        // 借出中的连接归还时关闭
+        assertFalse(physical.get(0).closed);
+        lent.close();
+        assertTrue(physical.get(0).closed);
+        try {
+            pool.getConnection();
+            fail("closed pool lent a connection");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+    }
+
+    private ConnectionPool newPool(int size) {
+        return new ConnectionPool("test", () -> {
+            FakeConnection fake = new FakeConnection();
+            physical.add(fake);
+            return fake.proxy();
+        }, size, 0, 50, 60_000, 0, 60_000, 60_000);
+    }
+
+    // 只实现连接池用到的方法, 其余返回默认值
+    private static class FakeConnection {
+        boolean closed = false;
+        boolean autoCommit = true;
+        boolean broken = false;
+        int rollbacks = 0;
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                closed = true;
+                                return null;
+                            case "isClosed":
+                                return closed;
+                            case "isValid":
+                                return !closed && !broken;
+                            case "getAutoCommit":
+                                return autoCommit;
+                            case "setAutoCommit":
+                                autoCommit = (Boolean) args[0];
+                                return null;
+                            case "rollback":
+                                rollbacks++;
+                                return null;
+                            case "createStatement":
+                                if (broken) {
+                                    throw new SQLException("Communications link failure", "08S01");
+                                }
+                                return null;
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+}
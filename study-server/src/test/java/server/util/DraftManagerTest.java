@@ -0,0 +1,119 @@
+package server.util;
+
+import org.junit.Test;
+import server.models.DraftSync;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+import server.models.Viewport;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static server.TestActions.actions;
+import static server.TestActions.assertXs;
+
+public class DraftManagerTest {
+
+    @Test
+    public void staleConnectionDoesNotReleaseLeaseTakenOverByNewConnection() {
+        DraftManager draft = DraftManager.inMemory("test");
+        Object stale = new Object();
+        Object live = new Object();
+        assertNull(draft.acquireLease("editor", null, stale));
+        // 同一用户重连后从新连接申请, 租约转给新连接, 未提交的动作保留
+        assertNull(draft.acquireLease("editor", null, live));
+        assertTrue(draft.addEditAction(actions(0, 1).get(0), "editor"));
+
+        assertFalse(draft.releaseLease("editor", stale));
+        assertTrue(draft.addEditAction(actions(1, 1).get(0), "editor"));
+        assertTrue(draft.commitEdit("editor"));
+        assertXs(draft.getCurrentState(), 0, 2);
+    }
+
+    @Test
+    public void owningConnectionReleasesLeaseAndDropsPendingActions() {
+        DraftManager draft = DraftManager.inMemory("test");
+        Object connection = new Object();
+        assertNull(draft.acquireLease("editor", null, connection));
+        assertTrue(draft.addEditAction(actions(0, 1).get(0), "editor"));
+
+        assertTrue(draft.releaseLease("editor", connection));
+        assertFalse(draft.addEditAction(actions(1, 1).get(0), "editor"));
+        assertTrue(draft.getCurrentState().isEmpty());
+        assertNull(draft.acquireLease("other", null, new Object()));
+    }
+
+    @Test
+    public void stateSinceCurrentSequenceIsEmptyIncrement() {
+        DraftManager draft = DraftManager.inMemory("test");
+        commit(draft, actions(0, 3));
+
+        DraftSync sync = draft.getStateSince(3);
+        assertFalse(sync.isFull());
+        assertEquals(3, sync.getFromSequence());
+        assertEquals(3, sync.getToSequence());
+        assertTrue(sync.getActions().isEmpty());
+
+        DraftSync increment = draft.getStateSince(1);
+        assertFalse(increment.isFull());
+        assertEquals(1, increment.getFromSequence());
+        assertXs(increment.getActions(), 1, 2);
+    }
+
+    @Test
+    public void stateSinceFutureSequenceIsFullSnapshot() {
+        DraftManager draft = DraftManager.inMemory("test");
+        commit(draft, actions(0, 3));
+
+        // 客户端的序号来自服务端重置之前的历史
+        DraftSync sync = draft.getStateSince(10);
+        assertTrue(sync.isFull());
+        assertEquals(0, sync.getFromSequence());
+        assertEquals(3, sync.getToSequence());
+        assertXs(sync.getActions(), 0, 3);
+    }
+
+    @Test
+    public void stateSinceSequenceBeforeClearIsFullSnapshot() {
+        DraftManager draft = DraftManager.inMemory("test");
+        commit(draft, actions(0, 3));
+        draft.clear();
+        commit(draft, actions(10, 1));
+
+        DraftSync sync = draft.getStateSince(2);
+        assertTrue(sync.isFull());
+        assertEquals(4, sync.getFromSequence());
+        assertEquals(5, sync.getToSequence());
+        assertXs(sync.getActions(), 10, 1);
+    }
+
+    @Test
+    public void regionLeaseRejectsEditsOutsideItsRegion() {
+        DraftManager draft = DraftManager.inMemory("test");
+        assertNull(draft.acquireLease("left", new Viewport(0, 0, 10, 10)));
+
+        assertTrue(draft.addEditAction(actions(5, 1).get(0), "left"));
+        assertFalse(draft.addEditAction(actions(50, 1).get(0), "left"));
+        // 清空画板只允许整个画板的租约
+        assertFalse(draft.addEditAction(new MainAction.UndoAllAction(), "left"));
+
+        // 重叠的区域和整个画板都与之冲突, 不相交的区域可以同时授予
+        assertEquals("left", draft.acquireLease("right", new Viewport(5, 0, 15, 10)));
+        assertEquals("left", draft.acquireLease("right", null));
+        assertNull(draft.acquireLease("right", new Viewport(20, 0, 30, 10)));
+        assertTrue(draft.addEditAction(actions(25, 1).get(0), "right"));
+        assertFalse(draft.addEditAction(actions(5, 1).get(0), "right"));
+
+        assertTrue(draft.commitEdit("left"));
+        assertTrue(draft.commitEdit("right"));
+        assertEquals(2, draft.getHistorySize());
+    }
+
+    private static void commit(DraftManager draft, List<Action> actions) {
+        assertNull(draft.acquireLease("editor", null));
+        for (Action action : actions) {
+            assertTrue(draft.addEditAction(action, "editor"));
+        }
+        assertTrue(draft.commitEdit("editor"));
+    }
+}
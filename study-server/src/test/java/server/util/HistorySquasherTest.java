@@ -0,0 +1,205 @@
+package server.util;
+
+import javafx.scene.shape.Ellipse;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.Rectangle;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 压缩前后的历史用Java2D重放到同一大小的画布上, 逐像素比较.
+ * 关闭抗锯齿, 像素中心落在图形内即着色. 圆头线段画成平头的线身加两端的圆: BasicStroke的圆头
+ * 按整条轮廓折线化, 同一端点的圆头随线段长度变化, 边缘像素的取舍不稳定; 单独画的圆在同一位置结果总相同.
+ */
+public class HistorySquasherTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @BeforeClass
+    public static void headless() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @Test
+    public void squashedHistoryRendersIdentically() {
+        for (long seed = 1; seed <= 5; seed++) {
+            List<Action> original = classroom(1500, new Random(seed));
+            HistorySquasher.Result result = HistorySquasher.squash(original);
+            assertTrue(result.getCleared() > 0);
+            assertTrue(result.getCovered() > 0);
+            assertTrue(result.getMerged() > 0);
+            assertEquals(original.size(), result.getSquashedSize() + result.getRemoved());
+            assertEquals(0, differingPixels(render(original), render(result.getActions())));
+        }
+    }
+
+    // 对照: 去掉最后画的笔画后图像不同
+    @Test
+    public void detectsMissingStroke() {
+        List<Action> original = classroom(1500, new Random(1));
+        List<Action> squashed = new ArrayList<>(HistorySquasher.squash(original).getActions());
+        squashed.remove(squashed.size() - 1);
+        assertTrue(differingPixels(render(original), render(squashed)) > 0);
+    }
+
+    @Test
+    public void dropsEverythingUpToLastClear() {
+        Action kept = line(10, 10, 20, 30, "0x000000ff");
+        List<Action> original = Arrays.asList(line(0, 0, 5, 5, "0x000000ff"), new MainAction.UndoAllAction(),
+                line(1, 1, 2, 2, "0x000000ff"), new MainAction.UndoAllAction(), kept);
+        HistorySquasher.Result result = HistorySquasher.squash(original);
+        assertEquals(Arrays.asList(kept), result.getActions());
+        assertEquals(4, result.getCleared());
+    }
+
+    @Test
+    public void keepsActionsUnderTranslucentOrLaterShapes() {
+        List<Action> original = Arrays.asList(
+                line(50, 50, 60, 60, "0x000000ff"),
+                // 半透明的矩形盖不住下面的线段
+                new MainAction.DrawAction(0, 0, 200, 200, "0xffffff80", 1, Rectangle.class),
+                // 矩形之后画的线段不受影响
+                line(70, 70, 80, 80, "0x000000ff"));
+        assertEquals(original, HistorySquasher.squash(original).getActions());
+    }
+
+    @Test
+    public void mergesOnlyCollinearOpaqueSegments() {
+        List<Action> original = Arrays.asList(
+                line(0, 0, 10, 0, "0x000000ff"),
+                line(10, 0, 20, 0, "0x000000ff"),
+                // 转向
+                line(20, 0, 20, 10, "0x000000ff"),
+                // 半透明的线段重叠处会更深, 不能合并
+                line(20, 10, 20, 20, "0x00000080"),
+                line(20, 20, 20, 30, "0x00000080"));
+        HistorySquasher.Result result = HistorySquasher.squash(original);
+        assertEquals(1, result.getMerged());
+        MainAction.DrawAction merged = (MainAction.DrawAction) result.getActions().get(0);
+        assertEquals(0, merged.getStartX(), 0);
+        assertEquals(20, merged.getEndX(), 0);
+        assertEquals(original.subList(2, 5), result.getActions().subList(1, 4));
+        assertEquals(0, differingPixels(render(original), render(result.getActions())));
+    }
+
+    private static BufferedImage render(List<Action> actions) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        g.setBackground(new Color(0, 0, 0, 0));
+        for (Action action : actions) {
+            if (action instanceof MainAction.UndoAllAction) {
+                g.clearRect(0, 0, WIDTH, HEIGHT);
+            } else if (action instanceof MainAction.DrawAction) {
+                draw(g, (MainAction.DrawAction) action);
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static void draw(Graphics2D g, MainAction.DrawAction draw) {
+        g.setColor(color(draw.getColor()));
+        double x = Math.min(draw.getStartX(), draw.getEndX());
+        double y = Math.min(draw.getStartY(), draw.getEndY());
+        double w = Math.abs(draw.getEndX() - draw.getStartX());
+        double h = Math.abs(draw.getEndY() - draw.getStartY());
+        if (draw.getShapeClass() == Rectangle.class) {
+            g.fill(new Rectangle2D.Double(x, y, w, h));
+        } else if (draw.getShapeClass() == Ellipse.class) {
+            g.fill(new BasicStroke((float) draw.getLineWidth()).createStrokedShape(new Ellipse2D.Double(x, y, w, h)));
+        } else {
+            // 都填充轮廓而不是draw: 宽度不超过1时draw走Bresenham细线画法, setStroke也会改变之后fill的取舍
+            BasicStroke stroke = new BasicStroke((float) draw.getLineWidth(), BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND);
+            g.fill(stroke.createStrokedShape(
+                    new Line2D.Double(draw.getStartX(), draw.getStartY(), draw.getEndX(), draw.getEndY())));
+            double r = draw.getLineWidth() / 2;
+            g.fill(new Ellipse2D.Double(draw.getStartX() - r, draw.getStartY() - r, 2 * r, 2 * r));
+            g.fill(new Ellipse2D.Double(draw.getEndX() - r, draw.getEndY() - r, 2 * r, 2 * r));
+        }
+    }
+
+    private static Color color(String rgba) {
+        long value = Long.parseLong(rgba.substring(2), 16);
+        return new Color((int) (value >>> 24) & 0xff, (int) (value >>> 16) & 0xff,
+                (int) (value >>> 8) & 0xff, (int) value & 0xff);
+    }
+
+    private static int differingPixels(BufferedImage a, BufferedImage b) {
+        int count = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // 与HistorySquashBenchmark相同的一节课模型, 画布更小, 另外夹杂半透明笔画和椭圆
+    private static List<Action> classroom(int strokes, Random random) {
+        List<Action> actions = new ArrayList<>();
+        String[] colors = {"0x000000ff", "0xff0000ff", "0x0000ffff", "0x00800080"};
+        for (int i = 0; i < strokes; i++) {
+            if (i == strokes / 4) {
+                actions.add(new MainAction.UndoAllAction());
+            }
+            int kind = random.nextInt(40);
+            if (kind < 2) {
+                double x = random.nextInt(WIDTH - 150);
+                double y = random.nextInt(HEIGHT - 100);
+                String fill = kind == 0 ? "0xffffffff" : "0xffff0060";
+                actions.add(new MainAction.DrawAction(x, y, x + 50 + random.nextInt(100),
+                        y + 40 + random.nextInt(60), fill, 1, Rectangle.class));
+                continue;
+            }
+            if (kind == 2) {
+                double x = random.nextInt(WIDTH - 100);
+                double y = random.nextInt(HEIGHT - 100);
+                actions.add(new MainAction.DrawAction(x, y, x + random.nextInt(100), y + random.nextInt(100),
+                        "0x000000ff", 2, Ellipse.class));
+                continue;
+            }
+            String color = colors[random.nextInt(colors.length)];
+            double width = 1 + random.nextInt(4);
+            double x = random.nextInt(WIDTH);
+            double y = random.nextInt(HEIGHT);
+            int segments = 4 + random.nextInt(40);
+            double dx = random.nextInt(7) - 3;
+            double dy = random.nextInt(7) - 3;
+            for (int s = 0; s < segments; s++) {
+                if (random.nextBoolean()) {
+                    dx = random.nextInt(7) - 3;
+                    dy = random.nextInt(7) - 3;
+                }
+                actions.add(new MainAction.DrawAction(x, y, x + dx, y + dy, color, width, Line.class));
+                x += dx;
+                y += dy;
+            }
+        }
+        return actions;
+    }
+
+    private static Action line(double x0, double y0, double x1, double y1, String color) {
+        return new MainAction.DrawAction(x0, y0, x1, y1, color, 2, Line.class);
+    }
+}
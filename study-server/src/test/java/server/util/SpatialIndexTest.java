@@ -0,0 +1,110 @@
+package server.util;
+
+import javafx.scene.shape.Line;
+import javafx.scene.shape.Rectangle;
+import org.junit.Test;
+import server.models.MainAction;
+import server.models.MainAction.Action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpatialIndexTest {
+    // 索引按float向外取整存外接矩形, 边界附近允许多返回的误差
+    private static final double SLACK = 1e-2;
+
+    @Test
+    public void queryMatchesLinearScan() {
+        Random random = new Random(42);
+        List<Action> actions = new ArrayList<>();
+        SpatialIndex index = new SpatialIndex();
+        for (int i = 0; i < 5000; i++) {
+            Action action = randomAction(random);
+            actions.add(action);
+            index.add(action);
+        }
+        assertEquals(actions.size(), index.size());
+
+        for (int q = 0; q < 500; q++) {
+            double x0 = random.nextDouble() * 6000 - 3000;
+            double y0 = random.nextDouble() * 6000 - 3000;
+            double x1 = x0 + random.nextDouble() * 800;
+            double y1 = y0 + random.nextDouble() * 800;
+            checkQuery(actions, index, x0, y0, x1, y1);
+        }
+        // 覆盖全部范围的查询应返回所有条目
+        int[] all = index.query(-1e9, -1e9, 1e9, 1e9);
+        assertEquals(actions.size(), all.length);
+    }
+
+    @Test
+    public void resultsAreSortedByCommitOrder() {
+        SpatialIndex index = new SpatialIndex();
+        // 先放远处的条目, 迫使根节点向外扩展
+        index.add(line(5000, 5000, 5010, 5010));
+        index.add(new MainAction.UndoAllAction());
+        index.add(line(-2000, -2000, 10, 10));
+        index.add(line(0, 0, 1, 1));
+
+        assertArrayEquals(new int[]{1, 2, 3}, index.query(0, 0, 2, 2));
+        assertArrayEquals(new int[]{0, 1}, index.query(4990, 4990, 5000, 5000));
+    }
+
+    @Test
+    public void clearDropsAllEntries() {
+        SpatialIndex index = new SpatialIndex();
+        index.add(line(0, 0, 10, 10));
+        index.add(new MainAction.UndoAllAction());
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(0, index.query(-1e9, -1e9, 1e9, 1e9).length);
+
+        index.add(line(100, 100, 110, 110));
+        assertArrayEquals(new int[]{0}, index.query(105, 105, 106, 106));
+    }
+
+    private static void checkQuery(List<Action> actions, SpatialIndex index,
+                                   double x0, double y0, double x1, double y1) {
+        int[] hits = index.query(x0, y0, x1, y1);
+        for (int i = 1; i < hits.length; i++) {
+            assertTrue(hits[i - 1] < hits[i]);
+        }
+        for (int id = 0; id < actions.size(); id++) {
+            double[] box = SpatialIndex.bounds(actions.get(id));
+            boolean found = Arrays.binarySearch(hits, id) >= 0;
+            if (box == null || intersects(box, x0, y0, x1, y1, 0)) {
+                assertTrue("missing " + id, found);
+            } else if (found) {
+                assertTrue("unexpected " + id, intersects(box, x0, y0, x1, y1, SLACK));
+            }
+        }
+    }
+
+    private static boolean intersects(double[] box, double x0, double y0, double x1, double y1, double slack) {
+        return box[0] <= x1 + slack && box[2] >= x0 - slack && box[1] <= y1 + slack && box[3] >= y0 - slack;
+    }
+
+    private static Action randomAction(Random random) {
+        int kind = random.nextInt(20);
+        if (kind == 0) {
+            return new MainAction.UndoAllAction();
+        }
+        double x = random.nextDouble() * 6000 - 3000;
+        double y = random.nextDouble() * 6000 - 3000;
+        if (kind == 1) {
+            return new MainAction.TextAction(x, y, "abc", "0x000000ff", 12 + random.nextInt(20));
+        }
+        // 大多数是短笔画, 少量跨越大片区域的图形
+        double span = kind == 2 ? 2000 : 20;
+        return new MainAction.DrawAction(x, y, x + random.nextDouble() * span, y + random.nextDouble() * span,
+                "0x000000ff", 1 + random.nextInt(8), kind == 2 ? Rectangle.class : Line.class);
+    }
+
+    private static Action line(double x0, double y0, double x1, double y1) {
+        return new MainAction.DrawAction(x0, y0, x1, y1, "0x000000ff", 0, Line.class);
+    }
+}
@@ -0,0 +1,99 @@
+package server.util;
+
+import org.junit.Test;
+import server.models.UserSession;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class UserCacheTest {
+    // 模拟用户表, 记录读库次数
+    private final Map<String, UserSession> table = new HashMap<>();
+    private int loads = 0;
+
+    private UserSession load(String studentId) {
+        loads++;
+        return table.get(studentId);
+    }
+
+    @Test
+    public void repeatLookupIsServedFromCache() throws SQLException {
+        UserCache cache = new UserCache(10);
+        table.put("2023001", new UserSession("alice", "2023001", "10.0.0.1"));
+
+        assertEquals("alice", cache.get("2023001", this::load).getUsername());
+        // 客户端改名不影响缓存中库里的用户名
+        table.put("2023001", new UserSession("eve", "2023001", "10.0.0.1"));
+        assertEquals("alice", cache.get("2023001", this::load).getUsername());
+        assertEquals(1, loads);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void absentStudentIsCached() throws SQLException {
+        UserCache cache = new UserCache(10);
+        assertNull(cache.get("2023002", this::load));
+        assertNull(cache.get("2023002", this::load));
+        assertEquals(1, loads);
+
+        // 注册后缓存的是写入的用户
+        cache.put("2023002", new UserSession("bob", "2023002", "10.0.0.2"));
+        assertEquals("bob", cache.get("2023002", this::load).getUsername());
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void updateAndInvalidateRefreshEntries() throws SQLException {
+        UserCache cache = new UserCache(10);
+        table.put("2023003", new UserSession("carol", "2023003", "10.0.0.3"));
+        cache.get("2023003", this::load);
+
+        cache.updateIpAddress("2023003", "10.0.0.4");
+        assertEquals("10.0.0.4", cache.get("2023003", this::load).getIpAddress());
+        assertEquals(1, loads);
+
+        // 写库失败后作废, 下次重新读库
+        cache.invalidate("2023003");
+        assertEquals("10.0.0.3", cache.get("2023003", this::load).getIpAddress());
+        assertEquals(2, loads);
+
+        // 记为不存在的学号被更新时作废而不是凭空生成
+        cache.get("2023004", this::load);
+        cache.updateIpAddress("2023004", "10.0.0.5");
+        table.put("2023004", new UserSession("dave", "2023004", "10.0.0.5"));
+        assertEquals("dave", cache.get("2023004", this::load).getUsername());
+    }
+
+    @Test
+    public void writeDuringLoadWins() throws SQLException {
+        UserCache cache = new UserCache(10);
+        UserSession written = new UserSession("erin", "2023005", "10.0.0.6");
+        // 读库期间另一个线程写入了更新的记录, 旧的读取结果不能覆盖它
+        assertNull(cache.get("2023005", id -> {
+            cache.put(id, written);
+            return null;
+        }));
+        assertSame(written, cache.get("2023005", this::load));
+        assertEquals(0, loads);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws SQLException {
+        UserCache cache = new UserCache(2);
+        cache.put("a", new UserSession("a", "a", "ip"));
+        cache.put("b", new UserSession("b", "b", "ip"));
+        cache.get("a", this::load);
+        cache.put("c", new UserSession("c", "c", "ip"));
+
+        assertEquals(2, cache.size());
+        cache.get("a", this::load);
+        assertEquals(0, loads);
+        cache.get("b", this::load);
+        assertEquals(1, loads);
+        assertTrue(cache.stats().contains("evictions=2"));
+    }
+}
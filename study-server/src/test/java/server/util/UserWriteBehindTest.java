@@ -0,0 +1,136 @@
+package server.util;
+
+import org.junit.After;
+import org.junit.Test;
+import server.models.UserSession;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class UserWriteBehindTest {
+    private final List<List<UserSession>> batches = new ArrayList<>();
+    private UserWriteBehind writer;
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.close(1000);
+        }
+    }
+
+    @Test
+    public void fullBatchIsWrittenWithoutWaitingForFlushInterval() {
+        writer = new UserWriteBehind(this::record, 3, 60_000, 1000);
+        writer.enqueue(user("a", "1"));
+        writer.enqueue(user("b", "2"));
+        writer.enqueue(user("c", "3"));
+
+        await(() -> writtenCount() == 3);
+        assertEquals(1, batchCount());
+        assertEquals("1", batch(0).get(0).getStudentId());
+        assertEquals("3", batch(0).get(2).getStudentId());
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    @Test
+    public void partialBatchIsFlushedAfterInterval() {
+        writer = new UserWriteBehind(this::record, 100, 50, 1000);
+        long start = System.currentTimeMillis();
+        writer.enqueue(user("a", "1"));
+        writer.enqueue(user("b", "2"));
+
+        await(() -> writtenCount() == 2);
+        assertTrue(System.currentTimeMillis() - start >= 40);
+        assertEquals(1, batchCount());
+    }
+
+    @Test
+    public void repeatedLoginKeepsOnlyLatestRecord() {
+        writer = new UserWriteBehind(this::record, 100, 60_000, 1000);
+        writer.enqueue(user("a", "1", "10.0.0.1"));
+        writer.enqueue(user("b", "2", "10.0.0.2"));
+        writer.enqueue(user("a", "1", "10.0.0.3"));
+        assertEquals(2, writer.getPendingCount());
+
+        // 关闭时写完剩余的记录
+        assertEquals(0, writer.close(1000));
+        assertEquals(1, batchCount());
+        List<UserSession> batch = batch(0);
+        assertEquals(2, batch.size());
+        assertEquals("2", batch.get(0).getStudentId());
+        assertEquals("10.0.0.3", batch.get(1).getIpAddress());
+    }
+
+    @Test
+    public void failedBatchIsRetriedAndNewerRecordWins() {
+        AtomicInteger attempts = new AtomicInteger();
+        writer = new UserWriteBehind(batch -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new SQLException("database down");
+            }
+            record(batch);
+        }, 1, 0, 1000);
+        writer.enqueue(user("a", "1", "10.0.0.1"));
+        await(() -> attempts.get() == 1);
+        writer.enqueue(user("a", "1", "10.0.0.2"));
+        writer.retryNow();
+
+        await(() -> writtenCount() == 1);
+        assertEquals("10.0.0.2", batch(0).get(0).getIpAddress());
+        assertEquals(0, writer.getPendingCount());
+        assertTrue(writer.stats().contains("failures=1"));
+    }
+
+    private void record(List<UserSession> batch) {
+        synchronized (batches) {
+            batches.add(new ArrayList<>(batch));
+        }
+    }
+
+    private int batchCount() {
+        synchronized (batches) {
+            return batches.size();
+        }
+    }
+
+    private List<UserSession> batch(int index) {
+        synchronized (batches) {
+            return batches.get(index);
+        }
+    }
+
+    private int writtenCount() {
+        synchronized (batches) {
+            int count = 0;
+            for (List<UserSession> batch : batches) {
+                count += batch.size();
+            }
+            return count;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static UserSession user(String username, String studentId) {
+        return user(username, studentId, "127.0.0.1");
+    }
+
+    private static UserSession user(String username, String studentId, String ip) {
+        return new UserSession(username, studentId, ip);
+    }
+}